@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates;
+
+import htsjdk.samtools.util.Log;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import picard.sam.markduplicates.util.OpticalDuplicateFinder;
+import picard.sam.markduplicates.util.ReadEndsForMarkDuplicates;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks finding optical duplicates within duplicate sets of various sizes.  The reads in each set are spread over
+ * a few tiles, with a tile extent chosen so that roughly a tenth of them are optical duplicates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpticalDuplicateFinderBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int setSize;
+
+    private List<ReadEndsForMarkDuplicates> duplicateSet;
+    private OpticalDuplicateFinder opticalDuplicateFinder;
+
+    @Setup
+    public void setup() {
+        duplicateSet = ReadEndsWorkload.makePairs(setSize, 0.0, 42);
+        final int numTiles = 4;
+        final int extent = (int) Math.sqrt(10.0 * setSize / numTiles) * 2 * OpticalDuplicateFinder.DEFAULT_OPTICAL_DUPLICATE_DISTANCE;
+        for (int i = 0; i < duplicateSet.size(); i++) {
+            final ReadEndsForMarkDuplicates end = duplicateSet.get(i);
+            end.tile = (short) (1101 + i % numTiles);
+            end.x = end.x % extent;
+            end.y = end.y % extent;
+        }
+        opticalDuplicateFinder = new OpticalDuplicateFinder(OpticalDuplicateFinder.DEFAULT_READ_NAME_REGEX,
+                OpticalDuplicateFinder.DEFAULT_OPTICAL_DUPLICATE_DISTANCE, Log.getInstance(OpticalDuplicateFinderBenchmark.class));
+    }
+
+    @Benchmark
+    public boolean[] findOpticalDuplicates() {
+        return opticalDuplicateFinder.findOpticalDuplicates(duplicateSet, duplicateSet.get(0));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates;
+
+import htsjdk.samtools.util.SortingCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import picard.sam.markduplicates.util.CompactReadEndsForMarkDuplicatesCodec;
+import picard.sam.markduplicates.util.ReadEndsForMarkDuplicates;
+import picard.sam.markduplicates.util.ReadEndsForMarkDuplicatesCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks encoding and decoding coordinate-sorted read ends, as spilled to disk by the MarkDuplicates sorting
+ * collections, with each of the read end codecs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadEndsCodecBenchmark {
+    @Param({"100000"})
+    public int numReadEnds;
+
+    @Param({"default", "compact"})
+    public String codec;
+
+    private List<ReadEndsForMarkDuplicates> readEnds;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        readEnds = ReadEndsWorkload.makePairs(numReadEnds, 0.1, 42);
+        readEnds.sort(Comparator.<ReadEndsForMarkDuplicates>comparingInt(e -> e.read1ReferenceIndex).thenComparingInt(e -> e.read1Coordinate));
+        encoded = encode();
+    }
+
+    private SortingCollection.Codec<ReadEndsForMarkDuplicates> newCodec() {
+        return "compact".equals(codec) ? new CompactReadEndsForMarkDuplicatesCodec() : new ReadEndsForMarkDuplicatesCodec();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SortingCollection.Codec<ReadEndsForMarkDuplicates> readEndsCodec = newCodec();
+        readEndsCodec.setOutputStream(out);
+        for (final ReadEndsForMarkDuplicates end : readEnds) {
+            readEndsCodec.encode(end);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public void decode(final Blackhole blackhole) {
+        final SortingCollection.Codec<ReadEndsForMarkDuplicates> readEndsCodec = newCodec();
+        readEndsCodec.setInputStream(new ByteArrayInputStream(encoded));
+        ReadEndsForMarkDuplicates end;
+        while ((end = readEndsCodec.decode()) != null) {
+            blackhole.consume(end);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates;
+
+import picard.sam.markduplicates.util.ReadEnds;
+import picard.sam.markduplicates.util.ReadEndsForMarkDuplicates;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic read ends for the markduplicates benchmarks, resembling a coordinate-sorted paired-end whole
+ * genome run: pairs spread over a few reference sequences with ~300bp inserts, a given fraction of which duplicate
+ * the positions of an earlier pair, and locations spread over the tiles of a flowcell lane.
+ */
+final class ReadEndsWorkload {
+    static final int NUM_REFERENCES = 3;
+    static final int REFERENCE_LENGTH = 50000000;
+    static final int NUM_TILES = 16;
+    static final int TILE_EXTENT = 30000;
+
+    private ReadEndsWorkload() {}
+
+    /** Makes the given number of paired read ends, in input (not sorted) order. */
+    static List<ReadEndsForMarkDuplicates> makePairs(final int numPairs, final double duplicateRate, final long seed) {
+        final Random random = new Random(seed);
+        final List<ReadEndsForMarkDuplicates> pairs = new ArrayList<>(numPairs);
+        for (int i = 0; i < numPairs; i++) {
+            final ReadEndsForMarkDuplicates end = new ReadEndsForMarkDuplicates();
+            if (i > 0 && random.nextDouble() < duplicateRate) {
+                final ReadEndsForMarkDuplicates original = pairs.get(random.nextInt(i));
+                end.read1ReferenceIndex = original.read1ReferenceIndex;
+                end.read1Coordinate = original.read1Coordinate;
+                end.read2ReferenceIndex = original.read2ReferenceIndex;
+                end.read2Coordinate = original.read2Coordinate;
+                end.orientation = original.orientation;
+            } else {
+                end.read1ReferenceIndex = random.nextInt(NUM_REFERENCES);
+                end.read1Coordinate = 1 + random.nextInt(REFERENCE_LENGTH);
+                end.read2ReferenceIndex = end.read1ReferenceIndex;
+                end.read2Coordinate = end.read1Coordinate + 200 + random.nextInt(200);
+                end.orientation = random.nextInt(10) == 0 ? ReadEnds.RF : ReadEnds.FR;
+            }
+            end.orientationForOpticalDuplicates = end.orientation;
+            end.libraryId = 1;
+            end.score = (short) (2000 + random.nextInt(2000));
+            end.read1IndexInFile = 2L * i;
+            end.read2IndexInFile = 2L * i + 1;
+            end.readGroup = 0;
+            end.tile = (short) (1101 + random.nextInt(NUM_TILES));
+            end.x = random.nextInt(TILE_EXTENT);
+            end.y = random.nextInt(TILE_EXTENT);
+            pairs.add(end);
+        }
+        return pairs;
+    }
+
+    /** Makes Illumina-style read names. */
+    static String[] makeReadNames(final int numReadNames, final long seed) {
+        final Random random = new Random(seed);
+        final String[] readNames = new String[numReadNames];
+        for (int i = 0; i < numReadNames; i++) {
+            readNames[i] = "HWI-ST1234:136:C3L4AACXX:" + (1 + random.nextInt(8)) + ":" + (1101 + random.nextInt(NUM_TILES)) +
+                    ":" + random.nextInt(TILE_EXTENT) + ":" + random.nextInt(TILE_EXTENT);
+        }
+        return readNames;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import picard.sam.util.PhysicalLocationShort;
+import picard.sam.util.ReadNameParser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks parsing the physical location out of Illumina read names, using both the optimized default parsing and a
+ * regular expression.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadNameParserBenchmark {
+    private static final int NUM_READ_NAMES = 1024;
+
+    private String[] readNames;
+    private final int[] tokens = new int[3];
+    private final PhysicalLocationShort location = new PhysicalLocationShort();
+    private ReadNameParser defaultParser;
+    private ReadNameParser regexParser;
+
+    @Setup
+    public void setup() {
+        readNames = ReadEndsWorkload.makeReadNames(NUM_READ_NAMES, 42);
+        defaultParser = new ReadNameParser(ReadNameParser.DEFAULT_READ_NAME_REGEX);
+        regexParser = new ReadNameParser("[a-zA-Z0-9\\-]+:[0-9]+:[a-zA-Z0-9]+:[0-9]+:([0-9]+):([0-9]+):([0-9]+).*");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_READ_NAMES)
+    public void getLastThreeFields(final Blackhole blackhole) {
+        for (final String readName : readNames) {
+            blackhole.consume(ReadNameParser.getLastThreeFields(readName, ':', tokens));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_READ_NAMES)
+    public void addLocationInformationDefault(final Blackhole blackhole) {
+        for (final String readName : readNames) {
+            blackhole.consume(defaultParser.addLocationInformation(readName, location));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_READ_NAMES)
+    public void addLocationInformationRegex(final Blackhole blackhole) {
+        for (final String readName : readNames) {
+            blackhole.consume(regexParser.addLocationInformation(readName, location));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates;
+
+import htsjdk.samtools.DuplicateSet;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks splitting a duplicate set by UMI, as for a deep amplicon: the reads carry UMIs from a number of source
+ * molecules, with a sequencing error in a tenth of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UmiGraphBenchmark {
+    private static final String UMI_TAG = "RX";
+    private static final String ASSIGNED_UMI_TAG = "MI";
+
+    @Param({"100", "1000", "10000"})
+    public int numReads;
+
+    @Param({"8", "12"})
+    public int umiLength;
+
+    private DuplicateSet duplicateSet;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        final String[] molecules = new String[Math.max(1, numReads / 4)];
+        for (int i = 0; i < molecules.length; i++) {
+            molecules[i] = randomBases(random, umiLength);
+        }
+
+        final SAMFileHeader header = new SAMFileHeader();
+        duplicateSet = new DuplicateSet();
+        for (int i = 0; i < numReads; i++) {
+            final char[] umi = molecules[random.nextInt(molecules.length)].toCharArray();
+            if (random.nextInt(10) == 0) {
+                umi[random.nextInt(umiLength)] = randomBases(random, 1).charAt(0);
+            }
+            final SAMRecord record = new SAMRecord(header);
+            record.setReadName("read" + i);
+            record.setAttribute(UMI_TAG, new String(umi));
+            duplicateSet.add(record);
+        }
+    }
+
+    private static String randomBases(final Random random, final int length) {
+        final StringBuilder bases = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            bases.append("ACGT".charAt(random.nextInt(4)));
+        }
+        return bases.toString();
+    }
+
+    @Benchmark
+    public List<DuplicateSet> joinUmisIntoDuplicateSets() {
+        return new UmiGraph(duplicateSet, UMI_TAG, ASSIGNED_UMI_TAG, false).joinUmisIntoDuplicateSets(1);
+    }
+}
@@ -33,6 +33,7 @@ import htsjdk.samtools.util.IntervalList;
 import htsjdk.samtools.util.SequenceUtil;
 import picard.filter.CountingFilter;
 import picard.filter.CountingPairedFilter;
+import picard.util.MemoryMappedReferenceSequenceFileWalker.MappedReferenceSequence;
 
 /**
  * Class for collecting data on reference coverage, base qualities and excluded bases from one AbstractLocusInfo object for
@@ -52,7 +53,7 @@ public abstract class AbstractWgsMetricsCollector<T extends AbstractRecordAndOff
     /** Count of sites with a given depth of coverage. Includes all but quality 2 bases.
      * We draw depths from this histogram when we calculate the theoretical het sensitivity.
      */
-    protected final long[] unfilteredDepthHistogramArray;
+    protected final DepthHistogram unfilteredDepthCounts;
     /** Count of bases observed with a given base quality. Includes all but quality 2 bases.
      * We draw bases from this histogram when we calculate the theoretical het sensitivity.
      */
@@ -61,7 +62,7 @@ public abstract class AbstractWgsMetricsCollector<T extends AbstractRecordAndOff
      * Count of sites with a given depth of coverage.
      * Excludes bases with quality below MINIMUM_BASE_QUALITY (default 20).
      */
-    protected final long[] highQualityDepthHistogramArray;
+    protected final DepthHistogram highQualityDepthCounts;
     /**
      * Number of aligned bases that were filtered out because they were of low base quality (default is < 20).
      */
@@ -100,8 +101,8 @@ public abstract class AbstractWgsMetricsCollector<T extends AbstractRecordAndOff
             throw new IllegalArgumentException("Coverage cap must be positive.");
         }
         this.collectWgsMetrics = collectWgsMetrics;
-        unfilteredDepthHistogramArray = new long[coverageCap + 1];
-        highQualityDepthHistogramArray = new long[coverageCap + 1];
+        unfilteredDepthCounts = new DepthHistogram(coverageCap);
+        highQualityDepthCounts = new DepthHistogram(coverageCap);
         unfilteredBaseQHistogramArray = new long[Byte.MAX_VALUE];
         this.coverageCap    = coverageCap;
         this.intervals      = intervals;
@@ -116,6 +117,21 @@ public abstract class AbstractWgsMetricsCollector<T extends AbstractRecordAndOff
      */
     public abstract void addInfo(final AbstractLocusInfo<T> info, final ReferenceSequence ref, boolean referenceBaseN);
 
+    /**
+     * Adds the data accumulated by another collector, over different loci, to this collector
+     * @param other collector with the same coverage cap
+     */
+    void merge(final AbstractWgsMetricsCollector<T> other) {
+        unfilteredDepthCounts.merge(other.unfilteredDepthCounts);
+        highQualityDepthCounts.merge(other.highQualityDepthCounts);
+        for (int i = 0; i < unfilteredBaseQHistogramArray.length; ++i) {
+            unfilteredBaseQHistogramArray[i] += other.unfilteredBaseQHistogramArray[i];
+        }
+        basesExcludedByBaseq += other.basesExcludedByBaseq;
+        basesExcludedByOverlap += other.basesExcludedByOverlap;
+        basesExcludedByCapping += other.basesExcludedByCapping;
+    }
+
     /**
      * Adds collected metrics and depth histogram to file
      * @param file MetricsFile for result of collector's work
@@ -142,11 +158,11 @@ public abstract class AbstractWgsMetricsCollector<T extends AbstractRecordAndOff
     }
 
     protected Histogram<Integer> getHighQualityDepthHistogram() {
-        return getHistogram(highQualityDepthHistogramArray, "coverage", "high_quality_coverage_count");
+        return highQualityDepthCounts.toHistogram("coverage", "high_quality_coverage_count", 0);
     }
 
     protected Histogram<Integer> getUnfilteredDepthHistogram() {
-        return getHistogram(unfilteredDepthHistogramArray, "coverage", "unfiltered_coverage_count");
+        return unfilteredDepthCounts.toHistogram("coverage", "unfiltered_coverage_count", 0);
     }
 
     protected Histogram<Integer> getUnfilteredBaseQHistogram() {
@@ -213,7 +229,9 @@ public abstract class AbstractWgsMetricsCollector<T extends AbstractRecordAndOff
      * @return true if reference base at position represents a no call, otherwise false
      */
     boolean isReferenceBaseN(final int position, final ReferenceSequence ref) {
-        final byte base = ref.getBases()[position - 1];
+        // A mapped sequence's bases are read from the mapping, rather than copied into an array
+        final byte base = ref instanceof MappedReferenceSequence ?
+                ((MappedReferenceSequence) ref).getBase(position) : ref.getBases()[position - 1];
         return SequenceUtil.isNoCall(base);
     }
 }
@@ -120,6 +120,15 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
             }
         }
 
+        @Override
+        public void merge(final PerUnitMetricCollector<AlignmentSummaryMetrics, Comparable<?>, SAMRecordAndReference> other) {
+            final GroupAlignmentSummaryMetricsPerUnitMetricCollector otherCollector = (GroupAlignmentSummaryMetricsPerUnitMetricCollector) other;
+            unpairedCollector.merge(otherCollector.unpairedCollector);
+            firstOfPairCollector.merge(otherCollector.firstOfPairCollector);
+            secondOfPairCollector.merge(otherCollector.secondOfPairCollector);
+            pairCollector.merge(otherCollector.pairCollector);
+        }
+
         @Override
         public void finish() {
             // Let the collectors do any summary computations etc.
@@ -187,6 +196,32 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
                 collectQualityData(record, ref);
             }
 
+            /** Adds the counts collected by another collector of the same category and unit to this one. */
+            public void merge(final IndividualAlignmentSummaryMetricsCollector other) {
+                numPositiveStrand += other.numPositiveStrand;
+                readLengthHistogram.addHistogram(other.readLengthHistogram);
+                chimeras += other.chimeras;
+                chimerasDenominator += other.chimerasDenominator;
+                adapterReads += other.adapterReads;
+                indels += other.indels;
+                nonBisulfiteAlignedBases += other.nonBisulfiteAlignedBases;
+                hqNonBisulfiteAlignedBases += other.hqNonBisulfiteAlignedBases;
+                mismatchHistogram.addHistogram(other.mismatchHistogram);
+                hqMismatchHistogram.addHistogram(other.hqMismatchHistogram);
+                badCycleHistogram.addHistogram(other.badCycleHistogram);
+
+                metrics.TOTAL_READS += other.metrics.TOTAL_READS;
+                metrics.PF_READS += other.metrics.PF_READS;
+                metrics.PF_NOISE_READS += other.metrics.PF_NOISE_READS;
+                metrics.PF_READS_ALIGNED += other.metrics.PF_READS_ALIGNED;
+                metrics.PF_READS_IMPROPER_PAIRS += other.metrics.PF_READS_IMPROPER_PAIRS;
+                metrics.READS_ALIGNED_IN_PAIRS += other.metrics.READS_ALIGNED_IN_PAIRS;
+                metrics.PF_HQ_ALIGNED_READS += other.metrics.PF_HQ_ALIGNED_READS;
+                metrics.PF_ALIGNED_BASES += other.metrics.PF_ALIGNED_BASES;
+                metrics.PF_HQ_ALIGNED_BASES += other.metrics.PF_HQ_ALIGNED_BASES;
+                metrics.PF_HQ_ALIGNED_Q20_BASES += other.metrics.PF_HQ_ALIGNED_Q20_BASES;
+            }
+
             public void onComplete() {
                 //summarize read data
                 if (metrics.TOTAL_READS > 0)
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis;
+
+import htsjdk.samtools.util.IOUtil;
+import org.broadinstitute.barclay.argparser.Argument;
+import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
+import org.broadinstitute.barclay.help.DocumentedFeature;
+import picard.cmdline.CommandLineProgram;
+import picard.cmdline.StandardOptionDefinitions;
+import picard.cmdline.programgroups.ReferenceProgramGroup;
+
+import java.io.File;
+
+/**
+ * Builds a {@link GcWindowIndex} of a reference, to be passed to {@link CollectGcBiasMetrics} with GC_WINDOW_INDEX.
+ */
+@CommandLineProgramProperties(
+        summary = BuildGcWindowIndex.USAGE_SUMMARY + BuildGcWindowIndex.USAGE_DETAILS,
+        oneLineSummary = BuildGcWindowIndex.USAGE_SUMMARY,
+        programGroup = ReferenceProgramGroup.class
+)
+@DocumentedFeature
+public class BuildGcWindowIndex extends CommandLineProgram {
+    static final String USAGE_SUMMARY = "Builds an index of the GC content of each window of a reference for CollectGcBiasMetrics.";
+
+    static final String USAGE_DETAILS = "This tool computes the GC content of every window of the given size along a reference " +
+            "once, and writes it to a file that CollectGcBiasMetrics can memory-map with GC_WINDOW_INDEX rather than scanning " +
+            "the reference on every run. The window size must match the SCAN_WINDOW_SIZE later given to CollectGcBiasMetrics.<br />" +
+            "<h4>Usage example:</h4>" +
+            "<pre>" +
+            "java -jar picard.jar BuildGcWindowIndex \\<br />" +
+            "      R=reference_sequence.fasta \\<br />" +
+            "      O=reference_sequence.gcw" +
+            "</pre>" +
+            "<hr />";
+
+    @Argument(shortName = StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc = "The GC window index file to write.")
+    public File OUTPUT;
+
+    @Argument(shortName = "WINDOW_SIZE", doc = "The size of the scanning windows on the reference genome.")
+    public int SCAN_WINDOW_SIZE = 100;
+
+    public static void main(final String[] args) {
+        new BuildGcWindowIndex().instanceMainWithExit(args);
+    }
+
+    @Override
+    protected boolean requiresReference() {
+        return true;
+    }
+
+    @Override
+    protected String[] customCommandLineValidation() {
+        if (SCAN_WINDOW_SIZE < 1) {
+            return new String[]{"SCAN_WINDOW_SIZE must be at least 1."};
+        }
+        return super.customCommandLineValidation();
+    }
+
+    @Override
+    protected int doWork() {
+        IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
+        IOUtil.assertFileIsWritable(OUTPUT);
+
+        GcWindowIndex.create(REFERENCE_SEQUENCE, SCAN_WINDOW_SIZE, OUTPUT);
+        return 0;
+    }
+}
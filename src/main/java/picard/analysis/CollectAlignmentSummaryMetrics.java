@@ -146,6 +146,24 @@ public class CollectAlignmentSummaryMetrics extends SinglePassSamProgram {
         collector.acceptRecord(rec, ref);
     }
 
+    @Override protected boolean supportsSharding() { return true; }
+
+    @Override protected Shard newShard(final SAMFileHeader header) {
+        final AlignmentSummaryMetricsCollector shardCollector = new AlignmentSummaryMetricsCollector(METRIC_ACCUMULATION_LEVEL,
+                header.getReadGroups(), REFERENCE_SEQUENCE != null, ADAPTER_SEQUENCE, MAX_INSERT_SIZE,
+                EXPECTED_PAIR_ORIENTATIONS, IS_BISULFITE_SEQUENCED);
+
+        return new Shard() {
+            @Override public void acceptRead(final SAMRecord rec, final ReferenceSequence ref) {
+                shardCollector.acceptRecord(rec, ref);
+            }
+
+            @Override public void mergeIntoProgram() {
+                collector.merge(shardCollector);
+            }
+        };
+    }
+
     @Override protected void finish() {
         collector.finish();
 
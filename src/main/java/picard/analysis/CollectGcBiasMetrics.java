@@ -26,19 +26,31 @@ package picard.analysis;
 
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.reference.FastaSequenceIndex;
+import htsjdk.samtools.reference.FastaSequenceIndexEntry;
 import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.CollectionUtil;
 import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.SequenceUtil;
 import org.broadinstitute.barclay.argparser.Argument;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import org.broadinstitute.barclay.help.DocumentedFeature;
+import picard.PicardException;
 import picard.cmdline.programgroups.DiagnosticsAndQCProgramGroup;
 import picard.metrics.GcBiasMetrics;
 import picard.util.RExecutor;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -139,9 +151,22 @@ public class CollectGcBiasMetrics extends SinglePassSamProgram {
             "allows to gain two plots per level at the same time: one is the usual one and the other excludes duplicates.")
     public boolean ALSO_IGNORE_DUPLICATES = false;
 
+    @Argument(shortName = "GCW", doc = "A GC window index of the reference built by BuildGcWindowIndex with the same " +
+            "SCAN_WINDOW_SIZE. If given, the GC of each window is read from it rather than computed from the reference. " +
+            "REFERENCE_SEQUENCE must then have a sequence dictionary (.dict) or index (.fai).", optional = true)
+    public File GC_WINDOW_INDEX = null;
+
     // Calculates GcBiasMetrics for all METRIC_ACCUMULATION_LEVELs provided
     private GcBiasMetricsCollector multiCollector;
 
+    private GcWindowIndex gcWindowIndex = null;
+
+    // The number of windows of the reference at each GC, shared by the collectors of every shard
+    private int[] windowsByGc;
+
+    // The GC of the windows of each contig, computed once for the collectors of all of the contig's shards
+    private GcBiasMetricsCollector.GcCache gcCache;
+
     // Bins for the histograms to track the number of windows at each GC, and the number of read starts
     // at bins of each GC %. Need 101 to get from 0-100.
     private static final int BINS = 101;
@@ -164,11 +189,72 @@ public class CollectGcBiasMetrics extends SinglePassSamProgram {
         IOUtil.assertFileIsWritable(SUMMARY_OUTPUT);
         IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
 
-        //Calculate windowsByGc for the reference sequence
-        final int[] windowsByGc = GcBiasUtils.calculateRefWindowsByGc(BINS, REFERENCE_SEQUENCE, SCAN_WINDOW_SIZE);
+        //Calculate windowsByGc for the reference sequence, or read it from the precomputed index
+        if (GC_WINDOW_INDEX != null) {
+            IOUtil.assertFileIsReadable(GC_WINDOW_INDEX);
+            gcWindowIndex = new GcWindowIndex(GC_WINDOW_INDEX);
+            if (gcWindowIndex.getWindowSize() != SCAN_WINDOW_SIZE) {
+                throw new PicardException("GC_WINDOW_INDEX " + GC_WINDOW_INDEX + " was built with a window size of " +
+                        gcWindowIndex.getWindowSize() + " but SCAN_WINDOW_SIZE is " + SCAN_WINDOW_SIZE);
+            }
+            try {
+                SequenceUtil.assertSequenceDictionariesEqual(gcWindowIndex.getSequenceDictionary(), getReferenceDictionary(REFERENCE_SEQUENCE));
+            } catch (final SequenceUtil.SequenceListsDifferException e) {
+                throw new PicardException("GC_WINDOW_INDEX " + GC_WINDOW_INDEX + " was not built from REFERENCE_SEQUENCE " +
+                        REFERENCE_SEQUENCE, e);
+            }
+            windowsByGc = gcWindowIndex.getWindowsByGc();
+        } else {
+            windowsByGc = GcBiasUtils.calculateRefWindowsByGc(BINS, REFERENCE_SEQUENCE, SCAN_WINDOW_SIZE);
+        }
 
         //Delegate actual collection to GcBiasMetricCollector
-        multiCollector = new GcBiasMetricsCollector(METRIC_ACCUMULATION_LEVEL, windowsByGc, header.getReadGroups(), SCAN_WINDOW_SIZE, IS_BISULFITE_SEQUENCED, ALSO_IGNORE_DUPLICATES);
+        gcCache = new GcBiasMetricsCollector.GcCache(SCAN_WINDOW_SIZE);
+        multiCollector = new GcBiasMetricsCollector(METRIC_ACCUMULATION_LEVEL, windowsByGc, header.getReadGroups(), SCAN_WINDOW_SIZE,
+                IS_BISULFITE_SEQUENCED, ALSO_IGNORE_DUPLICATES, gcWindowIndex, gcCache);
+    }
+
+    /**
+     * Gets the names and lengths of the sequences of the reference from its dictionary or, failing that, its index, so
+     * that the reference does not have to be read through to check them.
+     */
+    private static SAMSequenceDictionary getReferenceDictionary(final File reference) {
+        final ReferenceSequenceFile refFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(reference);
+        try {
+            if (refFile.getSequenceDictionary() != null) {
+                return refFile.getSequenceDictionary();
+            }
+        } finally {
+            CloserUtil.close(refFile);
+        }
+
+        final Path fastaIndex = ReferenceSequenceFileFactory.getFastaIndexFileName(reference.toPath());
+        if (!Files.exists(fastaIndex)) {
+            throw new PicardException("REFERENCE_SEQUENCE " + reference + " must have a sequence dictionary (.dict) or " +
+                    "index (.fai) to be checked against GC_WINDOW_INDEX");
+        }
+        final List<SAMSequenceRecord> sequences = new ArrayList<>();
+        for (final FastaSequenceIndexEntry entry : new FastaSequenceIndex(fastaIndex)) {
+            sequences.add(new SAMSequenceRecord(entry.getContig(), (int) entry.getSize()));
+        }
+        return new SAMSequenceDictionary(sequences);
+    }
+
+    @Override protected boolean supportsSharding() { return true; }
+
+    @Override protected Shard newShard(final SAMFileHeader header) {
+        final GcBiasMetricsCollector shardCollector = new GcBiasMetricsCollector(METRIC_ACCUMULATION_LEVEL, windowsByGc,
+                header.getReadGroups(), SCAN_WINDOW_SIZE, IS_BISULFITE_SEQUENCED, ALSO_IGNORE_DUPLICATES, gcWindowIndex, gcCache);
+
+        return new Shard() {
+            @Override public void acceptRead(final SAMRecord record, final ReferenceSequence ref) {
+                shardCollector.acceptRecord(record, ref);
+            }
+
+            @Override public void mergeIntoProgram() {
+                multiCollector.merge(shardCollector);
+            }
+        };
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -185,6 +271,7 @@ public class CollectGcBiasMetrics extends SinglePassSamProgram {
     @Override
     protected void finish() {
         multiCollector.finish();
+        CloserUtil.close(gcWindowIndex);
         writeResultsToFiles();
     }
 
@@ -147,6 +147,23 @@ public class CollectInsertSizeMetrics extends SinglePassSamProgram {
         multiCollector.acceptRecord(record, ref);
     }
 
+    @Override protected boolean supportsSharding() { return true; }
+
+    @Override protected Shard newShard(final SAMFileHeader header) {
+        final InsertSizeMetricsCollector shardCollector = new InsertSizeMetricsCollector(METRIC_ACCUMULATION_LEVEL,
+                header.getReadGroups(), MINIMUM_PCT, HISTOGRAM_WIDTH, DEVIATIONS, INCLUDE_DUPLICATES);
+
+        return new Shard() {
+            @Override public void acceptRead(final SAMRecord record, final ReferenceSequence ref) {
+                shardCollector.acceptRecord(record, ref);
+            }
+
+            @Override public void mergeIntoProgram() {
+                multiCollector.merge(shardCollector);
+            }
+        };
+    }
+
     @Override protected void finish() {
         multiCollector.finish();
 
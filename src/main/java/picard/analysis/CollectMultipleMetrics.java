@@ -362,6 +362,13 @@ public class CollectMultipleMetrics extends CommandLineProgram {
     @Argument(shortName = "UNPAIRED", doc = "Include unpaired reads in CollectSequencingArtifactMetrics. If set to true then all paired reads will be included as well - " +
             "MINIMUM_INSERT_SIZE and MAXIMUM_INSERT_SIZE will be ignored in CollectSequencingArtifactMetrics.")
     public boolean INCLUDE_UNPAIRED = false;
+
+    @Argument(doc = "The number of threads to use. If greater than one, the input is an indexed, coordinate sorted BAM " +
+            "and all of the programs support it, separate regions of the genome are collected in parallel and the results " +
+            "merged. Otherwise the input is decoded on its own thread and the programs are spread across this many worker " +
+            "threads, each program seeing the reads in the same order as it would single-threaded.")
+    public int NUM_THREADS = 1;
+
     /**
      * Contents of PROGRAM set is transferred to this set during command-line validation, so that an outside
      * developer can invoke this class programmatically and provide alternative Programs to run by calling
@@ -381,6 +388,9 @@ public class CollectMultipleMetrics extends CommandLineProgram {
         if (PROGRAM.isEmpty()) {
             return new String[]{"No programs specified with PROGRAM"};
         }
+        if (NUM_THREADS < 1) {
+            return new String[]{"NUM_THREADS must be at least 1, found " + NUM_THREADS};
+        }
         programsToRun = new LinkedHashSet<>(PROGRAM);
 
         return super.customCommandLineValidation();
@@ -423,7 +433,7 @@ public class CollectMultipleMetrics extends CommandLineProgram {
 
             programs.add(instance);
         }
-        SinglePassSamProgram.makeItSo(INPUT, REFERENCE_SEQUENCE, ASSUME_SORTED, STOP_AFTER, programs);
+        SinglePassSamProgram.makeItSo(INPUT, REFERENCE_SEQUENCE, ASSUME_SORTED, STOP_AFTER, programs, NUM_THREADS);
 
         return 0;
     }
@@ -24,16 +24,24 @@
 
 package picard.analysis;
 
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.filter.AggregateFilter;
 import htsjdk.samtools.filter.DuplicateReadFilter;
 import htsjdk.samtools.filter.InsertSizeFilter;
 import htsjdk.samtools.filter.NotPrimaryAlignmentFilter;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.metrics.MetricBase;
 import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
 import htsjdk.samtools.util.*;
 import org.broadinstitute.barclay.argparser.Argument;
@@ -45,9 +53,14 @@ import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.DiagnosticsAndQCProgramGroup;
 import picard.util.DbSnpBitSetUtil;
+import picard.util.ThreadPoolExecutorWithExceptions;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
 import java.lang.Math;
 
 
@@ -131,6 +144,21 @@ public class CollectOxoGMetrics extends CommandLineProgram {
     @Argument(doc = "For debugging purposes: stop after visiting this many sites with at least 1X coverage.")
     public int STOP_AFTER = Integer.MAX_VALUE;
 
+    @Argument(doc = "If true, count the bases by walking the aligned bases of each read against the reference, rather than " +
+            "piling up the reads at each locus. This produces the same metrics while allocating far less per base. Cannot be " +
+            "used with STOP_AFTER.")
+    public boolean USE_FAST_ALGORITHM = false;
+
+    @Argument(doc = "The number of threads used to collect metrics over regions of the genome in parallel. Only used on a " +
+            "coordinate sorted and indexed INPUT, with an indexed REFERENCE_SEQUENCE and no STOP_AFTER.")
+    public int NUM_THREADS = 1;
+
+    /** The default maximum span of the genome collected by each thread at a time when NUM_THREADS is greater than one. */
+    static final int DEFAULT_BASES_PER_SHARD = 10000000;
+
+    /** The maximum span of the genome collected by each thread at a time when NUM_THREADS is greater than one. */
+    int basesPerShard = DEFAULT_BASES_PER_SHARD;
+
     private final Log log = Log.getInstance(CollectOxoGMetrics.class);
     private static final String UNKNOWN_LIBRARY = "UnknownLibrary";
     private static final String UNKNOWN_SAMPLE = "UnknownSample";
@@ -222,6 +250,8 @@ public class CollectOxoGMetrics extends CommandLineProgram {
         if (MAXIMUM_INSERT_SIZE < MINIMUM_INSERT_SIZE) {
             messages.add("MAXIMUM_INSERT_SIZE cannot be less than MINIMUM_INSERT_SIZE");
         }
+        if (NUM_THREADS < 1) messages.add("NUM_THREADS must be at least 1, found " + NUM_THREADS);
+        if (USE_FAST_ALGORITHM && STOP_AFTER != Integer.MAX_VALUE) messages.add("STOP_AFTER cannot be used with USE_FAST_ALGORITHM");
 
         return messages.isEmpty() ? null : messages.toArray(new String[messages.size()]);
     }
@@ -255,12 +285,7 @@ public class CollectOxoGMetrics extends CommandLineProgram {
 
         // Setup the calculators
         final Set<String> contexts = CONTEXTS.isEmpty() ? makeContextStrings(CONTEXT_SIZE) : CONTEXTS;
-        final ListMap<String, Calculator> calculators = new ListMap<>();
-        for (final String context : contexts) {
-            for (final String library : libraries) {
-                calculators.add(context, new Calculator(library, context));
-            }
-        }
+        final ListMap<String, Calculator> calculators = makeCalculators(contexts, libraries);
 
         // Load up dbSNP if available
         log.info("Loading dbSNP File: " + DB_SNP);
@@ -268,40 +293,106 @@ public class CollectOxoGMetrics extends CommandLineProgram {
         if (DB_SNP != null) dbSnp = new DbSnpBitSetUtil(DB_SNP, in.getFileHeader().getSequenceDictionary());
         else dbSnp = null;
 
-        // Make an iterator that will filter out funny looking things
+        final IntervalList intervals = INTERVALS != null ? IntervalList.fromFile(INTERVALS).uniqued() : null;
+
+        log.info("Starting iteration.");
+        if (canCollectInParallel(in)) {
+            final List<Shard> shards = makeShards(in.getFileHeader(), intervals);
+            CloserUtil.close(in);
+            CloserUtil.close(refWalker);
+            collectInParallel(shards, contexts, libraries, dbSnp, calculators);
+        } else if (USE_FAST_ALGORITHM) {
+            final RecordCounter counter = new RecordCounter(in.getFileHeader(), intervals != null ? new IntervalListReferenceSequenceMask(intervals) : null,
+                    sequenceIndex -> new ReferenceWindow(refWalker.get(sequenceIndex).getBases(), 1), dbSnp, libraries, calculators);
+            final ProgressLogger progress = new ProgressLogger(log);
+            for (final SAMRecord rec : in) {
+                counter.accept(rec);
+                progress.record(rec);
+            }
+            CloserUtil.close(in);
+        } else {
+            // Make an iterator that will filter out funny looking things
+            final SamLocusIterator iterator = makeLocusIterator(in, intervals, false);
+            collect(iterator, sequenceIndex -> new ReferenceWindow(refWalker.get(sequenceIndex).getBases(), 1), dbSnp, calculators);
+            CloserUtil.close(in);
+        }
+
+        final MetricsFile<CpcgMetrics, Integer> file = getMetricsFile();
+        for (final List<Calculator> calcs : calculators.values()) {
+            for (final Calculator calc : calcs) {
+                final CpcgMetrics m = calc.finish();
+                m.SAMPLE_ALIAS = StringUtil.join(",", new ArrayList<>(samples));
+                file.addMetric(m);
+            }
+        }
+
+        file.write(OUTPUT);
+        return 0;
+    }
+
+    /** Makes a calculator for each library for each context, in the order of the contexts and libraries. */
+    private ListMap<String, Calculator> makeCalculators(final Set<String> contexts, final Set<String> libraries) {
+        final ListMap<String, Calculator> calculators = new ListMap<>();
+        for (final String context : contexts) {
+            for (final String library : libraries) {
+                calculators.add(context, new Calculator(library, context));
+            }
+        }
+        return calculators;
+    }
+
+    /** Makes a locus iterator over the intervals (or the whole input if null) that will filter out funny looking things. */
+    private SamLocusIterator makeLocusIterator(final SamReader in, final IntervalList intervals, final boolean useIndex) {
         final SamLocusIterator iterator;
-        if (INTERVALS != null) {
-            final IntervalList intervals = IntervalList.fromFile(INTERVALS);
-            iterator = new SamLocusIterator(in, intervals.uniqued(), false);
+        if (intervals != null) {
+            iterator = new SamLocusIterator(in, intervals, useIndex);
         } else {
             iterator = new SamLocusIterator(in);
         }
         iterator.setEmitUncoveredLoci(false);
         iterator.setMappingQualityScoreCutoff(MINIMUM_MAPPING_QUALITY);
         iterator.setIncludeNonPfReads(INCLUDE_NON_PF_READS);
+        iterator.setSamFilters(makeFilters());
+        return iterator;
+    }
 
+    private List<SamRecordFilter> makeFilters() {
         final List<SamRecordFilter> filters = new ArrayList<>();
         filters.add(new NotPrimaryAlignmentFilter());
         filters.add(new DuplicateReadFilter());
         if (MINIMUM_INSERT_SIZE > 0 || MAXIMUM_INSERT_SIZE > 0) {
             filters.add(new InsertSizeFilter(MINIMUM_INSERT_SIZE, MAXIMUM_INSERT_SIZE));
         }
-        iterator.setSamFilters(filters);
+        return filters;
+    }
 
-        log.info("Starting iteration.");
+    /**
+     * Accepts every C or G site of the iterator that is not a dbSNP site into the calculators for its context.
+     *
+     * @param reference gets the bases of the reference around the sites of a reference sequence, given its index
+     */
+    private void collect(final SamLocusIterator iterator, final IntFunction<ReferenceWindow> reference,
+                         final DbSnpBitSetUtil dbSnp, final ListMap<String, Calculator> calculators) {
         long nextLogTime = 0;
         int sites = 0;
+        int sequenceIndex = -1;
+        ReferenceWindow window = null;
 
         for (final SamLocusIterator.LocusInfo info : iterator) {
             // Skip dbSNP sites
             final String chrom = info.getSequenceName();
             final int pos = info.getPosition();
-            final int index = pos - 1;
             if (dbSnp != null && dbSnp.isDbSnpSite(chrom, pos)) continue;
 
+            if (info.getSequenceIndex() != sequenceIndex) {
+                sequenceIndex = info.getSequenceIndex();
+                window = reference.apply(sequenceIndex);
+            }
+
             // Skip sites at the end of chromosomes 
-            final byte[] bases = refWalker.get(info.getSequenceIndex()).getBases();
-            if (pos <= CONTEXT_SIZE|| pos > bases.length - CONTEXT_SIZE) continue;
+            final byte[] bases = window.bases;
+            final int index = pos - window.firstPosition;
+            if (pos <= CONTEXT_SIZE || pos > info.getSequenceLength() - CONTEXT_SIZE) continue;
 
             // Skip non C-G bases
             final byte base = StringUtil.toUpperCase(bases[index]);
@@ -329,19 +420,331 @@ public class CollectOxoGMetrics extends CommandLineProgram {
             }
             if (sites >= STOP_AFTER) break;
         }
+    }
 
-        final MetricsFile<CpcgMetrics, Integer> file = getMetricsFile();
-        for (final List<Calculator> calcs : calculators.values()) {
-            for (final Calculator calc : calcs) {
-                final CpcgMetrics m = calc.finish();
-                m.SAMPLE_ALIAS = StringUtil.join(",", new ArrayList<>(samples));
-                file.addMetric(m);
+    /**
+     * Regions of the genome can be collected in parallel if more than one thread was asked for, sites are not limited
+     * by STOP_AFTER (which depends on the order they are visited in) and both the input and the reference can be
+     * queried by region.
+     */
+    private boolean canCollectInParallel(final SamReader in) {
+        if (NUM_THREADS < 2) return false;
+        final ReferenceSequenceFile referenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE_SEQUENCE);
+        final boolean referenceIndexed = referenceFile.isIndexed();
+        CloserUtil.close(referenceFile);
+        if (STOP_AFTER != Integer.MAX_VALUE || !in.hasIndex() ||
+                in.getFileHeader().getSortOrder() != SAMFileHeader.SortOrder.coordinate || !referenceIndexed) {
+            log.warn("NUM_THREADS is only used on a coordinate sorted and indexed INPUT, with an indexed REFERENCE_SEQUENCE " +
+                    "and no STOP_AFTER. Collecting on a single thread.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Splits the intervals (or the whole genome if null) into shards, each of the intervals of one reference sequence
+     * within a span of at most basesPerShard.
+     */
+    private List<Shard> makeShards(final SAMFileHeader header, final IntervalList intervals) {
+        final List<Interval> toCollect = new ArrayList<>();
+        if (intervals != null) {
+            toCollect.addAll(intervals.getIntervals());
+        } else {
+            for (final SAMSequenceRecord sequence : header.getSequenceDictionary().getSequences()) {
+                toCollect.add(new Interval(sequence.getSequenceName(), 1, sequence.getSequenceLength()));
             }
         }
 
-        file.write(OUTPUT);
-        CloserUtil.close(in);
-        return 0;
+        final List<Shard> shards = new ArrayList<>();
+        Shard shard = null;
+        for (final Interval interval : toCollect) {
+            for (int start = interval.getStart(); start <= interval.getEnd(); start += basesPerShard) {
+                final Interval piece = new Interval(interval.getContig(), start, Math.min(start + basesPerShard - 1, interval.getEnd()));
+                if (shard == null || !shard.intervals.getIntervals().get(0).getContig().equals(piece.getContig()) ||
+                        piece.getEnd() - shard.intervals.getIntervals().get(0).getStart() >= basesPerShard) {
+                    shard = new Shard(header);
+                    shards.add(shard);
+                }
+                shard.intervals.add(piece);
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Collects the shards on NUM_THREADS threads, each into its own calculators, and adds the counts of every shard's
+     * calculators to those of the given calculators.
+     */
+    private void collectInParallel(final List<Shard> shards, final Set<String> contexts, final Set<String> libraries,
+                                   final DbSnpBitSetUtil dbSnp, final ListMap<String, Calculator> calculators) {
+        log.info("Collecting " + shards.size() + " regions on " + NUM_THREADS + " threads.");
+        final ReferenceSequenceFile referenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE_SEQUENCE);
+        final List<SamReader> readers = new ArrayList<>();
+        final ThreadLocal<SamReader> threadReaders = ThreadLocal.withInitial(() -> {
+            final SamReader reader = SamReaderFactory.makeDefault().referenceSequence(REFERENCE_SEQUENCE).open(INPUT);
+            synchronized (readers) {
+                readers.add(reader);
+            }
+            return reader;
+        });
+
+        final ExecutorService executor = new ThreadPoolExecutorWithExceptions(NUM_THREADS);
+        try {
+            final List<Future<ListMap<String, Calculator>>> futures = new ArrayList<>(shards.size());
+            for (final Shard shard : shards) {
+                futures.add(executor.submit(() -> {
+                    final ReferenceWindow window = shard.getReference(referenceFile, CONTEXT_SIZE);
+                    final ListMap<String, Calculator> shardCalculators = makeCalculators(contexts, libraries);
+                    // the iterators must be closed before the thread's reader can be queried for its next shard
+                    if (USE_FAST_ALGORITHM) {
+                        final SamReader reader = threadReaders.get();
+                        final RecordCounter counter = new RecordCounter(reader.getFileHeader(), new IntervalListReferenceSequenceMask(shard.intervals),
+                                sequenceIndex -> window, dbSnp, libraries, shardCalculators);
+                        final SAMRecordIterator records = reader.queryOverlapping(shard.getQueryIntervals());
+                        try {
+                            records.forEachRemaining(counter::accept);
+                        } finally {
+                            records.close();
+                        }
+                    } else {
+                        final SamLocusIterator iterator = makeLocusIterator(threadReaders.get(), shard.intervals, true);
+                        try {
+                            collect(iterator, sequenceIndex -> window, dbSnp, shardCalculators);
+                        } finally {
+                            iterator.close();
+                        }
+                    }
+                    return shardCalculators;
+                }));
+            }
+            int merged = 0;
+            for (final Future<ListMap<String, Calculator>> future : futures) {
+                final ListMap<String, Calculator> shardCalculators = future.get();
+                for (final Map.Entry<String, List<Calculator>> entry : calculators.entrySet()) {
+                    final List<Calculator> shardCalcs = shardCalculators.get(entry.getKey());
+                    for (int i = 0; i < entry.getValue().size(); ++i) {
+                        entry.getValue().get(i).merge(shardCalcs.get(i));
+                    }
+                }
+                if (++merged % 100 == 0) {
+                    log.info("Collected " + merged + " of " + shards.size() + " regions.");
+                }
+            }
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PicardException("Failed to collect metrics", e.getCause());
+        } catch (final InterruptedException e) {
+            throw new PicardException("Interrupted while collecting metrics", e);
+        } finally {
+            executor.shutdownNow();
+            synchronized (readers) {
+                readers.forEach(CloserUtil::close);
+            }
+            CloserUtil.close(referenceFile);
+        }
+    }
+
+    /** The intervals of one reference sequence that are collected together on one thread. */
+    private static final class Shard {
+        final IntervalList intervals;
+
+        Shard(final SAMFileHeader header) {
+            this.intervals = new IntervalList(header);
+        }
+
+        /** Gets the intervals to query the input for. */
+        QueryInterval[] getQueryIntervals() {
+            final SAMFileHeader header = intervals.getHeader();
+            final QueryInterval[] queryIntervals = intervals.getIntervals().stream()
+                    .map(i -> new QueryInterval(header.getSequenceIndex(i.getContig()), i.getStart(), i.getEnd()))
+                    .toArray(QueryInterval[]::new);
+            return QueryInterval.optimizeIntervals(queryIntervals);
+        }
+
+        /** Gets the bases of the reference spanned by the intervals, and the context on either side. */
+        ReferenceWindow getReference(final ReferenceSequenceFile referenceFile, final int contextSize) {
+            final List<Interval> list = intervals.getIntervals();
+            final String contig = list.get(0).getContig();
+            final int start = Math.max(1, list.get(0).getStart() - contextSize);
+            final int end = Math.min(intervals.getHeader().getSequence(contig).getSequenceLength(),
+                    list.get(list.size() - 1).getEnd() + contextSize);
+            // the reference file is shared by every thread
+            synchronized (referenceFile) {
+                return new ReferenceWindow(referenceFile.getSubsequenceAt(contig, start, end).getBases(), start);
+            }
+        }
+    }
+
+    /** Bases of a reference sequence, starting at a given position. */
+    private static final class ReferenceWindow {
+        final byte[] bases;
+        /** The 1-based position of the first of the bases in the reference sequence. */
+        final int firstPosition;
+
+        ReferenceWindow(final byte[] bases, final int firstPosition) {
+            this.bases = bases;
+            this.firstPosition = firstPosition;
+        }
+    }
+
+    /**
+     * Counts the bases of coordinate sorted records into calculators by walking the aligned bases of each record against
+     * the reference, with the same filters and results as piling the records up with a SamLocusIterator and accepting
+     * each locus with collect().  A site is counted towards a library's TOTAL_SITES when the first of its bases is.
+     */
+    private final class RecordCounter {
+        // The longest contexts whose calculators are looked up in an array indexed by their bases in base 4
+        private static final int MAX_CONTEXT_LENGTH_TO_INDEX = 9;
+
+        private final ReferenceSequenceMask mask;
+        private final IntFunction<ReferenceWindow> reference;
+        private final DbSnpBitSetUtil dbSnp;
+        private final ListMap<String, Calculator> calculators;
+        private final SamRecordFilter filter = new AggregateFilter(makeFilters());
+        private final Map<String, Integer> libraryIndexByReadGroup = new HashMap<>();
+        private final int numLibraries;
+        // The calculators of each library, for each context made up of A, C, G and T (null if contexts are too long)
+        private final Calculator[][] calculatorsByContextIndex;
+
+        private int sequenceIndex = -1;
+        private String sequenceName;
+        private int sequenceLength;
+        private ReferenceWindow window;
+        // The sites of the current reference sequence already counted for each library, relative to the window
+        private BitSet[] sitesCounted;
+
+        /**
+         * @param header      the header of the records
+         * @param mask        the loci to count, or null for all
+         * @param reference   gets the bases of the reference around the loci of a reference sequence, given its index
+         * @param libraries   the libraries, in the order of the calculators of each context
+         */
+        RecordCounter(final SAMFileHeader header, final ReferenceSequenceMask mask, final IntFunction<ReferenceWindow> reference, final DbSnpBitSetUtil dbSnp,
+                      final Set<String> libraries, final ListMap<String, Calculator> calculators) {
+            this.mask = mask;
+            this.reference = reference;
+            this.dbSnp = dbSnp;
+            this.calculators = calculators;
+            this.numLibraries = libraries.size();
+
+            final List<String> libraryList = new ArrayList<>(libraries);
+            for (final SAMReadGroupRecord rg : header.getReadGroups()) {
+                final int index = libraryList.indexOf(Optional.ofNullable(rg.getLibrary()).orElse(UNKNOWN_LIBRARY));
+                if (index >= 0) libraryIndexByReadGroup.put(rg.getId(), index);
+            }
+
+            final int contextLength = 1 + 2 * CONTEXT_SIZE;
+            if (contextLength <= MAX_CONTEXT_LENGTH_TO_INDEX) {
+                calculatorsByContextIndex = new Calculator[1 << (2 * contextLength)][];
+                for (final Map.Entry<String, List<Calculator>> entry : calculators.entrySet()) {
+                    final byte[] context = StringUtil.stringToBytes(entry.getKey());
+                    final int contextIndex = contextIndex(context, 0, 1);
+                    if (contextIndex >= 0) {
+                        calculatorsByContextIndex[contextIndex] = entry.getValue().toArray(new Calculator[entry.getValue().size()]);
+                    }
+                }
+            } else {
+                calculatorsByContextIndex = null;
+            }
+        }
+
+        void accept(final SAMRecord rec) {
+            // the filters of the SamLocusIterator, and then the filters it is given
+            if (rec.getReadUnmappedFlag() || rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) return;
+            if (rec.getMappingQuality() < MINIMUM_MAPPING_QUALITY) return;
+            if (!INCLUDE_NON_PF_READS && rec.getReadFailsVendorQualityCheckFlag()) return;
+            if (filter.filterOut(rec)) return;
+
+            final Integer libraryIndex = rec.getReadGroup() == null ? null : libraryIndexByReadGroup.get(rec.getReadGroup().getId());
+            if (libraryIndex == null) return;
+
+            if (rec.getReferenceIndex() != sequenceIndex) {
+                sequenceIndex = rec.getReferenceIndex();
+                sequenceName = rec.getReferenceName();
+                sequenceLength = rec.getHeader().getSequence(sequenceIndex).getSequenceLength();
+                window = reference.apply(sequenceIndex);
+                sitesCounted = new BitSet[numLibraries];
+                for (int i = 0; i < numLibraries; ++i) sitesCounted[i] = new BitSet();
+            }
+
+            final byte[] readBases = rec.getReadBases();
+            final byte[] readQuals;
+            if (USE_OQ && rec.getOriginalBaseQualities() != null) readQuals = rec.getOriginalBaseQualities();
+            else readQuals = rec.getBaseQualities();
+            final boolean negativeStrand = rec.getReadNegativeStrandFlag();
+            final int read = rec.getReadPairedFlag() && rec.getSecondOfPairFlag() ? 2 : 1;
+            final byte[] refBases = window.bases;
+            final BitSet sites = sitesCounted[libraryIndex];
+
+            for (final AlignmentBlock block : rec.getAlignmentBlocks()) {
+                final int readStart = block.getReadStart() - 1;
+                final int refStart = block.getReferenceStart();
+                for (int offset = 0; offset < block.getLength(); ++offset) {
+                    final int pos = refStart + offset;
+                    if (mask != null && !mask.get(sequenceIndex, pos)) continue;
+
+                    // Skip sites at the end of chromosomes and non C-G bases
+                    if (pos <= CONTEXT_SIZE || pos > sequenceLength - CONTEXT_SIZE) continue;
+                    final int index = pos - window.firstPosition;
+                    final byte refBase = StringUtil.toUpperCase(refBases[index]);
+                    if (refBase != 'C' && refBase != 'G') continue;
+
+                    final int readIndex = readStart + offset;
+                    if (readQuals[readIndex] < MINIMUM_QUALITY_SCORE) continue;
+                    final int classification = classifyBase(refBase, readBases[readIndex], negativeStrand, read);
+                    if (classification == NOT_COUNTED) continue;
+
+                    if (dbSnp != null && dbSnp.isDbSnpSite(sequenceName, pos)) continue;
+
+                    final Calculator calculator = getCalculator(refBases, index, refBase, libraryIndex);
+                    if (calculator == null) continue; // happens if we get ambiguous bases in the reference
+
+                    final boolean newSite = !sites.get(index);
+                    if (newSite) sites.set(index);
+                    calculator.accept(refBase, classification, newSite);
+                }
+            }
+        }
+
+        /** Gets the calculator of the library for the context around the index of the reference bases, as collect() would. */
+        private Calculator getCalculator(final byte[] refBases, final int index, final byte refBase, final int libraryIndex) {
+            if (calculatorsByContextIndex != null) {
+                final int contextIndex = refBase == 'C' ?
+                        contextIndex(refBases, index - CONTEXT_SIZE, 1) :
+                        contextIndex(refBases, index + CONTEXT_SIZE, -1);
+                if (contextIndex >= 0) {
+                    final Calculator[] calculatorsForContext = calculatorsByContextIndex[contextIndex];
+                    return calculatorsForContext == null ? null : calculatorsForContext[libraryIndex];
+                }
+            }
+
+            final String tmp = StringUtil.bytesToString(refBases, index - CONTEXT_SIZE, 1 + (2 * CONTEXT_SIZE)).toUpperCase();
+            final String context = refBase == 'C' ? tmp : SequenceUtil.reverseComplement(tmp);
+            final List<Calculator> calculatorsForContext = calculators.get(context);
+            return calculatorsForContext == null ? null : calculatorsForContext.get(libraryIndex);
+        }
+
+        /**
+         * Gets the index of the context of 1 + 2 * CONTEXT_SIZE bases read from start in the given direction (complemented
+         * if backwards), or -1 if it has a base other than A, C, G or T.
+         */
+        private int contextIndex(final byte[] bases, final int start, final int direction) {
+            int contextIndex = 0;
+            for (int i = 0; i < 1 + 2 * CONTEXT_SIZE; ++i) {
+                final int baseIndex;
+                switch (StringUtil.toUpperCase(bases[start + i * direction])) {
+                    case 'A': baseIndex = 0; break;
+                    case 'C': baseIndex = 1; break;
+                    case 'G': baseIndex = 2; break;
+                    case 'T': baseIndex = 3; break;
+                    default: return -1;
+                }
+                contextIndex = (contextIndex << 2) | (direction > 0 ? baseIndex : 3 - baseIndex);
+            }
+            return contextIndex;
+        }
     }
 
     private Set<String> makeContextStrings(final int contextSize) {
@@ -357,6 +760,41 @@ public class CollectOxoGMetrics extends CommandLineProgram {
         return contexts;
     }
 
+    // How a base call at a C or G reference site is counted
+    private static final int NOT_COUNTED = -1;
+    private static final int CONTROL_A = 0;
+    private static final int OXIDATED_A = 1;
+    private static final int CONTROL_C = 2;
+    private static final int OXIDATED_C = 3;
+
+    /**
+     * Classifies a base call at a C or G reference site as the reference or alternative allele, and as consistent with
+     * oxidation or not, from the base as aligned and the strand and number of its read.
+     */
+    private static int classifyBase(final byte refBase, final byte base, final boolean negativeStrand, final int read) {
+        final byte altBase = (refBase == 'C') ? (byte) 'A' : (byte) 'T';
+        final byte baseAsRead = negativeStrand ? SequenceUtil.complement(base) : base;
+
+        // Figure out how to count the alternative allele. If the damage is caused by oxidation of G
+        // during shearing (in non-rnaseq data), then we know that:
+        //     G>T observation is always in read 1
+        //     C>A observation is always in read 2
+        // But if the substitution is from other causes the distribution of A/T across R1/R2 will be
+        // random.
+        if (base == refBase) {
+            if (baseAsRead == 'G' && read == 1) return OXIDATED_C;
+            else if (baseAsRead == 'G' && read == 2) return CONTROL_C;
+            else if (baseAsRead == 'C' && read == 1) return CONTROL_C;
+            else if (baseAsRead == 'C' && read == 2) return OXIDATED_C;
+        } else if (base == altBase) {
+            if (baseAsRead == 'T' && read == 1) return OXIDATED_A;
+            else if (baseAsRead == 'T' && read == 2) return CONTROL_A;
+            else if (baseAsRead == 'A' && read == 1) return CONTROL_A;
+            else if (baseAsRead == 'A' && read == 2) return OXIDATED_A;
+        }
+        return NOT_COUNTED;
+    }
+
     /** A little class for counting alleles. */
     private static class Counts {
         int controlA;
@@ -364,6 +802,15 @@ public class CollectOxoGMetrics extends CommandLineProgram {
         int controlC;
         int oxidatedC;
 
+        void add(final int classification) {
+            switch (classification) {
+                case CONTROL_A: ++controlA; break;
+                case OXIDATED_A: ++oxidatedA; break;
+                case CONTROL_C: ++controlC; break;
+                case OXIDATED_C: ++oxidatedC; break;
+            }
+        }
+
         int total() { return controlC + oxidatedC + controlA + oxidatedA; }
     }
 
@@ -412,6 +859,41 @@ public class CollectOxoGMetrics extends CommandLineProgram {
             }
         }
 
+        /** Accepts a single base call at a site, the first of the site to be accepted if newSite. */
+        void accept(final byte refBase, final int classification, final boolean newSite) {
+            if (newSite) this.sites++;
+            if (refBase == 'C') {
+                switch (classification) {
+                    case CONTROL_A: ++this.refCcontrolA; break;
+                    case OXIDATED_A: ++this.refCoxidatedA; break;
+                    case CONTROL_C: ++this.refCcontrolC; break;
+                    case OXIDATED_C: ++this.refCoxidatedC; break;
+                }
+            } else if (refBase == 'G') {
+                switch (classification) {
+                    case CONTROL_A: ++this.refGcontrolA; break;
+                    case OXIDATED_A: ++this.refGoxidatedA; break;
+                    case CONTROL_C: ++this.refGcontrolC; break;
+                    case OXIDATED_C: ++this.refGoxidatedC; break;
+                }
+            } else {
+                throw new IllegalStateException("Reference bases other than G and C not supported.");
+            }
+        }
+
+        /** Adds the counts of a calculator for the same library and context, e.g. from another region, to this one's. */
+        void merge(final Calculator other) {
+            this.sites += other.sites;
+            this.refCcontrolA += other.refCcontrolA;
+            this.refCoxidatedA += other.refCoxidatedA;
+            this.refCcontrolC += other.refCcontrolC;
+            this.refCoxidatedC += other.refCoxidatedC;
+            this.refGcontrolA += other.refGcontrolA;
+            this.refGoxidatedA += other.refGoxidatedA;
+            this.refGcontrolC += other.refGcontrolC;
+            this.refGoxidatedC += other.refGoxidatedC;
+        }
+
         CpcgMetrics finish() {
             final CpcgMetrics m = new CpcgMetrics();
             m.LIBRARY = this.library;
@@ -457,7 +939,6 @@ public class CollectOxoGMetrics extends CommandLineProgram {
          */
         private Counts computeAlleleFraction(final SamLocusIterator.LocusInfo info, final byte refBase) {
             final Counts counts = new Counts();
-            final byte altBase = (refBase == 'C') ? (byte) 'A' : (byte) 'T';
 
             for (final SamLocusIterator.RecordAndOffset rec : info.getRecordAndOffsets()) {
                 final byte qual;
@@ -475,28 +956,8 @@ public class CollectOxoGMetrics extends CommandLineProgram {
                 if (qual < MINIMUM_QUALITY_SCORE) continue;
                 if (!this.library.equals(Optional.ofNullable(samrec.getReadGroup().getLibrary()).orElse(UNKNOWN_LIBRARY))) continue;
 
-                // Get the read base, and get it in "as read" orientation
-                final byte base = rec.getReadBase();
-                final byte baseAsRead = samrec.getReadNegativeStrandFlag() ? SequenceUtil.complement(base) : base;
                 final int read = samrec.getReadPairedFlag() && samrec.getSecondOfPairFlag() ? 2 : 1;
-
-                // Figure out how to count the alternative allele. If the damage is caused by oxidation of G
-                // during shearing (in non-rnaseq data), then we know that:
-                //     G>T observation is always in read 1
-                //     C>A observation is always in read 2
-                // But if the substitution is from other causes the distribution of A/T across R1/R2 will be
-                // random.
-                if (base == refBase) {
-                    if (baseAsRead == 'G' && read == 1) ++counts.oxidatedC;
-                    else if (baseAsRead == 'G' && read == 2) ++counts.controlC;
-                    else if (baseAsRead == 'C' && read == 1) ++counts.controlC;
-                    else if (baseAsRead == 'C' && read == 2) ++counts.oxidatedC;
-                } else if (base == altBase) {
-                    if (baseAsRead == 'T' && read == 1) ++counts.oxidatedA;
-                    else if (baseAsRead == 'T' && read == 2) ++counts.controlA;
-                    else if (baseAsRead == 'A' && read == 1) ++counts.controlA;
-                    else if (baseAsRead == 'A' && read == 2) ++counts.oxidatedA;
-                }
+                counts.add(classifyBase(refBase, rec.getReadBase(), samrec.getReadNegativeStrandFlag(), read));
             }
 
             return counts;
@@ -31,6 +31,8 @@ import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.filter.SecondaryAlignmentFilter;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
 import htsjdk.samtools.util.*;
 import org.broadinstitute.barclay.argparser.Argument;
@@ -47,6 +49,7 @@ import picard.filter.CountingFilter;
 import picard.filter.CountingMapQFilter;
 import picard.filter.CountingPairedFilter;
 import picard.util.MathUtil;
+import picard.util.MemoryMappedReferenceSequenceFileWalker;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -128,8 +131,20 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
     @Argument(doc = "Average read length in the file. Default is 150.", optional = true)
     public int READ_LENGTH = 150;
 
+    @Argument(doc = "The number of threads used to collect metrics over regions of the genome in parallel. Only used with " +
+            "USE_FAST_ALGORITHM on a coordinate sorted and indexed INPUT, with an indexed REFERENCE_SEQUENCE, no STOP_AFTER, and " +
+            "INTERVALS (if any) that each cover a whole reference sequence.", optional = true)
+    public int NUM_THREADS = 1;
+
+    @Argument(doc = "If true, memory-map the REFERENCE_SEQUENCE (which must be uncompressed and have a .fai index) rather than " +
+            "reading each reference sequence into memory, and load the next reference sequence into memory in the background.", optional = true)
+    public boolean MEMORY_MAP_REFERENCE = false;
+
     protected File INTERVALS = null;
 
+    /** The maximum number of genomic bases processed together when NUM_THREADS is greater than one. */
+    int basesPerRegion = ParallelWgsMetricsProcessor.DEFAULT_BASES_PER_REGION;
+
     private SAMFileHeader header = null;
 
     private final Log log = Log.getInstance(CollectWgsMetrics.class);
@@ -140,6 +155,14 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
         return true;
     }
 
+    @Override
+    protected String[] customCommandLineValidation() {
+        if (NUM_THREADS < 1) {
+            return new String[]{"NUM_THREADS must be at least 1, found " + NUM_THREADS};
+        }
+        return super.customCommandLineValidation();
+    }
+
     /**
      * @return An interval argument collection to be used for this tool. Subclasses can override this
      * to provide an argument collection with alternative arguments or argument annotations.
@@ -464,9 +487,9 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
 
         // Setup all the inputs
         final ProgressLogger progress = new ProgressLogger(log, 10000000, "Processed", "loci");
-        final ReferenceSequenceFileWalker refWalker = new ReferenceSequenceFileWalker(REFERENCE_SEQUENCE);
+        final ReferenceSequenceFileWalker refWalker = MEMORY_MAP_REFERENCE ?
+                new MemoryMappedReferenceSequenceFileWalker(REFERENCE_SEQUENCE) : new ReferenceSequenceFileWalker(REFERENCE_SEQUENCE);
         final SamReader in = getSamReader();
-        final AbstractLocusIterator iterator = getLocusIterator(in);
 
         final List<SamRecordFilter> filters = new ArrayList<>();
         final CountingFilter mapqFilter = new CountingMapQFilter(MINIMUM_MAPPING_QUALITY);
@@ -479,13 +502,20 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
         if (!COUNT_UNPAIRED) {
             filters.add(pairFilter);
         }
-        iterator.setSamFilters(filters);
-        iterator.setMappingQualityScoreCutoff(0); // Handled separately because we want to count bases
-        iterator.setIncludeNonPfReads(false);
 
         final AbstractWgsMetricsCollector collector = getCollector(COVERAGE_CAP, getIntervalsToExamine());
-        final WgsMetricsProcessor processor = getWgsMetricsProcessor(progress, refWalker, iterator, collector);
+        final WgsMetricsProcessor processor;
+        if (canProcessInParallel(in, collector)) {
+            processor = new ParallelWgsMetricsProcessor(this, REFERENCE_SEQUENCE, (FastWgsMetricsCollector) collector, filters, NUM_THREADS, basesPerRegion);
+        } else {
+            final AbstractLocusIterator iterator = getLocusIterator(in);
+            iterator.setSamFilters(filters);
+            iterator.setMappingQualityScoreCutoff(0); // Handled separately because we want to count bases
+            iterator.setIncludeNonPfReads(false);
+            processor = getWgsMetricsProcessor(progress, refWalker, iterator, collector);
+        }
         processor.processFile();
+        CloserUtil.close(refWalker);
 
         final MetricsFile<WgsMetrics, Integer> out = getMetricsFile();
         processor.addToMetricsFile(out, INCLUDE_BQ_HISTOGRAM, dupeFilter, mapqFilter, pairFilter);
@@ -494,6 +524,33 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
         return 0;
     }
 
+    /**
+     * Regions of the genome can be processed in parallel by the fast algorithm's collector (but not by others,
+     * which may collect more than can be merged) if both the input and the reference can be queried by region.
+     */
+    private boolean canProcessInParallel(final SamReader in, final AbstractWgsMetricsCollector<?> collector) {
+        if (NUM_THREADS < 2) return false;
+        if (collector.getClass() != FastWgsMetricsCollector.class || STOP_AFTER > 0 ||
+                !in.hasIndex() || in.getFileHeader().getSortOrder() != SAMFileHeader.SortOrder.coordinate) {
+            log.warn("NUM_THREADS is only used with USE_FAST_ALGORITHM on a coordinate sorted and indexed input, " +
+                    "and without STOP_AFTER. Processing on one thread.");
+            return false;
+        }
+        if (!ParallelWgsMetricsProcessor.canSplit(collector.intervals)) {
+            log.warn("NUM_THREADS is only used with INTERVALS that each cover a whole reference sequence. " +
+                    "Processing on one thread.");
+            return false;
+        }
+
+        final ReferenceSequenceFile referenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE_SEQUENCE);
+        final boolean indexed = referenceFile.isIndexed();
+        CloserUtil.close(referenceFile);
+        if (!indexed) {
+            log.warn("NUM_THREADS is only used with an indexed REFERENCE_SEQUENCE. Processing on one thread.");
+        }
+        return indexed;
+    }
+
     private <T extends AbstractRecordAndOffset> WgsMetricsProcessorImpl<T> getWgsMetricsProcessor(
             ProgressLogger progress, ReferenceSequenceFileWalker refWalker,
             AbstractLocusIterator<T, AbstractLocusInfo<T>> iterator, AbstractWgsMetricsCollector<T> collector) {
@@ -667,8 +724,8 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
             }
             final int highQualityDepth = Math.min(pileupSize, coverageCap);
             if (highQualityDepth < pileupSize) basesExcludedByCapping += pileupSize - coverageCap;
-            highQualityDepthHistogramArray[highQualityDepth]++;
-            unfilteredDepthHistogramArray[unfilteredDepth]++;
+            highQualityDepthCounts.increment(highQualityDepth);
+            unfilteredDepthCounts.increment(unfilteredDepth);
         }
     }
 }
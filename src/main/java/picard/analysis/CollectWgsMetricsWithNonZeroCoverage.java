@@ -215,8 +215,8 @@ public class CollectWgsMetricsWithNonZeroCoverage extends CollectWgsMetrics {
 
             // set count of the coverage-zero bin to 0 and re-calculate metrics
             // note we don't need to update the base quality histogram; there are no bases in the depth = 0 bin
-            highQualityDepthHistogramArray[0] = 0;
-            unfilteredDepthHistogramArray[0] = 0;
+            highQualityDepthCounts.clear(0);
+            unfilteredDepthCounts.clear(0);
 
             final WgsMetricsWithNonZeroCoverage metricsNonZero = (WgsMetricsWithNonZeroCoverage) getMetrics(dupeFilter, mapqFilter, pairFilter);
             metricsNonZero.CATEGORY = WgsMetricsWithNonZeroCoverage.Category.NON_ZERO_REGIONS;
@@ -232,16 +232,12 @@ public class CollectWgsMetricsWithNonZeroCoverage extends CollectWgsMetrics {
         }
 
         protected Histogram<Integer> getDepthHistogram() {
-            return getHistogram(highQualityDepthHistogramArray, "coverage", "count_WHOLE_GENOME");
+            return highQualityDepthCounts.toHistogram("coverage", "count_WHOLE_GENOME", 0);
         }
 
         private Histogram<Integer> getDepthHistogramNonZero() {
-            final Histogram<Integer> depthHistogram = new Histogram<>("coverage", "count_NON_ZERO_REGIONS");
             // do not include the zero-coverage bin
-            for (int i = 1; i < highQualityDepthHistogramArray.length; ++i) {
-                depthHistogram.increment(i, highQualityDepthHistogramArray[i]);
-            }
-            return depthHistogram;
+            return highQualityDepthCounts.toHistogram("coverage", "count_NON_ZERO_REGIONS", 1);
         }
 
         public boolean areHistogramsEmpty() {
@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis;
+
+import htsjdk.samtools.util.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts of loci at each depth of coverage, up to a maximum depth.  Rather than holding a count for every possible depth,
+ * which for a high coverage cap is mostly zeros, the counts of the lower depths are held in an array and the counts of
+ * the higher depths only for the depths that have been seen.  Consecutive loci at the same depth (e.g. long stretches
+ * without coverage) are counted as a run, and added to the counts when the depth changes.
+ */
+public class DepthHistogram {
+    /** The number of depths (from zero) that are counted in an array. */
+    static final int DENSE_DEPTHS = 1024;
+
+    private final int maxDepth;
+    private final long[] denseCounts;
+    private final TreeMap<Integer, Long> sparseCounts = new TreeMap<>();
+
+    /** The depth of the current run of loci, and the number of loci in it */
+    private int runDepth = 0;
+    private long runLength = 0;
+
+    /**
+     * @param maxDepth the highest depth that can be counted
+     */
+    public DepthHistogram(final int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Maximum depth must not be negative.");
+        }
+        this.maxDepth = maxDepth;
+        this.denseCounts = new long[Math.min(maxDepth + 1, DENSE_DEPTHS)];
+    }
+
+    /** @return the highest depth that can be counted */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Counts a locus at the given depth.
+     */
+    public void increment(final int depth) {
+        if (depth != runDepth) {
+            checkDepth(depth);
+            endRun();
+            runDepth = depth;
+        }
+        runLength++;
+    }
+
+    /**
+     * Counts a number of loci at the given depth.
+     */
+    public void increment(final int depth, final long count) {
+        checkDepth(depth);
+        add(depth, count);
+    }
+
+    /** @return the number of loci counted at the given depth */
+    public long get(final int depth) {
+        checkDepth(depth);
+        final long count;
+        if (depth < denseCounts.length) {
+            count = denseCounts[depth];
+        } else {
+            count = sparseCounts.getOrDefault(depth, 0L);
+        }
+        return depth == runDepth ? count + runLength : count;
+    }
+
+    /**
+     * Removes the loci counted at the given depth.
+     */
+    public void clear(final int depth) {
+        checkDepth(depth);
+        endRun();
+        if (depth < denseCounts.length) {
+            denseCounts[depth] = 0;
+        } else {
+            sparseCounts.remove(depth);
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram, with the same maximum depth, to this one.
+     */
+    public void merge(final DepthHistogram other) {
+        if (other.maxDepth != maxDepth) {
+            throw new IllegalArgumentException("Cannot merge histograms with maximum depths " + maxDepth + " and " + other.maxDepth);
+        }
+        for (int depth = 0; depth < denseCounts.length; ++depth) {
+            denseCounts[depth] += other.denseCounts[depth];
+        }
+        for (final Map.Entry<Integer, Long> entry : other.sparseCounts.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+        add(other.runDepth, other.runLength);
+    }
+
+    /** @return the sum of the depths of all counted loci, i.e. the number of bases that cover them */
+    public long getTotalDepth() {
+        long total = (long) runDepth * runLength;
+        for (int depth = 1; depth < denseCounts.length; ++depth) {
+            total += depth * denseCounts[depth];
+        }
+        for (final Map.Entry<Integer, Long> entry : sparseCounts.entrySet()) {
+            total += entry.getKey() * entry.getValue();
+        }
+        return total;
+    }
+
+    /** @return the counts of each depth from zero to the maximum depth */
+    public long[] toArray() {
+        final long[] counts = new long[maxDepth + 1];
+        System.arraycopy(denseCounts, 0, counts, 0, denseCounts.length);
+        sparseCounts.forEach((depth, count) -> counts[depth] = count);
+        counts[runDepth] += runLength;
+        return counts;
+    }
+
+    /**
+     * @return a histogram with a bin for each depth from firstDepth to the maximum depth, including those without loci
+     */
+    public Histogram<Integer> toHistogram(final String binLabel, final String valueLabel, final int firstDepth) {
+        final long[] counts = toArray();
+        final Histogram<Integer> histogram = new Histogram<>(binLabel, valueLabel);
+        for (int depth = firstDepth; depth < counts.length; ++depth) {
+            histogram.increment(depth, counts[depth]);
+        }
+        return histogram;
+    }
+
+    private void endRun() {
+        add(runDepth, runLength);
+        runLength = 0;
+    }
+
+    private void add(final int depth, final long count) {
+        if (count == 0) return;
+        if (depth < denseCounts.length) {
+            denseCounts[depth] += count;
+        } else {
+            sparseCounts.merge(depth, count, Long::sum);
+        }
+    }
+
+    private void checkDepth(final int depth) {
+        if (depth < 0 || depth > maxDepth) {
+            throw new IllegalArgumentException("Depth " + depth + " is not between 0 and " + maxDepth);
+        }
+    }
+}
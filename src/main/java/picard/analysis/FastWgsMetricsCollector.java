@@ -81,6 +81,11 @@ public class FastWgsMetricsCollector extends AbstractWgsMetricsCollector<EdgingR
      */
     private final int ARRAY_SIZE_PER_READ_LENGTH = 2000;
 
+    /**
+     * Loci before this position are only used to find the bases excluded at later loci, and are not collected
+     */
+    private int firstCollectedPosition = 1;
+
     /**
      * Creates a collector and initializes the inner data structures
      *
@@ -109,14 +114,14 @@ public class FastWgsMetricsCollector extends AbstractWgsMetricsCollector<EdgingR
                                 edgingRecordAndOffsets));
             }
         }
-        if (!referenceBaseN) {
+        if (!referenceBaseN && info.getPosition() >= firstCollectedPosition) {
             final int readNamesSize = pileupSize.get(info.getPosition());
             final int highQualityDepth = Math.min(readNamesSize, coverageCap);
             if (highQualityDepth < readNamesSize) {
                 basesExcludedByCapping += readNamesSize - coverageCap;
             }
-            highQualityDepthHistogramArray[highQualityDepth]++;
-            unfilteredDepthHistogramArray[unfilteredDepthSize.get(info.getPosition())]++;
+            highQualityDepthCounts.increment(highQualityDepth);
+            unfilteredDepthCounts.increment(unfilteredDepthSize.get(info.getPosition()));
         }
     }
 
@@ -127,7 +132,7 @@ public class FastWgsMetricsCollector extends AbstractWgsMetricsCollector<EdgingR
         final byte[] bases = record.getRecord().getReadBases();
         for (int i = 0; i < record.getLength(); i++) {
             final int index = i + position;
-            if (isReferenceBaseN(index, ref)) {
+            if (index < firstCollectedPosition || isReferenceBaseN(index, ref)) {
                 continue;
             }
             final byte quality = qualities[i + record.getOffset()];
@@ -156,6 +161,16 @@ public class FastWgsMetricsCollector extends AbstractWgsMetricsCollector<EdgingR
         recordsAndOffsetsForName.add(record);
     }
 
+    /**
+     * Sets the first position to collect, for a collector of loci on a single sequence that is given the loci
+     * before that position only so that it excludes the same overlapping bases as it would if it collected them.
+     *
+     * @param firstCollectedPosition position of the first locus to collect
+     */
+    void setFirstCollectedPosition(final int firstCollectedPosition) {
+        this.firstCollectedPosition = firstCollectedPosition;
+    }
+
     private void removeRecordFromMap(EdgingRecordAndOffset record, Set<EdgingRecordAndOffset> recordsAndOffsetsForName) {
         if (recordsAndOffsetsForName.size() == 1) {
             readsNames.remove(record.getReadName());
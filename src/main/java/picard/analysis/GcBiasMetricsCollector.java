@@ -31,16 +31,17 @@ import htsjdk.samtools.reference.ReferenceSequence;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.QualityUtil;
 import htsjdk.samtools.util.SequenceUtil;
-import htsjdk.samtools.util.StringUtil;
 import picard.metrics.GcBiasMetrics;
 import picard.metrics.MultiLevelCollector;
 import picard.metrics.PerUnitMetricCollector;
+import picard.util.MathUtil;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.HashMap;
+import java.util.WeakHashMap;
 
 /** Calculates GC Bias Metrics on multiple levels
  *  Created by kbergin on 3/23/15.
@@ -55,8 +56,13 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
     //Use to calculate additional results without duplicates
     private boolean ignoreDuplicates;
 
+    //precomputed gc of every window of the reference, or null to compute the gc of each contig as it is reached
+    private final GcWindowIndex gcWindowIndex;
+    //computes the gc of each contig, shared with other collectors that may need the same contigs
+    private final GcCache gcCache;
+
     //will hold the relevant gc information per contig
-    private byte [] gc = null;
+    private ByteBuffer gc = null;
     private int referenceIndex = -1;
     private byte [] refBases = null;
     private static final Log log = Log.getInstance(GcBiasMetricsCollector.class);
@@ -70,6 +76,30 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
     public GcBiasMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final int[] windowsByGc,
                                   final List<SAMReadGroupRecord> samRgRecords, final int scanWindowSize,
                                   final boolean bisulfite, final boolean ignoreDuplicates) {
+        this(accumulationLevels, windowsByGc, samRgRecords, scanWindowSize, bisulfite, ignoreDuplicates, null);
+    }
+
+    /**
+     * @param gcWindowIndex if not null, the gc of each window is looked up in this index, which must have been built
+     *                      from the same reference with the same window size, rather than computed from the reference
+     */
+    public GcBiasMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final int[] windowsByGc,
+                                  final List<SAMReadGroupRecord> samRgRecords, final int scanWindowSize,
+                                  final boolean bisulfite, final boolean ignoreDuplicates, final GcWindowIndex gcWindowIndex) {
+        this(accumulationLevels, windowsByGc, samRgRecords, scanWindowSize, bisulfite, ignoreDuplicates, gcWindowIndex,
+                new GcCache(scanWindowSize));
+    }
+
+    /**
+     * @param gcCache computes the gc of each contig not in the gcWindowIndex, and may be shared by collectors of
+     *                different regions of the same reference so that each contig's gc is only computed once
+     */
+    GcBiasMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final int[] windowsByGc,
+                           final List<SAMReadGroupRecord> samRgRecords, final int scanWindowSize,
+                           final boolean bisulfite, final boolean ignoreDuplicates, final GcWindowIndex gcWindowIndex,
+                           final GcCache gcCache) {
+        this.gcWindowIndex = gcWindowIndex;
+        this.gcCache = gcCache;
         this.scanWindowSize = scanWindowSize;
         this.bisulfite = bisulfite;
         this.windowsByGc = windowsByGc;
@@ -98,12 +128,12 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
     //or SAMPLE/LIBRARY/READ_GROUP (depending on aggregation levels)
     /////////////////////////////////////////////////////////////////////////////
     public class PerUnitGcBiasMetricsCollector implements PerUnitMetricCollector<GcBiasMetrics, Integer, GcBiasCollectorArgs> {
-        private final Map<String, GcObject> gcData;
+        private final GcObject gcData = new GcObject();
         // Additional object to store data without duplicates (null if option ALSO_IGNORE_DUPLICATES is not specified)
-        private Map<String, GcObject> gcDataNonDups;
-        private final String sample;
-        private final String library;
-        private final String readGroup;
+        private final GcObject gcDataNonDups;
+        // The name of this unit and its accumulation level, as reported in the metrics
+        private final String type;
+        private final String group;
         private static final String allReads = "All_Reads";
         final static String ACCUMULATION_LEVEL_ALL_READS = "All Reads";
         final static String ACCUMULATION_LEVEL_LIBRARY = "Library";
@@ -118,13 +148,20 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
         // a GcObject for this accumulation level
         /////////////////////////////////////////////////////////////////////////////
         public PerUnitGcBiasMetricsCollector(final String sample, final String library, final String readGroup) {
-            this.sample = sample;
-            this.library = library;
-            this.readGroup = readGroup;
-            this.gcData = prepareGcData();
-            if (ignoreDuplicates) {
-                this.gcDataNonDups = prepareGcData();
+            if (readGroup != null) {
+                this.type = readGroup;
+                this.group = ACCUMULATION_LEVEL_READ_GROUP;
+            } else if (library != null) {
+                this.type = library;
+                this.group = ACCUMULATION_LEVEL_LIBRARY;
+            } else if (sample != null) {
+                this.type = sample;
+                this.group = ACCUMULATION_LEVEL_SAMPLE;
+            } else {
+                this.type = allReads;
+                this.group = ACCUMULATION_LEVEL_ALL_READS;
             }
+            this.gcDataNonDups = ignoreDuplicates ? new GcObject() : null;
         }
 
         /////////////////////////////////////////////////////////////////////////////
@@ -144,17 +181,19 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
             if (!rec.getReadUnmappedFlag()) {
                 if (referenceIndex != rec.getReferenceIndex() || gc == null) {
                     final ReferenceSequence ref = args.getRef();
+                    // already upper case, see SinglePassSamProgram.makeItSo() and RegionShardCollector.acquireReference()
                     refBases = ref.getBases();
-                    StringUtil.toUpperCase(refBases);
-                    final int refLength = refBases.length;
-                    final int lastWindowStart = refLength - scanWindowSize;
-                    gc = GcBiasUtils.calculateAllGcs(refBases, lastWindowStart, scanWindowSize);
+                    if (gcWindowIndex != null) {
+                        gc = gcWindowIndex.getGc(rec.getReferenceIndex());
+                    } else {
+                        gc = gcCache.getGc(ref);
+                    }
                     referenceIndex = rec.getReferenceIndex();
                 }
 
-                addReadToGcData(rec, this.gcData);
+                addRead(this.gcData, rec, gc, refBases);
                 if (ignoreDuplicates && !rec.getDuplicateReadFlag()) {
-                    addReadToGcData(rec, this.gcDataNonDups);
+                    addRead(this.gcDataNonDups, rec, gc, refBases);
                 }
             } else {
                 updateTotalClusters(rec, this.gcData);
@@ -164,6 +203,20 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
             }
         }
 
+        /////////////////////////////////////////////////////////////////////////////
+        //Adds the counts of a collector of the same unit, e.g. one that accepted the
+        // records of another region of the input, to this one's
+        /////////////////////////////////////////////////////////////////////////////
+        @Override
+        public void merge(final PerUnitMetricCollector<GcBiasMetrics, Integer, GcBiasCollectorArgs> other) {
+            final PerUnitGcBiasMetricsCollector otherCollector = (PerUnitGcBiasMetricsCollector) other;
+            this.gcData.merge(otherCollector.gcData);
+            if (ignoreDuplicates) {
+                this.gcDataNonDups.merge(otherCollector.gcDataNonDups);
+            }
+            this.logCounter = Math.max(this.logCounter, otherCollector.logCounter);
+        }
+
         @Override
         public void finish() {}
 
@@ -179,46 +232,8 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
             }
         }
 
-        private void updateTotalClusters(final SAMRecord rec, final Map<String, GcObject> gcData) {
-            for (final Map.Entry<String, GcObject> entry : gcData.entrySet()) {
-                final GcObject gcCur = entry.getValue();
-                if (!rec.getReadPairedFlag() || rec.getFirstOfPairFlag()) ++gcCur.totalClusters;
-            }
-        }
-
-        private Map<String, GcObject> prepareGcData() {
-            final String prefix;
-            final Map<String, GcObject> gcData = new HashMap<>();
-            if (this.readGroup != null) {
-                prefix = this.readGroup;
-            } else if (this.library != null) {
-                prefix = this.library;
-            } else if (this.sample != null) {
-                prefix = this.sample;
-            } else {
-                prefix = allReads;
-            }
-            gcData.put(prefix, new GcObject());
-            return gcData;
-        }
-
-        private void addReadToGcData(final SAMRecord rec, final Map<String, GcObject> gcData) {
-            final String type;
-            String group;
-            if (this.readGroup != null) {
-                type = this.readGroup;
-                group = ACCUMULATION_LEVEL_READ_GROUP;
-            } else if (this.library != null) {
-                type = this.library;
-                group = ACCUMULATION_LEVEL_LIBRARY;
-            } else if (this.sample != null) {
-                type = this.sample;
-                group = ACCUMULATION_LEVEL_SAMPLE;
-            } else {
-                type = allReads;
-                group = ACCUMULATION_LEVEL_ALL_READS;
-            }
-            addRead(gcData.get(type), rec, group, gc, refBases);
+        private void updateTotalClusters(final SAMRecord rec, final GcObject gcCur) {
+            if (!rec.getReadPairedFlag() || rec.getFirstOfPairFlag()) ++gcCur.totalClusters;
         }
 
         /////////////////////////////////////////////////////////////////////////////
@@ -234,75 +249,69 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
             return total;
         }
 
-        private void addGcDataToFile(final MetricsFile<GcBiasMetrics, Integer> file, final Map<String, GcObject> gcData,
+        private void addGcDataToFile(final MetricsFile<GcBiasMetrics, Integer> file, final GcObject gcCur,
                                      final boolean includeDuplicates) {
-            for (final Map.Entry<String, GcObject> entry : gcData.entrySet()) {
-                final GcObject gcCur = entry.getValue();
-                final String gcType = entry.getKey();
-
-                final int[] readsByGc = gcCur.readsByGc;
-                final long[] errorsByGc = gcCur.errorsByGc;
-                final long[] basesByGc = gcCur.basesByGc;
-                final long totalClusters = gcCur.totalClusters;
-                final long totalAlignedReads = gcCur.totalAlignedReads;
-                final String group = gcCur.group;
-
-                final GcBiasMetrics metrics = new GcBiasMetrics();
-
-                final double totalWindows = sum(windowsByGc);
-                final double totalReads = sum(readsByGc);
-                final double meanReadsPerWindow = totalReads / totalWindows;
-
-                if (totalAlignedReads > 0) {
-                    for (int i = 0; i < windowsByGc.length; ++i) {
-                        final GcBiasDetailMetrics detail = new GcBiasDetailMetrics();
-                        detail.GC = i;
-                        detail.WINDOWS = windowsByGc[i];
-                        detail.READ_STARTS = readsByGc[i];
-                        if (errorsByGc[i] > 0) {
-                            detail.MEAN_BASE_QUALITY = QualityUtil.getPhredScoreFromObsAndErrors(basesByGc[i], errorsByGc[i]);
-                        }
-                        if (windowsByGc[i] != 0) {
-                            detail.NORMALIZED_COVERAGE = (detail.READ_STARTS / (double) detail.WINDOWS) / meanReadsPerWindow;
-                            detail.ERROR_BAR_WIDTH = (Math.sqrt(detail.READ_STARTS) / (double) detail.WINDOWS) / meanReadsPerWindow;
-                        } else {
-                            detail.NORMALIZED_COVERAGE = 0;
-                            detail.ERROR_BAR_WIDTH = 0;
-                        }
-                        detail.ACCUMULATION_LEVEL = group;
-                        if (group.equals(ACCUMULATION_LEVEL_READ_GROUP)) {detail.READ_GROUP = gcType;}
-                        else if (group.equals(ACCUMULATION_LEVEL_SAMPLE)) {detail.SAMPLE = gcType;}
-                        else if (group.equals(ACCUMULATION_LEVEL_LIBRARY)) {detail.LIBRARY = gcType;}
-
-                        detail.READS_USED = includeDuplicates ? READS_USED_ALL : READS_USED_UNIQUE;
-
-                        metrics.DETAILS.addMetric(detail);
+            final long[] readsByGc = gcCur.getCounts(GcObject.READ_STARTS);
+            final long[] errorsByGc = gcCur.getCounts(GcObject.ERRORS);
+            final long[] basesByGc = gcCur.getCounts(GcObject.BASES);
+            final long totalClusters = gcCur.totalClusters;
+            final long totalAlignedReads = gcCur.totalAlignedReads;
+
+            final GcBiasMetrics metrics = new GcBiasMetrics();
+
+            final double totalWindows = sum(windowsByGc);
+            final double totalReads = MathUtil.sum(readsByGc, 0, readsByGc.length);
+            final double meanReadsPerWindow = totalReads / totalWindows;
+
+            if (totalAlignedReads > 0) {
+                for (int i = 0; i < windowsByGc.length; ++i) {
+                    final GcBiasDetailMetrics detail = new GcBiasDetailMetrics();
+                    detail.GC = i;
+                    detail.WINDOWS = windowsByGc[i];
+                    detail.READ_STARTS = readsByGc[i];
+                    if (errorsByGc[i] > 0) {
+                        detail.MEAN_BASE_QUALITY = QualityUtil.getPhredScoreFromObsAndErrors(basesByGc[i], errorsByGc[i]);
                     }
+                    if (windowsByGc[i] != 0) {
+                        detail.NORMALIZED_COVERAGE = (detail.READ_STARTS / (double) detail.WINDOWS) / meanReadsPerWindow;
+                        detail.ERROR_BAR_WIDTH = (Math.sqrt(detail.READ_STARTS) / (double) detail.WINDOWS) / meanReadsPerWindow;
+                    } else {
+                        detail.NORMALIZED_COVERAGE = 0;
+                        detail.ERROR_BAR_WIDTH = 0;
+                    }
+                    detail.ACCUMULATION_LEVEL = group;
+                    if (group.equals(ACCUMULATION_LEVEL_READ_GROUP)) {detail.READ_GROUP = type;}
+                    else if (group.equals(ACCUMULATION_LEVEL_SAMPLE)) {detail.SAMPLE = type;}
+                    else if (group.equals(ACCUMULATION_LEVEL_LIBRARY)) {detail.LIBRARY = type;}
+
+                    detail.READS_USED = includeDuplicates ? READS_USED_ALL : READS_USED_UNIQUE;
 
-                    // Synthesize the high level summary metrics
-                    final GcBiasSummaryMetrics summary = new GcBiasSummaryMetrics();
-                    if (group.equals(ACCUMULATION_LEVEL_READ_GROUP)) {summary.READ_GROUP = gcType;}
-                    else if (group.equals(ACCUMULATION_LEVEL_SAMPLE)) {summary.SAMPLE = gcType;}
-                    else if (group.equals(ACCUMULATION_LEVEL_LIBRARY)) {summary.LIBRARY = gcType;}
+                    metrics.DETAILS.addMetric(detail);
+                }
 
-                    summary.READS_USED = includeDuplicates ? READS_USED_ALL : READS_USED_UNIQUE;
+                // Synthesize the high level summary metrics
+                final GcBiasSummaryMetrics summary = new GcBiasSummaryMetrics();
+                if (group.equals(ACCUMULATION_LEVEL_READ_GROUP)) {summary.READ_GROUP = type;}
+                else if (group.equals(ACCUMULATION_LEVEL_SAMPLE)) {summary.SAMPLE = type;}
+                else if (group.equals(ACCUMULATION_LEVEL_LIBRARY)) {summary.LIBRARY = type;}
 
-                    summary.ACCUMULATION_LEVEL = group;
-                    summary.WINDOW_SIZE = scanWindowSize;
-                    summary.TOTAL_CLUSTERS = totalClusters;
-                    summary.ALIGNED_READS = totalAlignedReads;
-                    summary.GC_NC_0_19 = calculateGcNormCoverage(meanReadsPerWindow, readsByGc, 0, 19);
-                    summary.GC_NC_20_39 = calculateGcNormCoverage(meanReadsPerWindow, readsByGc, 20, 39);
-                    summary.GC_NC_40_59 = calculateGcNormCoverage(meanReadsPerWindow, readsByGc, 40, 59);
-                    summary.GC_NC_60_79 = calculateGcNormCoverage(meanReadsPerWindow, readsByGc, 60, 79);
-                    summary.GC_NC_80_100 = calculateGcNormCoverage(meanReadsPerWindow, readsByGc, 80, 100);
+                summary.READS_USED = includeDuplicates ? READS_USED_ALL : READS_USED_UNIQUE;
 
-                    calculateDropoutMetrics(metrics.DETAILS.getMetrics(), summary);
+                summary.ACCUMULATION_LEVEL = group;
+                summary.WINDOW_SIZE = scanWindowSize;
+                summary.TOTAL_CLUSTERS = totalClusters;
+                summary.ALIGNED_READS = totalAlignedReads;
+                summary.GC_NC_0_19 = calculateGcNormCoverage(meanReadsPerWindow, readsByGc, 0, 19);
+                summary.GC_NC_20_39 = calculateGcNormCoverage(meanReadsPerWindow, readsByGc, 20, 39);
+                summary.GC_NC_40_59 = calculateGcNormCoverage(meanReadsPerWindow, readsByGc, 40, 59);
+                summary.GC_NC_60_79 = calculateGcNormCoverage(meanReadsPerWindow, readsByGc, 60, 79);
+                summary.GC_NC_80_100 = calculateGcNormCoverage(meanReadsPerWindow, readsByGc, 80, 100);
 
-                    metrics.SUMMARY = summary;
+                calculateDropoutMetrics(metrics.DETAILS.getMetrics(), summary);
 
-                    file.addMetric(metrics);
-                }
+                metrics.SUMMARY = summary;
+
+                file.addMetric(metrics);
             }
         }
     }
@@ -310,7 +319,7 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
     /////////////////////////////////////////////////////////////////////////////
     // Calculates the normalized coverage over a given gc content region
     /////////////////////////////////////////////////////////////////////////////
-    private double calculateGcNormCoverage(final double meanReadsPerWindow, final int[] readsByGc,
+    private double calculateGcNormCoverage(final double meanReadsPerWindow, final long[] readsByGc,
                                            final int start, final int end) {
         int windowsTotal = 0;
         double sum = 0.0;
@@ -361,37 +370,95 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
     }
 
     /////////////////////////////////////////////////////////////////////////////
-    //Keeps track of each level of GcCalculation
+    //Keeps track of each level of GcCalculation. The read starts, bases and errors
+    //at each gc are kept in one flat array, indexed by gc bin and then by count,
+    //so that adding a read touches adjacent elements
     /////////////////////////////////////////////////////////////////////////////
-    class GcObject {
+    static class GcObject {
+        static final int READ_STARTS = 0;
+        static final int BASES = 1;
+        static final int ERRORS = 2;
+        private static final int COUNTS = 3;
+
         long totalClusters = 0;
         long totalAlignedReads = 0;
-        int[] readsByGc = new int[BINS];
-        long[] basesByGc = new long[BINS];
-        long[] errorsByGc = new long[BINS];
-        String group = null;
+        final long[] countsByGc = new long[BINS * COUNTS];
+
+        void add(final int gc, final long bases, final long errors) {
+            final int offset = gc * COUNTS;
+            ++countsByGc[offset + READ_STARTS];
+            countsByGc[offset + BASES] += bases;
+            countsByGc[offset + ERRORS] += errors;
+        }
+
+        /** Gets one of the counts (READ_STARTS, BASES or ERRORS) at every gc. */
+        long[] getCounts(final int count) {
+            final long[] counts = new long[BINS];
+            for (int gc = 0; gc < BINS; ++gc) {
+                counts[gc] = countsByGc[gc * COUNTS + count];
+            }
+            return counts;
+        }
+
+        void merge(final GcObject other) {
+            totalClusters += other.totalClusters;
+            totalAlignedReads += other.totalAlignedReads;
+            for (int i = 0; i < countsByGc.length; ++i) {
+                countsByGc[i] += other.countsByGc[i];
+            }
+        }
     }
 
     /////////////////////////////////////////////////////////////////////////////
     //Adds each read to the appropriate gcObj which is determined in acceptRecord above
     //Also calculates values for calculating GC Bias at each level
     /////////////////////////////////////////////////////////////////////////////
-     private void addRead(final GcObject gcObj, final SAMRecord rec, final String group, final byte[] gc, final byte[] refBases) {
+     private void addRead(final GcObject gcObj, final SAMRecord rec, final ByteBuffer gc, final byte[] refBases) {
         if (!rec.getReadPairedFlag() || rec.getFirstOfPairFlag()) ++gcObj.totalClusters;
         final int pos = rec.getReadNegativeStrandFlag() ? rec.getAlignmentEnd() - scanWindowSize : rec.getAlignmentStart();
         ++gcObj.totalAlignedReads;
         if (pos > 0) {
-            final int windowGc = gc[pos];
+            final int windowGc = gc.get(pos);
             if (windowGc >= 0) {
-                ++gcObj.readsByGc[windowGc];
-                gcObj.basesByGc[windowGc] += rec.getReadLength();
-                gcObj.errorsByGc[windowGc] +=
+                gcObj.add(windowGc, rec.getReadLength(),
                         SequenceUtil.countMismatches(rec, refBases, bisulfite) +
-                                SequenceUtil.countInsertedBases(rec) + SequenceUtil.countDeletedBases(rec);
+                                SequenceUtil.countInsertedBases(rec) + SequenceUtil.countDeletedBases(rec));
             }
         }
-        if (gcObj.group == null) {
-            gcObj.group = group;
+    }
+
+    /////////////////////////////////////////////////////////////////////////////
+    // Computes the gc of every window of each contig once, however many collectors
+    // (e.g. of different regions of the contig) ask for it. The gc of a contig is
+    // kept only as long as its ReferenceSequence is in use.
+    /////////////////////////////////////////////////////////////////////////////
+    static class GcCache {
+        private final int scanWindowSize;
+        // ReferenceSequence does not override equals(), so these are weakly keyed by identity
+        private final Map<ReferenceSequence, ContigGc> gcByContig = new WeakHashMap<>();
+
+        GcCache(final int scanWindowSize) {
+            this.scanWindowSize = scanWindowSize;
+        }
+
+        /** Gets the gc of each window of the (upper case) contig, computing it if this is the first time it is asked for. */
+        ByteBuffer getGc(final ReferenceSequence ref) {
+            final ContigGc contigGc;
+            synchronized (gcByContig) {
+                contigGc = gcByContig.computeIfAbsent(ref, r -> new ContigGc());
+            }
+            // Contigs are computed outside the lock on the map, so that other contigs can be looked up meanwhile
+            synchronized (contigGc) {
+                if (contigGc.gc == null) {
+                    final byte[] refBases = ref.getBases();
+                    contigGc.gc = GcBiasUtils.calculateAllGcs(refBases, refBases.length - scanWindowSize, scanWindowSize);
+                }
+                return ByteBuffer.wrap(contigGc.gc);
+            }
+        }
+
+        private static final class ContigGc {
+            private byte[] gc;
         }
     }
 }
@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.StringUtil;
+import picard.PicardException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A precomputed index of the GC content of every window of a reference, for a given window size, so that
+ * {@link CollectGcBiasMetrics} need not scan the reference to count the windows at each GC, nor compute the GC of
+ * every window of each contig it visits.
+ *
+ * The file holds, with little-endian integers and length-prefixed strings:
+ * <ul>
+ *     <li>the magic bytes {@link #MAGIC} and the window size</li>
+ *     <li>for each contig, one byte per position from 0 to the contig length holding the GC of the window starting
+ *     there, exactly as computed by {@link GcBiasUtils#calculateAllGcs(byte[], int, int)}</li>
+ *     <li>the number of contigs and, for each, its name, its length and the offset of its GC values in the file</li>
+ *     <li>the number of windows at each GC, from 0 to 100</li>
+ *     <li>the offset of the list of contigs</li>
+ * </ul>
+ * The GC values of each contig are memory-mapped when requested rather than read onto the heap.
+ */
+public class GcWindowIndex implements Closeable {
+    public static final String MAGIC = "GCW\1";
+    public static final String FILE_EXTENSION = ".gcw";
+
+    private static final int BINS = 101;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final int windowSize;
+    private final SAMSequenceDictionary dictionary;
+    private final long[] offsets;
+    private final int[] windowsByGc = new int[BINS];
+
+    /** Opens an index written by {@link #create(File, int, File)}. */
+    public GcWindowIndex(final File file) {
+        this.file = file;
+        try {
+            this.randomAccessFile = new RandomAccessFile(file, "r");
+            this.channel = randomAccessFile.getChannel();
+
+            final ByteBuffer header = read(0, MAGIC.length() + 4);
+            final byte[] magic = new byte[MAGIC.length()];
+            header.get(magic);
+            if (!MAGIC.equals(new String(magic))) {
+                throw new PicardException(file + " is not a GC window index.");
+            }
+            this.windowSize = header.getInt();
+
+            final long contentsOffset = read(channel.size() - 8, 8).getLong();
+            final ByteBuffer contents = read(contentsOffset, (int) (channel.size() - 8 - contentsOffset));
+            final int numSequences = contents.getInt();
+            final List<SAMSequenceRecord> sequences = new ArrayList<>(numSequences);
+            this.offsets = new long[numSequences];
+            for (int i = 0; i < numSequences; ++i) {
+                final byte[] name = new byte[contents.getInt()];
+                contents.get(name);
+                sequences.add(new SAMSequenceRecord(new String(name), contents.getInt()));
+                offsets[i] = contents.getLong();
+            }
+            this.dictionary = new SAMSequenceDictionary(sequences);
+            for (int i = 0; i < BINS; ++i) {
+                windowsByGc[i] = contents.getInt();
+            }
+        } catch (final IOException e) {
+            throw new PicardException("Error reading GC window index " + file, e);
+        }
+    }
+
+    /**
+     * Scans a reference and writes the GC content of each of its windows to an index file.
+     *
+     * @param reference  the reference sequence to index
+     * @param windowSize the size of the windows of which to compute the GC
+     * @param output     the index file to write
+     */
+    public static void create(final File reference, final int windowSize, final File output) {
+        final ReferenceSequenceFile refFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(reference);
+        final BinaryCodec codec = new BinaryCodec(output, true);
+        final List<SAMSequenceRecord> sequences = new ArrayList<>();
+        final List<Long> offsets = new ArrayList<>();
+        final int[] windowsByGc = new int[BINS];
+
+        codec.writeBytes(MAGIC.getBytes());
+        codec.writeInt(windowSize);
+        long offset = MAGIC.length() + 4;
+
+        ReferenceSequence ref;
+        while ((ref = refFile.nextSequence()) != null) {
+            final byte[] refBases = ref.getBases();
+            StringUtil.toUpperCase(refBases);
+            final int lastWindowStart = refBases.length - windowSize;
+            final byte[] gc = GcBiasUtils.calculateAllGcs(refBases, lastWindowStart, windowSize);
+            for (int i = 1; i < lastWindowStart; ++i) {
+                if (gc[i] != -1) windowsByGc[gc[i]]++;
+            }
+
+            codec.writeBytes(gc);
+            sequences.add(new SAMSequenceRecord(ref.getName(), refBases.length));
+            offsets.add(offset);
+            offset += gc.length;
+        }
+        CloserUtil.close(refFile);
+
+        codec.writeInt(sequences.size());
+        for (int i = 0; i < sequences.size(); ++i) {
+            codec.writeString(sequences.get(i).getSequenceName(), true, false);
+            codec.writeInt(sequences.get(i).getSequenceLength());
+            codec.writeLong(offsets.get(i));
+        }
+        for (final int windows : windowsByGc) {
+            codec.writeInt(windows);
+        }
+        codec.writeLong(offset);
+        codec.close();
+    }
+
+    /** The size of the windows whose GC the index holds. */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /** The contigs in the index, in the order of the reference it was built from. */
+    public SAMSequenceDictionary getSequenceDictionary() {
+        return dictionary;
+    }
+
+    /** The number of windows of the whole reference at each GC, as {@link GcBiasUtils#calculateRefWindowsByGc} counts them. */
+    public int[] getWindowsByGc() {
+        return windowsByGc.clone();
+    }
+
+    /**
+     * Maps the GC values of a contig into memory. The byte at each position holds the GC of the window starting there,
+     * or -1 if the window has too many no-calls.
+     */
+    public ByteBuffer getGc(final int sequenceIndex) {
+        final int length = dictionary.getSequence(sequenceIndex).getSequenceLength() + 1;
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offsets[sequenceIndex], length);
+        } catch (final IOException e) {
+            throw new PicardException("Error mapping GC window index " + file, e);
+        }
+    }
+
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new PicardException("Unexpected end of GC window index " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() {
+        CloserUtil.close(randomAccessFile);
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.filter.SamRecordFilter;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.AbstractLocusInfo;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.EdgeReadIterator;
+import htsjdk.samtools.util.EdgingRecordAndOffset;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalList;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.ProgressLogger;
+import picard.PicardException;
+import picard.filter.CountingFilter;
+import picard.filter.CountingPairedFilter;
+import picard.util.MemoryMappedReferenceSequenceFileWalker;
+import picard.util.ThreadPoolExecutorWithExceptions;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Processes regions of the intervals on worker threads for the fast algorithm of CollectWgsMetrics.  Each region is
+ * read from an indexed input by its own {@link EdgeReadIterator} into its own {@link FastWgsMetricsCollector}, which
+ * is merged into the collector whose metrics are written once the region is done.  Each thread has its own reader of
+ * the input, and each reference sequence is loaded (or mapped, with MEMORY_MAP_REFERENCE) once and kept only while
+ * regions of it are being processed.
+ *
+ * Which of several overlapping or capped bases at a locus are excluded depends on the order the reads' aligned blocks
+ * start in, so each region's iterator starts up to LEAD_IN_BASES before the region, and its collector skips those
+ * loci.  The counting filters see every read in every region that it overlaps, but count its bases only in the
+ * region that it starts in (or the first region it overlaps).  Together these give the same metrics as processing
+ * on one thread, as long as no aligned block is longer than LEAD_IN_BASES.
+ *
+ * The intervals must each cover a whole reference sequence, since on one thread the reads that overlap the start of an
+ * interval are counted in the interval before it, which the regions of the interval cannot see.
+ */
+public class ParallelWgsMetricsProcessor implements WgsMetricsProcessor {
+    /** The maximum number of genomic bases in a region. */
+    static final int DEFAULT_BASES_PER_REGION = 10000000;
+
+    /** The number of bases before a region that its iterator starts at, which should exceed any aligned block. */
+    static final int LEAD_IN_BASES = 1000;
+
+    private final CollectWgsMetrics collectWgsMetrics;
+    private final File referenceSequence;
+    private final FastWgsMetricsCollector collector;
+    private final List<SamRecordFilter> filters;
+    private final int numThreads;
+    private final SAMFileHeader header;
+    private final List<Region> regions = new ArrayList<>();
+
+    private final ReferenceSequenceFile referenceFile;
+    private final MemoryMappedReferenceSequenceFileWalker mappedReference;
+    private final ReferenceSequence[] references;
+    private final int[] regionsRemaining;
+
+    private final List<SamReader> readers = new ArrayList<>();
+    private final ThreadLocal<SamReader> threadReaders = ThreadLocal.withInitial(this::openReader);
+
+    private final Log log = Log.getInstance(ParallelWgsMetricsProcessor.class);
+
+    /**
+     * @param collectWgsMetrics CollectWgsMetrics, whose input is processed
+     * @param referenceSequence indexed reference of the input
+     * @param collector         collector that the regions are merged into, over the intervals to process
+     * @param filters           filters for the reads, as they would be set on a single iterator
+     * @param numThreads        number of regions to process at once
+     */
+    public ParallelWgsMetricsProcessor(final CollectWgsMetrics collectWgsMetrics,
+            final File referenceSequence,
+            final FastWgsMetricsCollector collector,
+            final List<SamRecordFilter> filters,
+            final int numThreads) {
+        this(collectWgsMetrics, referenceSequence, collector, filters, numThreads, DEFAULT_BASES_PER_REGION);
+    }
+
+    ParallelWgsMetricsProcessor(final CollectWgsMetrics collectWgsMetrics,
+            final File referenceSequence,
+            final FastWgsMetricsCollector collector,
+            final List<SamRecordFilter> filters,
+            final int numThreads,
+            final int basesPerRegion) {
+        this.collectWgsMetrics = collectWgsMetrics;
+        this.referenceSequence = referenceSequence;
+        this.collector = collector;
+        this.filters = filters;
+        this.numThreads = numThreads;
+        this.header = collector.intervals.getHeader();
+
+        final int numSequences = header.getSequenceDictionary().size();
+        this.references = new ReferenceSequence[numSequences];
+        this.regionsRemaining = new int[numSequences];
+
+        // Split each interval into regions of at most basesPerRegion
+        for (final Interval interval : collector.intervals.uniqued().getIntervals()) {
+            final int sequenceIndex = header.getSequenceIndex(interval.getContig());
+            for (int start = interval.getStart(); start <= interval.getEnd(); start += basesPerRegion) {
+                final int end = Math.min(start + basesPerRegion - 1, interval.getEnd());
+                final int iteratorStart = Math.max(interval.getStart(), start - LEAD_IN_BASES);
+                regions.add(new Region(sequenceIndex, start, end, new Interval(interval.getContig(), iteratorStart, end)));
+                regionsRemaining[sequenceIndex]++;
+            }
+        }
+
+        this.referenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(referenceSequence);
+        this.mappedReference = collectWgsMetrics.MEMORY_MAP_REFERENCE ?
+                new MemoryMappedReferenceSequenceFileWalker(referenceSequence, false) : null;
+    }
+
+    /**
+     * @return true if each of the intervals covers a whole reference sequence
+     */
+    static boolean canSplit(final IntervalList intervals) {
+        final SAMSequenceDictionary dictionary = intervals.getHeader().getSequenceDictionary();
+        return intervals.uniqued().getIntervals().stream().allMatch(interval ->
+                interval.getStart() == 1 && interval.getEnd() == dictionary.getSequence(interval.getContig()).getSequenceLength());
+    }
+
+    /**
+     * Processes the regions on numThreads threads, and merges their metrics into the collector.
+     */
+    @Override
+    public void processFile() {
+        log.info("Processing " + regions.size() + " regions on " + numThreads + " threads.");
+        final ExecutorService executor = new ThreadPoolExecutorWithExceptions(numThreads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>(regions.size());
+            for (final Region region : regions) {
+                futures.add(executor.submit(() -> process(region)));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PicardException("Failed to collect metrics", e.getCause());
+        } catch (final InterruptedException e) {
+            throw new PicardException("Interrupted while collecting metrics", e);
+        } finally {
+            executor.shutdownNow();
+            synchronized (readers) {
+                readers.forEach(CloserUtil::close);
+            }
+            CloserUtil.close(referenceFile);
+            CloserUtil.close(mappedReference);
+        }
+        WgsMetricsProcessorImpl.checkBaseCounts(collector, log);
+    }
+
+    private void process(final Region region) {
+        final FastWgsMetricsCollector regionCollector =
+                new FastWgsMetricsCollector(collectWgsMetrics, collector.coverageCap, collector.intervals);
+        regionCollector.setFirstCollectedPosition(region.start);
+        final ReferenceSequence ref = acquireReference(region.sequenceIndex);
+        final ProgressLogger progress = new ProgressLogger(log, 10000000, "Processed", "loci");
+
+        final IntervalList iteratorIntervals = new IntervalList(header);
+        iteratorIntervals.add(region.iteratorInterval);
+        final EdgeReadIterator iterator = new EdgeReadIterator(threadReaders.get(), iteratorIntervals);
+        try {
+            // The first region of each interval also counts the reads that start before the interval
+            final int countedStart = region.start == region.iteratorInterval.getStart() ? 1 : region.start;
+            final List<SamRecordFilter> regionFilters = new ArrayList<>(filters.size());
+            for (final SamRecordFilter filter : filters) {
+                regionFilters.add(filter instanceof CountingFilter ?
+                        new RegionCountingFilter((CountingFilter) filter, countedStart) : filter);
+            }
+            iterator.setSamFilters(regionFilters);
+            iterator.setMappingQualityScoreCutoff(0); // Handled separately because we want to count bases
+            iterator.setIncludeNonPfReads(false);
+
+            while (iterator.hasNext()) {
+                final AbstractLocusInfo<EdgingRecordAndOffset> info = iterator.next();
+                final boolean referenceBaseN = regionCollector.isReferenceBaseN(info.getPosition(), ref);
+                regionCollector.addInfo(info, ref, referenceBaseN);
+                if (!referenceBaseN && info.getPosition() >= region.start) {
+                    progress.record(info.getSequenceName(), info.getPosition());
+                }
+            }
+        } finally {
+            iterator.close();
+            releaseReference(region.sequenceIndex);
+        }
+
+        synchronized (collector) {
+            collector.merge(regionCollector);
+        }
+    }
+
+    private SamReader openReader() {
+        final SamReader reader = SamReaderFactory.makeDefault()
+                .referenceSequence(referenceSequence)
+                .open(collectWgsMetrics.INPUT);
+        synchronized (readers) {
+            readers.add(reader);
+        }
+        return reader;
+    }
+
+    private synchronized ReferenceSequence acquireReference(final int sequenceIndex) {
+        if (references[sequenceIndex] == null) {
+            references[sequenceIndex] = mappedReference != null ? mappedReference.getSequence(sequenceIndex) :
+                    referenceFile.getSequence(header.getSequence(sequenceIndex).getSequenceName());
+        }
+        return references[sequenceIndex];
+    }
+
+    private synchronized void releaseReference(final int sequenceIndex) {
+        if (--regionsRemaining[sequenceIndex] == 0) {
+            references[sequenceIndex] = null;
+        }
+    }
+
+    /**
+     * Adds result metric's data to input file
+     *
+     * @param file               MetricsFile for result of collector's work
+     * @param includeBQHistogram include base quality histogram
+     * @param dupeFilter         counting filter for duplicate reads
+     * @param mapqFilter         counting filter for mapping quality
+     * @param pairFilter         counting filter for reads without a mapped mate pair
+     */
+    @Override
+    public void addToMetricsFile(final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> file,
+            final boolean includeBQHistogram,
+            final CountingFilter dupeFilter,
+            final CountingFilter mapqFilter,
+            final CountingPairedFilter pairFilter) {
+        collector.addToMetricsFile(file, includeBQHistogram, dupeFilter, mapqFilter, pairFilter);
+    }
+
+    /** The loci of a reference sequence that are collected together, and the interval their iterator walks. */
+    private static final class Region {
+        final int sequenceIndex;
+        final int start;
+        final int end;
+        final Interval iteratorInterval;
+
+        Region(final int sequenceIndex, final int start, final int end, final Interval iteratorInterval) {
+            this.sequenceIndex = sequenceIndex;
+            this.start = start;
+            this.end = end;
+            this.iteratorInterval = iteratorInterval;
+        }
+    }
+
+    /**
+     * Filters reads as a shared CountingFilter would, but only counts them in the shared filter if they start at or
+     * after the given position.
+     */
+    private static final class RegionCountingFilter implements SamRecordFilter {
+        private final CountingFilter filter;
+        private final int countedStart;
+
+        RegionCountingFilter(final CountingFilter filter, final int countedStart) {
+            this.filter = filter;
+            this.countedStart = countedStart;
+        }
+
+        @Override
+        public boolean filterOut(final SAMRecord record) {
+            if (!filter.reallyFilterOut(record)) {
+                return false;
+            }
+            if (record.getAlignmentStart() >= countedStart) {
+                synchronized (filter) {
+                    filter.filterOut(record);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean filterOut(final SAMRecord first, final SAMRecord second) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
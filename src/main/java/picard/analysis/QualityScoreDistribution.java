@@ -119,7 +119,34 @@ public class QualityScoreDistribution extends SinglePassSamProgram {
 
     @Override
     protected void acceptRead(final SAMRecord rec, final ReferenceSequence ref) {
-        // Skip unwanted records
+        addRead(rec, qCounts, oqCounts);
+    }
+
+    @Override
+    protected boolean supportsSharding() { return true; }
+
+    @Override
+    protected Shard newShard(final SAMFileHeader header) {
+        final long[] shardQCounts  = new long[qCounts.length];
+        final long[] shardOqCounts = new long[oqCounts.length];
+
+        return new Shard() {
+            @Override
+            public void acceptRead(final SAMRecord rec, final ReferenceSequence ref) {
+                addRead(rec, shardQCounts, shardOqCounts);
+            }
+
+            @Override
+            public void mergeIntoProgram() {
+                for (int i=0; i<qCounts.length; ++i) {
+                    qCounts[i]  += shardQCounts[i];
+                    oqCounts[i] += shardOqCounts[i];
+                }
+            }
+        };
+    }
+
+    private void addRead(final SAMRecord rec, final long[] qualityCounts, final long[] originalQualityCounts) {
         if (PF_READS_ONLY && rec.getReadFailsVendorQualityCheckFlag()) return;
         if (ALIGNED_READS_ONLY && rec.getReadUnmappedFlag()) return;
         if (rec.isSecondaryOrSupplementary()) return;
@@ -132,8 +159,8 @@ public class QualityScoreDistribution extends SinglePassSamProgram {
 
         for (int i=0; i<length; ++i) {
             if (INCLUDE_NO_CALLS || !SequenceUtil.isNoCall(bases[i])) {
-                qCounts[quals[i]]++;
-                if (oq != null) oqCounts[oq[i]]++;
+                qualityCounts[quals[i]]++;
+                if (oq != null) originalQualityCounts[oq[i]]++;
             }
         }
     }
@@ -27,23 +27,37 @@ package picard.analysis;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.SamReaderFactory.Option;
 import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.ProgressLogger;
 import htsjdk.samtools.util.SequenceUtil;
+import htsjdk.samtools.util.StringUtil;
 import org.broadinstitute.barclay.argparser.Argument;
 import picard.PicardException;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
+import picard.util.ThreadPoolExecutorWithExceptions;
 
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Super class that is designed to provide some consistent structure between subclasses that
@@ -66,6 +80,15 @@ public abstract class SinglePassSamProgram extends CommandLineProgram {
     @Argument(doc = "Stop after processing N reads, mainly for debugging.")
     public long STOP_AFTER = 0;
 
+    @Argument(doc = "The number of threads to use. If greater than one and the input is an indexed, coordinate sorted BAM, " +
+            "programs that support it collect separate regions of the genome in parallel and merge the results. Otherwise " +
+            "the input is decoded on its own thread while the program accepts the reads on another.")
+    public int NUM_THREADS = 1;
+
+    /** The size of the regions of the genome collected in parallel, when they are. */
+    static final int DEFAULT_BASES_PER_REGION = 10000000;
+    int basesPerRegion = DEFAULT_BASES_PER_REGION;
+
     private static final Log log = Log.getInstance(SinglePassSamProgram.class);
 
     /**
@@ -81,19 +104,56 @@ public abstract class SinglePassSamProgram extends CommandLineProgram {
      */
     @Override
     protected final int doWork() {
-        makeItSo(INPUT, REFERENCE_SEQUENCE, ASSUME_SORTED, STOP_AFTER, Arrays.asList(this));
+        makeItSo(INPUT, REFERENCE_SEQUENCE, ASSUME_SORTED, STOP_AFTER, Arrays.asList(this), NUM_THREADS, basesPerRegion);
         return 0;
     }
 
+    @Override
+    protected String[] customCommandLineValidation() {
+        if (NUM_THREADS < 1) {
+            return new String[]{"NUM_THREADS must be at least 1, found " + NUM_THREADS};
+        }
+        return super.customCommandLineValidation();
+    }
+
     public static void makeItSo(final File input,
                                 final File referenceSequence,
                                 final boolean assumeSorted,
                                 final long stopAfter,
                                 final Collection<SinglePassSamProgram> programs) {
+        makeItSo(input, referenceSequence, assumeSorted, stopAfter, programs, 1);
+    }
+
+    /**
+     * Runs the programs over the input. If numThreads is greater than one, the input is an indexed coordinate sorted
+     * BAM, every program supports sharding, and the reference (if any) is indexed, then regions of the genome are
+     * collected into shards of the programs on numThreads threads and merged into the programs before they finish.
+     * Otherwise, if numThreads is greater than one the input is decoded on the calling thread while the programs
+     * accept the reads on up to numThreads worker threads, each program always on the same thread so that it sees
+     * the reads one at a time and in order, as it would single-threaded.
+     */
+    public static void makeItSo(final File input,
+                                final File referenceSequence,
+                                final boolean assumeSorted,
+                                final long stopAfter,
+                                final Collection<SinglePassSamProgram> programs,
+                                final int numThreads) {
+        makeItSo(input, referenceSequence, assumeSorted, stopAfter, programs, numThreads, DEFAULT_BASES_PER_REGION);
+    }
+
+    static void makeItSo(final File input,
+                         final File referenceSequence,
+                         final boolean assumeSorted,
+                         final long stopAfter,
+                         final Collection<SinglePassSamProgram> programs,
+                         final int numThreads,
+                         final int basesPerRegion) {
 
         // Setup the standard inputs
         IOUtil.assertFileIsReadable(input);
-        final SamReader in = SamReaderFactory.makeDefault().referenceSequence(referenceSequence).open(input);
+        final SamReaderFactory readerFactory = SamReaderFactory.makeDefault().referenceSequence(referenceSequence);
+        // Records are shared between threads, so they must be fully decoded before they are handed out
+        final SamReader in = (numThreads > 1 ? readerFactory.enable(Option.EAGERLY_DECODE) : readerFactory).open(input);
 
         // Optionally load up the reference sequence and double check sequence dictionaries
         final ReferenceSequenceFileWalker walker;
@@ -131,40 +191,327 @@ public abstract class SinglePassSamProgram extends CommandLineProgram {
         }
 
 
+        if (numThreads > 1 && canBeSharded(in, referenceSequence, stopAfter, programs)) {
+            log.info("Collecting regions of " + input.getName() + " on " + numThreads + " threads.");
+            final SAMFileHeader header = in.getFileHeader();
+            CloserUtil.close(in);
+            new RegionShardCollector(input, referenceSequence, header, programs, anyUseNoRefReads, basesPerRegion).run(numThreads);
+
+            for (final SinglePassSamProgram program : programs) {
+                program.finish();
+            }
+            return;
+        }
+
         final ProgressLogger progress = new ProgressLogger(log);
+        final ParallelReadDispatcher dispatcher = numThreads > 1 ? new ParallelReadDispatcher(programs, numThreads) : null;
+
+        try {
+            ReferenceSequence upperCasedRef = null;
+            for (final SAMRecord rec : in) {
+                final ReferenceSequence ref;
+                if (walker == null || rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                    ref = null;
+                } else {
+                    ref = walker.get(rec.getReferenceIndex());
+                    // Upper-cased once per sequence here, and shared by all of the programs
+                    if (ref != upperCasedRef) {
+                        StringUtil.toUpperCase(ref.getBases());
+                        upperCasedRef = ref;
+                    }
+                }
+
+                if (dispatcher != null) {
+                    dispatcher.accept(rec, ref);
+                } else {
+                    for (final SinglePassSamProgram program : programs) {
+                        program.acceptRead(rec, ref);
+                    }
+                }
+
+                progress.record(rec);
+
+                // See if we need to terminate early?
+                if (stopAfter > 0 && progress.getCount() >= stopAfter) {
+                    break;
+                }
+
+                // And see if we're into the unmapped reads at the end
+                if (!anyUseNoRefReads && rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                    break;
+                }
+            }
+
+            if (dispatcher != null) {
+                dispatcher.finish();
+            }
+        } finally {
+            if (dispatcher != null) {
+                dispatcher.close();
+            }
+        }
+        CloserUtil.close(in);
+
+        for (final SinglePassSamProgram program : programs) {
+            program.finish();
+        }
+    }
+
+    /**
+     * Hands batches of reads to each program on the program's own single-threaded executor, so that the programs
+     * accept the reads in parallel with each other and with the decoding of the input. Every program is handed the
+     * same batches, in the same order, and at most a few batches are in flight at once.
+     */
+    private static final class ParallelReadDispatcher {
+        private static final int READS_PER_BATCH = 1000;
+
+        private final List<SinglePassSamProgram> programs;
+        private final List<ExecutorService> executors = new ArrayList<>();
+        private final Deque<List<Future<?>>> pendingBatches = new ArrayDeque<>();
+        private final int maxPendingBatches;
+
+        private SAMRecord[] records = new SAMRecord[READS_PER_BATCH];
+        private ReferenceSequence[] refs = new ReferenceSequence[READS_PER_BATCH];
+        private int batchSize = 0;
+
+        ParallelReadDispatcher(final Collection<SinglePassSamProgram> programs, final int numThreads) {
+            this.programs = new ArrayList<>(programs);
+            final int numExecutors = Math.min(numThreads, this.programs.size());
+            for (int i = 0; i < numExecutors; ++i) {
+                executors.add(new ThreadPoolExecutorWithExceptions(1));
+            }
+            this.maxPendingBatches = 2 * numExecutors;
+        }
+
+        void accept(final SAMRecord rec, final ReferenceSequence ref) {
+            // Computed here, as the records would otherwise cache these lazily on several threads at once
+            rec.getAlignmentEnd();
+            rec.getAlignmentBlocks();
+
+            records[batchSize] = rec;
+            refs[batchSize] = ref;
+            if (++batchSize == READS_PER_BATCH) {
+                dispatch();
+            }
+        }
+
+        /** Waits for every program to accept every read. */
+        void finish() {
+            if (batchSize > 0) {
+                dispatch();
+            }
+            while (!pendingBatches.isEmpty()) {
+                awaitBatch(pendingBatches.poll());
+            }
+        }
+
+        /** Shuts down the worker threads, whether or not every read was accepted. */
+        void close() {
+            executors.forEach(ExecutorService::shutdownNow);
+        }
+
+        private void dispatch() {
+            final SAMRecord[] batchRecords = records;
+            final ReferenceSequence[] batchRefs = refs;
+            final int size = batchSize;
+
+            final List<Future<?>> futures = new ArrayList<>(programs.size());
+            for (int i = 0; i < programs.size(); ++i) {
+                final SinglePassSamProgram program = programs.get(i);
+                futures.add(executors.get(i % executors.size()).submit(() -> {
+                    for (int r = 0; r < size; ++r) {
+                        program.acceptRead(batchRecords[r], batchRefs[r]);
+                    }
+                }));
+            }
+            pendingBatches.add(futures);
+
+            records = new SAMRecord[READS_PER_BATCH];
+            refs = new ReferenceSequence[READS_PER_BATCH];
+            batchSize = 0;
 
-        for (final SAMRecord rec : in) {
-            final ReferenceSequence ref;
-            if (walker == null || rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-                ref = null;
-            } else {
-                ref = walker.get(rec.getReferenceIndex());
+            while (pendingBatches.size() > maxPendingBatches) {
+                awaitBatch(pendingBatches.poll());
+            }
+        }
+
+        private void awaitBatch(final List<Future<?>> batch) {
+            try {
+                for (final Future<?> future : batch) {
+                    future.get();
+                }
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new PicardException("Failed to collect metrics", e.getCause());
+            } catch (final InterruptedException e) {
+                throw new PicardException("Interrupted while collecting metrics", e);
+            }
+        }
+    }
+
+    private static boolean canBeSharded(final SamReader in, final File referenceSequence, final long stopAfter,
+                                        final Collection<SinglePassSamProgram> programs) {
+        if (stopAfter > 0 || !in.hasIndex() || in.getFileHeader().getSortOrder() != SortOrder.coordinate) return false;
+        if (!programs.stream().allMatch(SinglePassSamProgram::supportsSharding)) return false;
+        if (referenceSequence == null) return true;
+
+        final ReferenceSequenceFile referenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(referenceSequence);
+        final boolean indexed = referenceFile.isIndexed();
+        CloserUtil.close(referenceFile);
+        return indexed;
+    }
+
+    /**
+     * Collects regions of an indexed input on worker threads, each region into new shards of the programs, and merges
+     * the shards into the programs as the regions complete.  Each thread has its own reader of the input, and each
+     * reference sequence is loaded once and kept only while regions of it are being collected.
+     */
+    private static final class RegionShardCollector {
+        private static final int UNMAPPED = -1;
+
+        private final File input;
+        private final SAMFileHeader header;
+        private final Collection<SinglePassSamProgram> programs;
+        private final List<int[]> regions = new ArrayList<>();
+
+        private final ReferenceSequenceFile referenceFile;
+        private final ReferenceSequence[] references;
+        private final int[] regionsRemaining;
+
+        private final List<SamReader> readers = new ArrayList<>();
+        private final ThreadLocal<SamReader> threadReaders = ThreadLocal.withInitial(this::openReader);
+
+        RegionShardCollector(final File input, final File referenceSequence, final SAMFileHeader header,
+                             final Collection<SinglePassSamProgram> programs, final boolean includeUnmapped,
+                             final int basesPerRegion) {
+            this.input = input;
+            this.header = header;
+            this.programs = programs;
+
+            final List<SAMSequenceRecord> sequences = header.getSequenceDictionary().getSequences();
+            this.references = new ReferenceSequence[sequences.size()];
+            this.regionsRemaining = new int[sequences.size()];
+            for (final SAMSequenceRecord sequence : sequences) {
+                for (int start = 1; start <= sequence.getSequenceLength(); start += basesPerRegion) {
+                    final int end = Math.min(start + basesPerRegion - 1, sequence.getSequenceLength());
+                    regions.add(new int[]{sequence.getSequenceIndex(), start, end});
+                    regionsRemaining[sequence.getSequenceIndex()]++;
+                }
+            }
+            if (includeUnmapped) {
+                regions.add(new int[]{UNMAPPED, 0, 0});
             }
 
+            this.referenceFile = referenceSequence == null ? null :
+                    ReferenceSequenceFileFactory.getReferenceSequenceFile(referenceSequence);
+        }
+
+        void run(final int numThreads) {
+            final ExecutorService executor = new ThreadPoolExecutorWithExceptions(numThreads);
+            try {
+                final List<Future<List<Shard>>> futures = new ArrayList<>(regions.size());
+                for (final int[] region : regions) {
+                    futures.add(executor.submit(() -> collect(region[0], region[1], region[2])));
+                }
+
+                // Merged in the order of the regions, on this thread only
+                for (final Future<List<Shard>> future : futures) {
+                    for (final Shard shard : future.get()) {
+                        shard.mergeIntoProgram();
+                    }
+                }
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new PicardException("Failed to collect metrics", e.getCause());
+            } catch (final InterruptedException e) {
+                throw new PicardException("Interrupted while collecting metrics", e);
+            } finally {
+                executor.shutdownNow();
+                synchronized (readers) {
+                    readers.forEach(CloserUtil::close);
+                }
+                CloserUtil.close(referenceFile);
+            }
+        }
+
+        private List<Shard> collect(final int sequenceIndex, final int start, final int end) {
+            final List<Shard> shards = new ArrayList<>(programs.size());
             for (final SinglePassSamProgram program : programs) {
-                program.acceptRead(rec, ref);
+                shards.add(program.newShard(header));
             }
 
-            progress.record(rec);
+            final ReferenceSequence ref = sequenceIndex == UNMAPPED ? null : acquireReference(sequenceIndex);
+            final ProgressLogger progress = new ProgressLogger(log);
+            final SamReader reader = threadReaders.get();
+            try (final SAMRecordIterator iterator = sequenceIndex == UNMAPPED ? reader.queryUnmapped() :
+                    reader.queryOverlapping(header.getSequence(sequenceIndex).getSequenceName(), start, end)) {
+                while (iterator.hasNext()) {
+                    final SAMRecord rec = iterator.next();
+                    // Reads that start in an earlier region were collected with that region
+                    if (sequenceIndex != UNMAPPED && rec.getAlignmentStart() < start) continue;
 
-            // See if we need to terminate early?
-            if (stopAfter > 0 && progress.getCount() >= stopAfter) {
-                break;
+                    for (final Shard shard : shards) {
+                        shard.acceptRead(rec, ref);
+                    }
+                    progress.record(rec);
+                }
+            } finally {
+                if (sequenceIndex != UNMAPPED) releaseReference(sequenceIndex);
             }
+            return shards;
+        }
 
-            // And see if we're into the unmapped reads at the end
-            if (!anyUseNoRefReads && rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-                break;
+        private SamReader openReader() {
+            final SamReader reader = SamReaderFactory.makeDefault().open(input);
+            synchronized (readers) {
+                readers.add(reader);
             }
+            return reader;
         }
 
-        CloserUtil.close(in);
+        private synchronized ReferenceSequence acquireReference(final int sequenceIndex) {
+            if (referenceFile == null) return null;
+            if (references[sequenceIndex] == null) {
+                references[sequenceIndex] = referenceFile.getSequence(header.getSequence(sequenceIndex).getSequenceName());
+                StringUtil.toUpperCase(references[sequenceIndex].getBases());
+            }
+            return references[sequenceIndex];
+        }
 
-        for (final SinglePassSamProgram program : programs) {
-            program.finish();
+        private synchronized void releaseReference(final int sequenceIndex) {
+            if (--regionsRemaining[sequenceIndex] == 0) {
+                references[sequenceIndex] = null;
+            }
         }
     }
 
+    /**
+     * Collects the reads of one region of the input independently of the program that made it, so that regions can
+     * be collected in parallel.  Every shard is merged into its program before the program's finish() is called.
+     */
+    protected interface Shard {
+        /** Accepts a read from the shard's region, as the program's acceptRead() would. */
+        void acceptRead(final SAMRecord rec, final ReferenceSequence ref);
+
+        /** Adds everything the shard has collected to the program that made it. */
+        void mergeIntoProgram();
+    }
+
+    /**
+     * Can be overridden, along with newShard(), by programs whose output depends only on the sum of what is collected
+     * from each read, and not on the order of the reads, so that regions of the input can be collected in parallel.
+     */
+    protected boolean supportsSharding() { return false; }
+
+    /** Makes a new, empty shard of this program, after setup() has been called. */
+    protected Shard newShard(final SAMFileHeader header) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support sharding");
+    }
+
     /** Can be overridden and set to false if the section of unmapped reads at the end of the file isn't needed. */
     protected boolean usesNoRefReads() { return true; }
 
@@ -174,7 +521,8 @@ public abstract class SinglePassSamProgram extends CommandLineProgram {
     /**
      * Should be implemented by subclasses to accept SAMRecords one at a time.
      * If the read has a reference sequence and a reference sequence file was supplied to the program
-     * it will be passed as 'ref'. Otherwise 'ref' may be null.
+     * it will be passed as 'ref', with its bases in upper case. Otherwise 'ref' may be null.
+     * The same 'ref' is passed to every program, so its bases must not be modified.
      */
     protected abstract void acceptRead(final SAMRecord rec, final ReferenceSequence ref);
 
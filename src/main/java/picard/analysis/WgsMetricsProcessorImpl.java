@@ -36,7 +36,6 @@ import picard.filter.CountingFilter;
 import picard.filter.CountingPairedFilter;
 
 import java.util.Arrays;
-import java.util.stream.LongStream;
 
 /**
  * Implementation of {@link picard.analysis.WgsMetricsProcessor} that gets input data from a given iterator
@@ -101,9 +100,15 @@ public class WgsMetricsProcessorImpl<T extends AbstractRecordAndOffset> implemen
             }
             collector.setCounter(counter);
         }
-        // check that we added the same number of bases to the raw coverage histogram and the base quality histograms
+        checkBaseCounts(collector, log);
+    }
+
+    /**
+     * Checks that the collector added the same number of bases to the raw coverage histogram and the base quality histograms
+     */
+    static void checkBaseCounts(final AbstractWgsMetricsCollector<?> collector, final Log log) {
         final long sumBaseQ = Arrays.stream(collector.unfilteredBaseQHistogramArray).sum();
-        final long sumDepthHisto = LongStream.rangeClosed(0, collector.coverageCap).map(i -> (i * collector.unfilteredDepthHistogramArray[(int) i])).sum();
+        final long sumDepthHisto = collector.unfilteredDepthCounts.getTotalDepth();
         if (sumBaseQ != sumDepthHisto) {
             log.error("Coverage and baseQ distributions contain different amount of bases!");
         }
@@ -93,10 +93,10 @@ class ArtifactCounter {
     }
 
     /**
-     * Add a record to the full accumulator.
+     * Add a record to the full accumulator, at a reference context given by its ContextAccumulator.contextIndex().
      */
-    public void countRecord(final String refContext, final char calledBase, final SAMRecord rec) {
-        this.fullContextAccumulator.countRecord(refContext, calledBase, rec);
+    public void countRecord(final int refContextIndex, final char calledBase, final SAMRecord rec) {
+        this.fullContextAccumulator.countRecord(refContextIndex, calledBase, rec);
     }
 
     /**
@@ -147,9 +147,6 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
     private DbSnpBitSetUtil dbSnpMask;
     private SamRecordFilter recordFilter;
 
-    private String currentRefString = null;
-    private int currentRefIndex = -1;
-
     private final Set<String> samples = new HashSet<>();
     private final Set<String> libraries = new HashSet<>();
     private final Map<String, ArtifactCounter> artifactCounters = new HashMap<>();
@@ -167,6 +164,9 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
 
         final int contextFullLength = 2 * CONTEXT_SIZE + 1;
         if (CONTEXT_SIZE < 0) messages.add("CONTEXT_SIZE cannot be negative");
+        if (contextFullLength > ContextAccumulator.MAX_INDEXED_CONTEXT_LENGTH) {
+            messages.add("CONTEXT_SIZE cannot be more than " + (ContextAccumulator.MAX_INDEXED_CONTEXT_LENGTH - 1) / 2);
+        }
         for (final String context : CONTEXTS_TO_PRINT) {
             if (context.length() != contextFullLength) {
                 messages.add("Context " + context + " is not the length implied by CONTEXT_SIZE: " + contextFullLength);
@@ -289,25 +289,16 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
                 final int contextStartIndex = refPos - CONTEXT_SIZE - 1;
                 if (contextStartIndex < 0 || contextStartIndex + contextFullLength > ref.length()) continue;
 
-                // skip contexts with N bases
-                final String context = getRefContext(ref, contextStartIndex, contextFullLength);
-                if (context.contains("N")) continue;
+                // skip contexts with N (or other ambiguous) bases
+                final int contextIndex = ContextAccumulator.contextIndex(ref.getBases(), contextStartIndex, contextFullLength);
+                if (contextIndex < 0) continue;
 
                 // count the base!
-                counter.countRecord(context, readBase, rec);
+                counter.countRecord(contextIndex, readBase, rec);
             }
         }
     }
 
-    private String getRefContext(final ReferenceSequence ref, final int contextStartIndex, final int contextFullLength) {
-        // cache the upper-cased string version of this reference so we don't need to create a string for every base in every read
-        if (currentRefIndex != ref.getContigIndex()) {
-            currentRefString = new String(ref.getBases()).toUpperCase();
-            currentRefIndex = ref.getContigIndex();
-        }
-        return currentRefString.substring(contextStartIndex, contextStartIndex + contextFullLength);
-    }
-
     @Override
     protected void finish() {
         final MetricsFile<PreAdapterSummaryMetrics, Integer> preAdapterSummaryMetricsFile = getMetricsFile();
@@ -19,15 +19,22 @@ import java.util.TreeSet;
  */
 class ContextAccumulator {
 
+    /** The longest context that can be packed into a context index. */
+    public static final int MAX_INDEXED_CONTEXT_LENGTH = 15;
+
     // are the PE reads expected to face the same direction?
     private final boolean expectedTandemReads;
 
     // mapping from contexts to the accumulators
     private final Map<String, AlignmentAccumulator[]> artifactMap;
 
+    // the same accumulators for the contexts made up of A, C, G and T only, by context index (null if there are none)
+    private final AlignmentAccumulator[][] accumulatorsByContextIndex;
+
     public ContextAccumulator(final Set<String> contexts, final boolean expectedTandemReads) {
         this.expectedTandemReads = expectedTandemReads;
         this.artifactMap = new HashMap<>();
+        int indexedContextLength = -1;
         for (final String context : contexts) {
 
             // sanity check that the context length is odd
@@ -38,11 +45,49 @@ class ContextAccumulator {
                 accumulators[i] = new AlignmentAccumulator();
             }
             this.artifactMap.put(context, accumulators);
+
+            if (context.length() <= MAX_INDEXED_CONTEXT_LENGTH && contextIndex(StringUtil.stringToBytes(context), 0, context.length()) >= 0) {
+                if (indexedContextLength != -1 && indexedContextLength != context.length()) {
+                    throw new PicardException("Contexts must all have the same number of bases: " + context);
+                }
+                indexedContextLength = context.length();
+            }
+        }
+
+        if (indexedContextLength == -1) {
+            this.accumulatorsByContextIndex = null;
+        } else {
+            this.accumulatorsByContextIndex = new AlignmentAccumulator[1 << (2 * indexedContextLength)][];
+            for (final Map.Entry<String, AlignmentAccumulator[]> entry : artifactMap.entrySet()) {
+                final String context = entry.getKey();
+                if (context.length() != indexedContextLength) continue;
+                final int contextIndex = contextIndex(StringUtil.stringToBytes(context), 0, context.length());
+                if (contextIndex >= 0) this.accumulatorsByContextIndex[contextIndex] = entry.getValue();
+            }
         }
     }
 
-    public void countRecord(final String refContext, final char calledBase, final SAMRecord rec) {
-        AlignmentAccumulator[] accumulators = artifactMap.get(refContext);
+    /**
+     * Packs the context of the given length starting at start in bases into an int, two bits per base, or returns -1 if
+     * it contains anything other than (upper case) A, C, G and T.  The length must be at most MAX_INDEXED_CONTEXT_LENGTH.
+     */
+    public static int contextIndex(final byte[] bases, final int start, final int length) {
+        int contextIndex = 0;
+        for (int i = start; i < start + length; i++) {
+            final int baseIndex = Transition.baseIndexMap[bases[i] & 0xff];
+            if (baseIndex < 0) return -1;
+            contextIndex = (contextIndex << 2) | baseIndex;
+        }
+        return contextIndex;
+    }
+
+    /**
+     * Counts a base call of the record at a reference context given by its context index.  Contexts that are not being
+     * accumulated are ignored.
+     */
+    public void countRecord(final int refContextIndex, final char calledBase, final SAMRecord rec) {
+        if (accumulatorsByContextIndex == null) return;
+        final AlignmentAccumulator[] accumulators = accumulatorsByContextIndex[refContextIndex];
         if (accumulators != null) {
             accumulators[Transition.baseIndexMap[calledBase]].countRecord(rec);
         }
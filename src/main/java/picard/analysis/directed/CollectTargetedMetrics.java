@@ -79,6 +79,11 @@ public abstract class CollectTargetedMetrics<METRIC extends MultilevelMetrics, C
             "one line per target base and can grow very large. It is not recommended for use with large target sets.")
     public File PER_BASE_COVERAGE;
 
+    @Argument(optional = true, doc = "The format of the PER_BASE_COVERAGE file. TEXT writes one tab-delimited line per target base. " +
+            "BINARY writes a much smaller block-compressed file, along with an index (with the extension " +
+            PerBaseCoverageWriter.INDEX_EXTENSION + ") from which the coverage of any target can be read by a PerBaseCoverageReader.")
+    public TargetMetricsCollector.PerBaseCoverageFormat PER_BASE_COVERAGE_FORMAT = TargetMetricsCollector.PerBaseCoverageFormat.TEXT;
+
     @Argument(optional = true, doc= "The maximum distance between a read and the nearest probe/bait/amplicon for the read to be " +
             "considered 'near probe' and included in percent selected.")
     public int NEAR_DISTANCE = TargetedPcrMetricsCollector.NEAR_PROBE_DISTANCE_DEFAULT;
@@ -141,6 +146,7 @@ public abstract class CollectTargetedMetrics<METRIC extends MultilevelMetrics, C
                 getProbeSetName(),
                 NEAR_DISTANCE
         );
+        collector.setPerBaseCoverageFormat(PER_BASE_COVERAGE_FORMAT);
 
         final ProgressLogger progress = new ProgressLogger(log);
         for (final SAMRecord record : reader) {
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis.directed;
+
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.OverlapDetector;
+import htsjdk.samtools.util.RuntimeIOException;
+import picard.PicardException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the per-base coverage of targets from a file written by {@link PerBaseCoverageWriter}, using its index to read
+ * the coverage of any target directly.
+ */
+public class PerBaseCoverageReader implements Closeable {
+    private final File input;
+    private final BlockCompressedInputStream stream;
+    private final BinaryCodec codec;
+    private final List<String> sequenceNames = new ArrayList<>();
+    private final List<Interval> targets = new ArrayList<>();
+    private final List<Long> filePointers = new ArrayList<>();
+    private final OverlapDetector<Integer> targetDetector = new OverlapDetector<>(0, 0);
+
+    /**
+     * @param input per-base coverage file, with its index next to it
+     */
+    public PerBaseCoverageReader(final File input) {
+        this.input = input;
+        try {
+            this.stream = new BlockCompressedInputStream(input);
+        } catch (final IOException e) {
+            throw new RuntimeIOException("Could not open " + input, e);
+        }
+        this.codec = new BinaryCodec(stream);
+        readMagic(codec, PerBaseCoverageWriter.MAGIC, input);
+        final int numSequences = codec.readInt();
+        for (int i = 0; i < numSequences; ++i) {
+            sequenceNames.add(codec.readLengthAndString(false));
+        }
+
+        final File indexFile = PerBaseCoverageWriter.getIndexFile(input);
+        final BinaryCodec indexCodec = new BinaryCodec(indexFile, false);
+        readMagic(indexCodec, PerBaseCoverageWriter.INDEX_MAGIC, indexFile);
+        final int numTargets = indexCodec.readInt();
+        for (int i = 0; i < numTargets; ++i) {
+            final Interval target = readTarget(indexCodec);
+            targetDetector.addLhs(targets.size(), target);
+            targets.add(target);
+            filePointers.add(indexCodec.readLong());
+        }
+        indexCodec.close();
+    }
+
+    /** @return the names of the reference sequences, in the order of the sequence dictionary */
+    public List<String> getSequenceNames() {
+        return Collections.unmodifiableList(sequenceNames);
+    }
+
+    /** @return the targets, in the order they were written */
+    public List<Interval> getTargets() {
+        return Collections.unmodifiableList(targets);
+    }
+
+    /** @return the targets that overlap the given interval, in the order they were written */
+    public List<Interval> getOverlappingTargets(final Interval interval) {
+        final List<Integer> indices = new ArrayList<>(targetDetector.getOverlaps(interval));
+        Collections.sort(indices);
+        final List<Interval> overlapping = new ArrayList<>(indices.size());
+        for (final int index : indices) {
+            overlapping.add(targets.get(index));
+        }
+        return overlapping;
+    }
+
+    /**
+     * Reads the coverage of a target.
+     *
+     * @param target one of the targets, or an interval with the same sequence, start and end
+     * @return the depth of each base of the target
+     */
+    public int[] getDepths(final Interval target) {
+        for (final int index : targetDetector.getOverlaps(target)) {
+            final Interval candidate = targets.get(index);
+            if (candidate.getStart() == target.getStart() && candidate.getEnd() == target.getEnd()) {
+                return readDepths(index);
+            }
+        }
+        throw new PicardException("Target " + target + " is not in " + input);
+    }
+
+    private int[] readDepths(final int index) {
+        try {
+            stream.seek(filePointers.get(index));
+        } catch (final IOException e) {
+            throw new RuntimeIOException("Could not read " + input, e);
+        }
+        final Interval target = readTarget(codec);
+        if (!target.getContig().equals(targets.get(index).getContig()) || target.getStart() != targets.get(index).getStart()) {
+            throw new PicardException("Index of " + input + " does not match the file: found " + target + " for " + targets.get(index));
+        }
+        final byte[] bytes = new byte[target.length() * Integer.BYTES];
+        codec.readBytes(bytes);
+        final int[] depths = new int[target.length()];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(depths);
+        return depths;
+    }
+
+    private Interval readTarget(final BinaryCodec codec) {
+        final String sequenceName = sequenceNames.get(codec.readInt());
+        final int start = codec.readInt();
+        final int end = codec.readInt();
+        final String name = codec.readLengthAndString(false);
+        return new Interval(sequenceName, start, end, false, name.isEmpty() ? null : name);
+    }
+
+    private static void readMagic(final BinaryCodec codec, final String magic, final File file) {
+        final byte[] bytes = new byte[magic.length()];
+        codec.readBytes(bytes);
+        if (!magic.equals(new String(bytes))) {
+            throw new PicardException(file + " is not a per-base coverage file or index.");
+        }
+    }
+
+    @Override
+    public void close() {
+        codec.close();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis.directed;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.Interval;
+import picard.PicardException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the coverage of each base of a set of targets to a block-compressed (BGZF) binary file, along with an index
+ * of where each target starts in the file, so that a {@link PerBaseCoverageReader} can read the coverage of any target
+ * without reading those before it.
+ *
+ * The file holds, with little-endian integers and length-prefixed strings:
+ * <ul>
+ *     <li>the magic bytes {@link #MAGIC}, the number of reference sequences and the name of each</li>
+ *     <li>for each target: the index of its sequence, its start and end, its name (empty if none), and then the
+ *     depth of each base of the target as an int</li>
+ * </ul>
+ * The index, written next to the file with the {@link #INDEX_EXTENSION} extension, holds the magic bytes
+ * {@link #INDEX_MAGIC}, the number of targets, and for each target the index of its sequence, its start and end, its
+ * name and the virtual file pointer of its record in the file.
+ */
+public class PerBaseCoverageWriter implements Closeable {
+    public static final String MAGIC = "PBC\1";
+    public static final String INDEX_MAGIC = "PBI\1";
+    public static final String INDEX_EXTENSION = ".pbi";
+
+    private final File output;
+    private final SAMSequenceDictionary dictionary;
+    private final BlockCompressedOutputStream stream;
+    private final BinaryCodec codec;
+    private final List<Interval> targets = new ArrayList<>();
+    private final List<Long> filePointers = new ArrayList<>();
+
+    /**
+     * @param output     file to write the coverage to, next to which the index is written
+     * @param dictionary sequence dictionary of the targets
+     */
+    public PerBaseCoverageWriter(final File output, final SAMSequenceDictionary dictionary) {
+        this.output = output;
+        this.dictionary = dictionary;
+        this.stream = new BlockCompressedOutputStream(output);
+        this.codec = new BinaryCodec(stream);
+
+        codec.writeBytes(MAGIC.getBytes());
+        codec.writeInt(dictionary.size());
+        for (final SAMSequenceRecord sequence : dictionary.getSequences()) {
+            codec.writeString(sequence.getSequenceName(), true, false);
+        }
+    }
+
+    /** @return the index file of the given per-base coverage file */
+    public static File getIndexFile(final File output) {
+        return new File(output.getPath() + INDEX_EXTENSION);
+    }
+
+    /**
+     * Writes the coverage of a target.
+     *
+     * @param target the target
+     * @param depths the depth of each base of the target
+     */
+    public void add(final Interval target, final int[] depths) {
+        if (depths.length != target.length()) {
+            throw new PicardException("Target " + target + " has " + target.length() + " bases but " + depths.length + " depths.");
+        }
+        targets.add(target);
+        filePointers.add(stream.getFilePointer());
+
+        writeTarget(codec, dictionary, target);
+        final ByteBuffer buffer = ByteBuffer.allocate(depths.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(depths);
+        codec.writeBytes(buffer.array());
+    }
+
+    /**
+     * Writes the index, and closes the file.
+     */
+    @Override
+    public void close() {
+        codec.close();
+
+        final BinaryCodec indexCodec = new BinaryCodec(getIndexFile(output), true);
+        indexCodec.writeBytes(INDEX_MAGIC.getBytes());
+        indexCodec.writeInt(targets.size());
+        for (int i = 0; i < targets.size(); ++i) {
+            writeTarget(indexCodec, dictionary, targets.get(i));
+            indexCodec.writeLong(filePointers.get(i));
+        }
+        indexCodec.close();
+    }
+
+    private static void writeTarget(final BinaryCodec codec, final SAMSequenceDictionary dictionary, final Interval target) {
+        final int sequenceIndex = dictionary.getSequenceIndex(target.getContig());
+        if (sequenceIndex < 0) {
+            throw new PicardException("Target " + target + " is not on a sequence in the sequence dictionary.");
+        }
+        codec.writeInt(sequenceIndex);
+        codec.writeInt(target.getStart());
+        codec.writeInt(target.getEnd());
+        codec.writeString(target.getName() == null ? "" : target.getName(), true, false);
+    }
+}
@@ -80,6 +80,7 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
 
     private final File perTargetCoverage;  // If not null, per-target coverage summaries are written to this file
     private final File perBaseCoverage;    // If not null, per-base(!) coverage summaries are written to this file
+    private PerBaseCoverageFormat perBaseCoverageFormat = PerBaseCoverageFormat.TEXT;
 
     //The name of the set of probes used
     private final String probeSetName;
@@ -142,6 +143,20 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
     /** Sets the distance that is allowed between a read and the nearest probe for it to be considered "near probe" and "selected. */
     public void setNearProbeDistance(final int nearProbeDistance) { this.nearProbeDistance = nearProbeDistance; }
 
+    /** The formats that per-base coverage can be written in. */
+    public enum PerBaseCoverageFormat {
+        /** A tab-delimited text file, with one line per target base. */
+        TEXT,
+        /** A block-compressed binary file with an index of the targets, written by {@link PerBaseCoverageWriter}. */
+        BINARY
+    }
+
+    /** Gets the format that per-base coverage is written in. */
+    public PerBaseCoverageFormat getPerBaseCoverageFormat() { return perBaseCoverageFormat; }
+
+    /** Sets the format that per-base coverage is written in. */
+    public void setPerBaseCoverageFormat(final PerBaseCoverageFormat perBaseCoverageFormat) { this.perBaseCoverageFormat = perBaseCoverageFormat; }
+
     //Converts a targetMetric into a more specific metric of METRIC_TYPE
     public abstract METRIC_TYPE convertMetric(final TargetMetrics targetMetrics);
 
@@ -738,6 +753,15 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
         private void emitPerBaseCoverageIfRequested() {
             if (this.perBaseOutput == null) return;
 
+            if (perBaseCoverageFormat == PerBaseCoverageFormat.BINARY) {
+                final PerBaseCoverageWriter writer = new PerBaseCoverageWriter(this.perBaseOutput, allTargets.getHeader().getSequenceDictionary());
+                for (final Map.Entry<Interval,Coverage> entry : this.highQualityCoverageByTarget.entrySet()) {
+                    writer.add(entry.getKey(), entry.getValue().getDepths());
+                }
+                writer.close();
+                return;
+            }
+
             final PrintWriter out = new PrintWriter(IOUtil.openFileForBufferedWriting(this.perBaseOutput));
             out.println("chrom\tpos\ttarget\tcoverage");
             for (final Map.Entry<Interval,Coverage> entry : this.highQualityCoverageByTarget.entrySet()) {
@@ -26,13 +26,14 @@ package picard.metrics;
 
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMTagUtil;
 import htsjdk.samtools.metrics.MetricBase;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.reference.ReferenceSequence;
-import picard.PicardException;
 import picard.analysis.MetricAccumulationLevel;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -74,6 +75,11 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
     //these will be listed in the order in which their children would be added to a metric file
     private List<Distributor> outputOrderedDistributors;
 
+    //The index of each read group (by ID) in the list of read groups passed to setup, so that each record's read group
+    //is resolved once and the Distributors can find its collectors by index rather than by sample/library/PU name
+    //(null if only accumulating at the ALL_READS level)
+    private Map<String, Integer> readGroupIndexes;
+
     //Convert the current SAMRecord and the ReferenceSequence for that record into an ARGTYPE object
     //see accept record for use
     protected abstract ARGTYPE makeArg(final SAMRecord samRec, final ReferenceSequence refSeq);
@@ -118,6 +124,13 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
         //A Map mapping the key for a specific record (as determined by getKey) to the appropriate collector
         private final Map<String, PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>> collectors;
 
+        //The collector for each read group, indexed as in the list of read groups passed to the constructor, or null
+        //for those without a key (whose records go to the unknown collector)
+        private final PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>[] collectorsByReadGroup;
+
+        //The collector for records without a read group or key, made (and cached here) on first use
+        private PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> unknownCollector;
+
         //Given a SAMReadGroupRecord, return the key that identifies the collector for the corresponding SAMRecord
         protected abstract String getKey(final SAMReadGroupRecord rg);
 
@@ -126,13 +139,19 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
 
         protected abstract PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> makeUnknownCollector();
 
+        @SuppressWarnings("unchecked")
         public Distributor(final List<SAMReadGroupRecord> rgRecs) {
             collectors = new LinkedHashMap<String, PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>>();
-            for(final SAMReadGroupRecord rg : rgRecs) {
+            collectorsByReadGroup = new PerUnitMetricCollector[rgRecs.size()];
+            for (int i = 0; i < rgRecs.size(); ++i) {
+                final SAMReadGroupRecord rg = rgRecs.get(i);
                 final String key = getKey(rg);
                 if(!collectors.containsKey(key)) {
                     collectors.put(key, makeCollector(rg));
                 }
+                if (key != null) {
+                    collectorsByReadGroup[i] = collectors.get(key);
+                }
             }
         }
 
@@ -143,25 +162,42 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
             }
         }
 
-        /** Call acceptRecord(args) on the record collector identified by getKey */
-        public void acceptRecord(final ARGTYPE args, final SAMReadGroupRecord rg) {
+        /**
+         * Call acceptRecord(args) on the collector for the read group with the given index (as passed to the
+         * constructor), or on the unknown collector if the index is negative or the read group has no key
+         */
+        public void acceptRecord(final ARGTYPE args, final int readGroupIndex) {
+            PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> collector =
+                    readGroupIndex < 0 ? null : collectorsByReadGroup[readGroupIndex];
+            if (collector == null) {
+                collector = getUnknownCollector();
+            }
+            collector.acceptRecord(args);
+        }
 
-            String key = UNKNOWN;
-            if(rg != null) {
-                final String computedKey = getKey(rg);
-                if(computedKey != null) {
-                    key = computedKey;
+        private PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> getUnknownCollector() {
+            if (unknownCollector == null) {
+                unknownCollector = collectors.get(UNKNOWN);
+                if (unknownCollector == null) {
+                    unknownCollector = makeUnknownCollector();
+                    collectors.put(UNKNOWN, unknownCollector);
                 }
             }
-            PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> collector = collectors.get(key);
-            if (collector == null) {
-                if (!UNKNOWN.equals(key)) {
-                    throw new PicardException("Could not find collector for " + key);
+            return unknownCollector;
+        }
+
+        /** Merge the collectors of another Distributor for the same accumulation level into this one's */
+        public void merge(final Distributor other) {
+            for (final Map.Entry<String, PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>> entry : other.collectors.entrySet()) {
+                final PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> collector = collectors.get(entry.getKey());
+                if (collector == null) {
+                    collectors.put(entry.getKey(), entry.getValue());
+                } else {
+                    collector.merge(entry.getValue());
                 }
-                collector = makeUnknownCollector();
-                collectors.put(key, collector);
             }
-            collector.acceptRecord(args);
+            // the unknown collector may have come from the other Distributor
+            unknownCollector = null;
         }
 
         /** Add all records to the MetricsFile passed in, this will happen in the order they were
@@ -188,7 +224,8 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
             return null;
         }
 
-        public void acceptRecord(final ARGTYPE args, final SAMReadGroupRecord rg) {
+        @Override
+        public void acceptRecord(final ARGTYPE args, final int readGroupIndex) {
             allReadCollector.acceptRecord(args);
         }
 
@@ -208,6 +245,15 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
             allReadCollector.finish();
         }
 
+        @Override
+        public void merge(final Distributor other) {
+            allReadCollector.merge(((AllReadsDistributor) other).getCollector());
+        }
+
+        private PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> getCollector() {
+            return allReadCollector;
+        }
+
         @Override
         public void addToFile(final MetricsFile<METRIC_TYPE, Histogram_KEY> file) {
             allReadCollector.addMetricsToFile(file);
@@ -287,6 +333,14 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
      *                     readGroups found in the records depending on the accumulationLevels provided
      */
     protected void setup(final Set<MetricAccumulationLevel> accumulationLevels, final List<SAMReadGroupRecord> samRgRecords) {
+        readGroupIndexes = null;
+        if (accumulationLevels.stream().anyMatch(level -> level != MetricAccumulationLevel.ALL_READS)) {
+            readGroupIndexes = new HashMap<>();
+            for (int i = 0; i < samRgRecords.size(); ++i) {
+                readGroupIndexes.put(samRgRecords.get(i).getReadGroupId(), i);
+            }
+        }
+
         outputOrderedDistributors = new ArrayList<Distributor>(4);
         if(accumulationLevels.contains(MetricAccumulationLevel.ALL_READS)) {
             outputOrderedDistributors.add(new AllReadsDistributor(samRgRecords));
@@ -310,12 +364,26 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
      */
     public void acceptRecord(final SAMRecord record, final ReferenceSequence refSeq) {
         final ARGTYPE arg = makeArg(record, refSeq);
+        final int readGroupIndex = getReadGroupIndex(record);
 
         for(final Distributor collector : outputOrderedDistributors) {
-            collector.acceptRecord(arg, record.getReadGroup());
+            collector.acceptRecord(arg, readGroupIndex);
         }
     }
 
+    /** The index of the record's read group in the list passed to setup, or -1 if it has none or it isn't in the list */
+    private int getReadGroupIndex(final SAMRecord record) {
+        if (readGroupIndexes == null) {
+            return -1;
+        }
+        final Object readGroupId = record.getAttribute(SAMTagUtil.getSingleton().RG);
+        if (readGroupId == null || record.getHeader() == null) {
+            return -1;
+        }
+        final Integer index = readGroupIndexes.get(readGroupId);
+        return index == null ? -1 : index;
+    }
+
     /**
      * Call finish on all PerUnitMetricCollectors
      */
@@ -325,6 +393,16 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
         }
     }
 
+    /**
+     * Merge everything collected by another collector, constructed with the same accumulation levels and read groups
+     * (e.g. to accept the records from a different region of the input), into this one.  Must be called before finish().
+     */
+    public void merge(final MultiLevelCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> other) {
+        for (int i = 0; i < outputOrderedDistributors.size(); ++i) {
+            outputOrderedDistributors.get(i).merge(other.outputOrderedDistributors.get(i));
+        }
+    }
+
     /** Get the PerUnitMetricCollector that collects reads for all levels */
     public PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> getAllReadsCollector() {
         return allReadCollector;
@@ -49,6 +49,15 @@ public interface PerUnitMetricCollector<BEAN extends MetricBase, HKEY extends Co
      */
     public void acceptRecord(final ARGTYPE args);
 
+    /**
+     * Add everything collected by another collector for the same unit, e.g. one that accepted the records from
+     * a different region of the input, to this collector.  Must be called before finish().
+     * @param other A collector of the same type and unit as this one, which will not be used again
+     */
+    public default void merge(final PerUnitMetricCollector<BEAN, HKEY, ARGTYPE> other) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support merging");
+    }
+
     /** When all records have been collected, compute any final values needed to finish constructing metrics/Histogram */
     public void finish();
 
@@ -73,6 +73,33 @@ abstract class ElcDuplicatesFinder {
         }
     }
 
+    /**
+     * Checks to see if two reads pairs have sequence that are the same, give or take a few
+     * errors/diffs as dictated by the maxDiffRate.
+     */
+    protected boolean basesMatch(final PairedReadSequence lhs, final PairedReadSequence rhs, final double maxDiffRate) {
+        final int read1Length = minLength(lhs.read1, rhs.read1);
+        final int read2Length = minLength(lhs.read2, rhs.read2);
+        final int maxErrors = (int) Math.floor((read1Length + read2Length) * maxDiffRate);
+        int errors = 0;
+
+        // The loop can start from MIN_IDENTICAL_BASES because we've already confirmed that
+        // at least those first few bases are identical when sorting.
+        for (int i = minIdenticalBases; i < read1Length; ++i) {
+            if (lhs.read1[i] != rhs.read1[i] && ++errors > maxErrors) {
+                return false;
+            }
+        }
+
+        for (int i = minIdenticalBases; i < read2Length; ++i) {
+            if (lhs.read2[i] != rhs.read2[i] && ++errors > maxErrors) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     protected int minLength(byte[] read1, byte[] read2) {
         return Math.min(Math.min(read1.length, read2.length), maxReadLength);
     }
@@ -42,22 +42,38 @@ class ElcDuplicatesFinderResolver {
      * This parameter determines the choice of the algorithm: if the group size > BOUNDARY_LIBRARY_SIZE, the modified
      * algorithm applies
      */
-    private static final int BOUNDARY_LIBRARY_SIZE = 100;
+    static final int BOUNDARY_LIBRARY_SIZE = 100;
 
     private boolean useBarcodes;
-    private ElcHashBasedDuplicatesFinder hashBasedDuplicatesFinder;
+    private ElcDuplicatesFinder largeGroupDuplicatesFinder;
     private ElcIdenticalBasesDuplicatesFinder identicalBasesDuplicateFinder;
 
     ElcDuplicatesFinderResolver(double maxDiffRate, int maxReadLength, int minIdenticalBases, boolean useBarcodes,
                                 OpticalDuplicateFinder opticalDuplicateFinder) {
+        this(maxDiffRate, maxReadLength, minIdenticalBases, useBarcodes, opticalDuplicateFinder,
+                EstimateLibraryComplexity.DuplicateSearchAlgorithm.HASH_BASED);
+    }
+
+    ElcDuplicatesFinderResolver(double maxDiffRate, int maxReadLength, int minIdenticalBases, boolean useBarcodes,
+                                OpticalDuplicateFinder opticalDuplicateFinder,
+                                EstimateLibraryComplexity.DuplicateSearchAlgorithm largeGroupAlgorithm) {
         this.useBarcodes = useBarcodes;
 
-        this.hashBasedDuplicatesFinder = new ElcHashBasedDuplicatesFinder(
-                maxDiffRate,
-                maxReadLength,
-                minIdenticalBases,
-                opticalDuplicateFinder
-        );
+        if (largeGroupAlgorithm == EstimateLibraryComplexity.DuplicateSearchAlgorithm.LSH) {
+            this.largeGroupDuplicatesFinder = new ElcLshDuplicatesFinder(
+                    maxDiffRate,
+                    maxReadLength,
+                    minIdenticalBases,
+                    opticalDuplicateFinder
+            );
+        } else {
+            this.largeGroupDuplicatesFinder = new ElcHashBasedDuplicatesFinder(
+                    maxDiffRate,
+                    maxReadLength,
+                    minIdenticalBases,
+                    opticalDuplicateFinder
+            );
+        }
 
         this.identicalBasesDuplicateFinder = new ElcIdenticalBasesDuplicatesFinder(
                 maxDiffRate,
@@ -73,7 +89,7 @@ class ElcDuplicatesFinderResolver {
         if (useBarcodes || sequences.size() < BOUNDARY_LIBRARY_SIZE) {
             identicalBasesDuplicateFinder.searchDuplicates(sequences, duplicationHisto, opticalHisto);
         } else {
-            hashBasedDuplicatesFinder.searchDuplicates(sequences, duplicationHisto, opticalHisto);
+            largeGroupDuplicatesFinder.searchDuplicates(sequences, duplicationHisto, opticalHisto);
         }
     }
 
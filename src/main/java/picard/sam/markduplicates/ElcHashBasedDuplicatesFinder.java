@@ -69,6 +69,9 @@ class ElcHashBasedDuplicatesFinder extends ElcDuplicatesFinder {
     void searchDuplicates(List<PairedReadSequence> sequences, Histogram<Integer> duplicationHisto,
                           Histogram<Integer> opticalHisto) {
 
+        // the hash layout depends only on the reads in this group, not on any group searched before it
+        numberOfHashesInGroup = -1;
+        minReadLenInGroup = Integer.MAX_VALUE;
         initHashLength(sequences);
         fillHashValues(sequences);
         populateDupCandidates(sequences);
@@ -80,11 +80,6 @@ class ElcIdenticalBasesDuplicatesFinder extends ElcDuplicatesFinder {
      * errors/diffs as dictated by the maxDiffRate.
      */
     private boolean matches(final PairedReadSequence lhs, final PairedReadSequence rhs, final double maxDiffRate, final boolean useBarcodes) {
-        final int read1Length = minLength(lhs.read1, rhs.read1);
-        final int read2Length = minLength(lhs.read2, rhs.read2);
-        final int maxErrors = (int) Math.floor((read1Length + read2Length) * maxDiffRate);
-        int errors = 0;
-
         if (useBarcodes) {
             final PairedReadSequenceWithBarcodes lhsWithBarcodes = (PairedReadSequenceWithBarcodes) lhs;
             final PairedReadSequenceWithBarcodes rhsWithBarcodes = (PairedReadSequenceWithBarcodes) rhs;
@@ -95,21 +90,7 @@ class ElcIdenticalBasesDuplicatesFinder extends ElcDuplicatesFinder {
             }
         }
 
-        // The loop can start from MIN_IDENTICAL_BASES because we've already confirmed that
-        // at least those first few bases are identical when sorting.
-        for (int i = minIdenticalBases; i < read1Length; ++i) {
-            if (lhs.read1[i] != rhs.read1[i] && ++errors > maxErrors) {
-                return false;
-            }
-        }
-
-        for (int i = minIdenticalBases; i < read2Length; ++i) {
-            if (lhs.read2[i] != rhs.read2[i] && ++errors > maxErrors) {
-                return false;
-            }
-        }
-
-        return true;
+        return basesMatch(lhs, rhs, maxDiffRate);
     }
 
 
@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.sam.markduplicates;
+
+import htsjdk.samtools.util.Histogram;
+import picard.sam.markduplicates.util.OpticalDuplicateFinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static picard.sam.markduplicates.EstimateLibraryComplexity.PairedReadSequence;
+
+/**
+ * Algorithm for search duplicates is used in EstimateLibraryComplexity only. It is a locality-sensitive hashing
+ * index over the reads of a group: the bases of each read are split into interspersed parts ("bands"), as in
+ * {@link ElcHashBasedDuplicatesFinder}, but there are always more bands in a read pair than the maximum number of
+ * errors allowed between two pairs. Two pairs that are duplicates of each other must therefore have at least one
+ * band in which they are identical, so only the pairs sharing a band hash at the same band need to be compared.
+ *
+ * The index is built from primitive arrays that are reused from group to group, and the candidates are compared
+ * base by base, so the duplicates found are exactly those found by {@link ElcIdenticalBasesDuplicatesFinder}.
+ */
+class ElcLshDuplicatesFinder extends ElcDuplicatesFinder {
+
+    // number of bands each read of a pair is split into, and the number of bases of each read that are banded
+    private int bandsPerRead;
+    private int read1HashedLength;
+    private int read2HashedLength;
+
+    // for band b, keys[b * n, (b + 1) * n) holds (band hash << 32 | sequence index) sorted by hash
+    private long[] keys = new long[0];
+    // bucketStarts[b * n + s] is the index into keys of the first sequence with the same hash as sequence s in band b
+    private int[] bucketStarts = new int[0];
+    // the index of the last sequence that each sequence was compared to, so that it is compared at most once
+    private int[] lastComparedTo = new int[0];
+    // whether each sequence has already been searched from, or found to be a duplicate
+    private boolean[] processed = new boolean[0];
+    private int[] duplicateIndexes = new int[0];
+
+    ElcLshDuplicatesFinder(double maxDiffRate, int maxReadLength, int minIdenticalBases,
+                           OpticalDuplicateFinder opticalDuplicateFinder) {
+        super(maxDiffRate, maxReadLength, minIdenticalBases, opticalDuplicateFinder);
+    }
+
+    @Override
+    void searchDuplicates(List<PairedReadSequence> sequences, Histogram<Integer> duplicationHisto,
+                          Histogram<Integer> opticalHisto) {
+        final int n = sequences.size();
+        initBands(sequences);
+        buildIndex(sequences);
+
+        Arrays.fill(lastComparedTo, 0, n, -1);
+        Arrays.fill(processed, 0, n, false);
+
+        final int numberOfBands = 2 * bandsPerRead;
+        for (int i = 0; i < n; ++i) {
+            if (processed[i]) continue;
+            processed[i] = true;
+            final PairedReadSequence lhs = sequences.get(i);
+            int numberOfDuplicates = 0;
+
+            for (int band = 0; band < numberOfBands; ++band) {
+                final int bandStart = band * n;
+                final int bandEnd = bandStart + n;
+                final int hash = hashOf(keys[bucketStarts[bandStart + i]]);
+
+                for (int k = bucketStarts[bandStart + i]; k < bandEnd && hashOf(keys[k]) == hash; ++k) {
+                    final int j = (int) keys[k];
+                    if (processed[j] || lastComparedTo[j] == i) continue;
+                    lastComparedTo[j] = i;
+
+                    if (basesMatch(lhs, sequences.get(j), maxDiffRate)) {
+                        processed[j] = true;
+                        duplicateIndexes[numberOfDuplicates++] = j;
+                    }
+                }
+            }
+
+            // keep the duplicates in input order, as the optical duplicate search depends on it
+            Arrays.sort(duplicateIndexes, 0, numberOfDuplicates);
+            final List<PairedReadSequence> dupes = new ArrayList<>(numberOfDuplicates + 1);
+            for (int d = 0; d < numberOfDuplicates; ++d) {
+                dupes.add(sequences.get(duplicateIndexes[d]));
+            }
+            fillHistogram(duplicationHisto, opticalHisto, lhs, dupes);
+        }
+    }
+
+    /**
+     * Chooses enough bands that any two duplicate pairs in the group have at least one identical band, and the
+     * number of bases of each read that can be banded in every pair of the group.
+     */
+    private void initBands(final List<PairedReadSequence> sequences) {
+        int maxRead1Length = 0;
+        int maxRead2Length = 0;
+        read1HashedLength = Integer.MAX_VALUE;
+        read2HashedLength = Integer.MAX_VALUE;
+        for (final PairedReadSequence prs : sequences) {
+            final int read1Length = Math.min(prs.read1.length, maxReadLength);
+            final int read2Length = Math.min(prs.read2.length, maxReadLength);
+            maxRead1Length = Math.max(maxRead1Length, read1Length);
+            maxRead2Length = Math.max(maxRead2Length, read2Length);
+            read1HashedLength = Math.min(read1HashedLength, read1Length);
+            read2HashedLength = Math.min(read2HashedLength, read2Length);
+        }
+
+        final int maxErrors = (int) Math.floor((maxRead1Length + maxRead2Length) * maxDiffRate);
+        bandsPerRead = maxErrors / 2 + 1;
+    }
+
+    /**
+     * Hashes every band of every sequence, sorts each band by hash and records where each sequence's bucket starts.
+     */
+    private void buildIndex(final List<PairedReadSequence> sequences) {
+        final int n = sequences.size();
+        final int size = 2 * bandsPerRead * n;
+        if (keys.length < size) {
+            keys = new long[size];
+            bucketStarts = new int[size];
+        }
+        if (processed.length < n) {
+            lastComparedTo = new int[n];
+            processed = new boolean[n];
+            duplicateIndexes = new int[n];
+        }
+
+        for (int s = 0; s < n; ++s) {
+            final PairedReadSequence prs = sequences.get(s);
+            for (int part = 0; part < bandsPerRead; ++part) {
+                keys[part * n + s] = key(hash(prs.read1, part, read1HashedLength), s);
+                keys[(bandsPerRead + part) * n + s] = key(hash(prs.read2, part, read2HashedLength), s);
+            }
+        }
+
+        for (int bandStart = 0; bandStart < size; bandStart += n) {
+            Arrays.sort(keys, bandStart, bandStart + n);
+            int bucketStart = bandStart;
+            for (int k = bandStart; k < bandStart + n; ++k) {
+                if (hashOf(keys[k]) != hashOf(keys[bucketStart])) {
+                    bucketStart = k;
+                }
+                bucketStarts[bandStart + (int) keys[k]] = bucketStart;
+            }
+        }
+    }
+
+    /** Hashes the bases of one band of a read, see EstimateLibraryComplexity.PairedReadSequence.getHashes(). */
+    private int hash(final byte[] read, final int part, final int hashedLength) {
+        int hash = 1;
+        for (int position = minIdenticalBases + part; position < hashedLength; position += bandsPerRead) {
+            hash = 31 * hash + read[position];
+        }
+        return hash;
+    }
+
+    private static long key(final int hash, final int sequenceIndex) {
+        return ((long) hash << 32) | sequenceIndex;
+    }
+
+    private static int hashOf(final long key) {
+        return (int) (key >> 32);
+    }
+}
@@ -47,6 +47,7 @@ import picard.cmdline.programgroups.DiagnosticsAndQCProgramGroup;
 import picard.sam.DuplicationMetrics;
 import picard.sam.markduplicates.util.AbstractOpticalDuplicateFinderCommandLineProgram;
 import picard.sam.util.PhysicalLocationShort;
+import picard.util.ThreadPoolExecutorWithExceptions;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -56,6 +57,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static java.lang.Math.pow;
 
@@ -160,6 +164,34 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
             "size calculation, for example, adapter dimers.", optional = true)
     public int MIN_GROUP_COUNT = 2;
 
+    @Argument(doc = "The number of threads to use when searching for duplicates. If greater than one, groups of read " +
+            "pairs are searched for duplicates on this many worker threads, and the per-library histograms merged at the end. " +
+            "The results are identical to those of a single-threaded run.")
+    public int NUM_THREADS = 1;
+
+    @Argument(doc = "The algorithm used to search groups of " + ElcDuplicatesFinderResolver.BOUNDARY_LIBRARY_SIZE +
+            " or more read pairs for duplicates when no barcodes are used. Smaller groups, and all groups when barcodes " +
+            "are used, are searched by comparing every pair of reads.")
+    public DuplicateSearchAlgorithm DUPLICATE_SEARCH_ALGORITHM = DuplicateSearchAlgorithm.HASH_BASED;
+
+    /** The algorithms that can be used to search large groups of read pairs for duplicates. */
+    public enum DuplicateSearchAlgorithm {
+        /**
+         * Splits the reads into parts, and compares the reads sharing any part hash. Reads that differ in every
+         * part are not compared, so a few duplicates may be missed.
+         */
+        HASH_BASED,
+        /**
+         * Splits the reads into more parts than the number of differences allowed, indexes the part hashes in
+         * sorted primitive arrays and compares the reads sharing a part hash at the same part. Finds exactly the
+         * duplicates that comparing every pair of reads would, with far fewer comparisons and allocations.
+         */
+        LSH
+    }
+
+    /** The number of read pairs handed to a worker thread at a time when searching for duplicates with NUM_THREADS > 1. */
+    private static final int GROUP_BATCH_SIZE = 10000;
+
     private final Log log = Log.getInstance(EstimateLibraryComplexity.class);
 
     @Override
@@ -171,6 +203,9 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
         if (MIN_IDENTICAL_BASES <= 0) {
             errorMsgs.add("MIN_IDENTICAL_BASES must be greater than 0");
         }
+        if (NUM_THREADS < 1) {
+            errorMsgs.add("NUM_THREADS must be at least 1, found " + NUM_THREADS);
+        }
         return errorMsgs.isEmpty() ? super.customCommandLineValidation() : errorMsgs.toArray(new String[errorMsgs.size()]);
     }
 
@@ -527,57 +562,79 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
         // Now go through the sorted reads and attempt to find duplicates
         final PeekableIterator<PairedReadSequence> iterator = new PeekableIterator<PairedReadSequence>(sorter.iterator());
 
-        final Map<String, Histogram<Integer>> duplicationHistosByLibrary = new HashMap<String, Histogram<Integer>>();
-        final Map<String, Histogram<Integer>> opticalHistosByLibrary = new HashMap<String, Histogram<Integer>>();
+        final DuplicationHistograms histograms = new DuplicationHistograms();
 
         int groupsProcessed = 0;
         long lastLogTime = System.currentTimeMillis();
         final int meanGroupSize = (int) (Math.max(1, (progress.getCount() / 2) / (int) pow(4, MIN_IDENTICAL_BASES * 2)));
 
-        ElcDuplicatesFinderResolver algorithmResolver = new ElcDuplicatesFinderResolver(
+        // The duplicate finders keep state for the group being searched, so each worker thread needs its own
+        final ThreadLocal<ElcDuplicatesFinderResolver> algorithmResolvers = ThreadLocal.withInitial(() -> new ElcDuplicatesFinderResolver(
                 MAX_DIFF_RATE,
                 MAX_READ_LENGTH,
                 MIN_IDENTICAL_BASES,
                 useBarcodes,
-                opticalDuplicateFinder
-        );
-
-        while (iterator.hasNext()) {
-            // Get the next group and split it apart by library
-            final List<PairedReadSequence> group = getNextGroup(iterator);
-
-            if (group.size() > meanGroupSize * MAX_GROUP_RATIO) {
-                final PairedReadSequence prs = group.get(0);
-                log.warn("Omitting group with over " + MAX_GROUP_RATIO + " times the expected mean number of read pairs. " +
-                        "Mean=" + meanGroupSize + ", Actual=" + group.size() + ". Prefixes: " +
-                        StringUtil.bytesToString(prs.read1, 0, MIN_IDENTICAL_BASES) +
-                        " / " +
-                        StringUtil.bytesToString(prs.read2, 0, MIN_IDENTICAL_BASES));
-            } else {
-                final Map<String, List<PairedReadSequence>> sequencesByLibrary = splitByLibrary(group, readGroups);
-
-                // Now process the reads by library
-                for (final Map.Entry<String, List<PairedReadSequence>> entry : sequencesByLibrary.entrySet()) {
-                    final String library = entry.getKey();
-                    final List<PairedReadSequence> seqs = entry.getValue();
-
-                    Histogram<Integer> duplicationHisto = duplicationHistosByLibrary.get(library);
-                    Histogram<Integer> opticalHisto = opticalHistosByLibrary.get(library);
-                    if (duplicationHisto == null) {
-                        duplicationHisto = new Histogram<>("duplication_group_count", library);
-                        opticalHisto = new Histogram<>("duplication_group_count", "optical_duplicates");
-                        duplicationHistosByLibrary.put(library, duplicationHisto);
-                        opticalHistosByLibrary.put(library, opticalHisto);
+                opticalDuplicateFinder,
+                DUPLICATE_SEARCH_ALGORITHM
+        ));
+
+        // When multi-threaded, batches of groups are searched on worker threads, each into its own histograms, which
+        // are merged as the batches complete.
+        final ExecutorService executor = NUM_THREADS > 1 ? new ThreadPoolExecutorWithExceptions(NUM_THREADS) : null;
+        final Deque<Future<DuplicationHistograms>> pendingBatches = new ArrayDeque<>();
+        List<Map<String, List<PairedReadSequence>>> batch = new ArrayList<>();
+        int batchSize = 0;
+
+        try {
+            while (iterator.hasNext()) {
+                // Get the next group and split it apart by library
+                final List<PairedReadSequence> group = getNextGroup(iterator);
+
+                if (group.size() > meanGroupSize * MAX_GROUP_RATIO) {
+                    final PairedReadSequence prs = group.get(0);
+                    log.warn("Omitting group with over " + MAX_GROUP_RATIO + " times the expected mean number of read pairs. " +
+                            "Mean=" + meanGroupSize + ", Actual=" + group.size() + ". Prefixes: " +
+                            StringUtil.bytesToString(prs.read1, 0, MIN_IDENTICAL_BASES) +
+                            " / " +
+                            StringUtil.bytesToString(prs.read2, 0, MIN_IDENTICAL_BASES));
+                } else {
+                    final Map<String, List<PairedReadSequence>> sequencesByLibrary = splitByLibrary(group, readGroups);
+
+                    if (executor == null) {
+                        searchDuplicates(sequencesByLibrary, algorithmResolvers.get(), histograms);
+                    } else {
+                        batch.add(sequencesByLibrary);
+                        batchSize += group.size();
+                        if (batchSize >= GROUP_BATCH_SIZE) {
+                            pendingBatches.add(submitGroups(executor, batch, algorithmResolvers));
+                            batch = new ArrayList<>();
+                            batchSize = 0;
+                            // Bound the number of read pairs held in memory while waiting for the oldest batch to complete
+                            while (pendingBatches.size() > 2 * NUM_THREADS) {
+                                histograms.addAll(getCompletedBatch(pendingBatches.poll()));
+                            }
+                        }
                     }
 
-                    algorithmResolver.resolveAndSearch(seqs, duplicationHisto, opticalHisto);
+                    ++groupsProcessed;
+                    if (lastLogTime < System.currentTimeMillis() - 60000) {
+                        log.info("Processed " + groupsProcessed + " groups.");
+                        lastLogTime = System.currentTimeMillis();
+                    }
                 }
+            }
 
-                ++groupsProcessed;
-                if (lastLogTime < System.currentTimeMillis() - 60000) {
-                    log.info("Processed " + groupsProcessed + " groups.");
-                    lastLogTime = System.currentTimeMillis();
+            if (executor != null) {
+                if (!batch.isEmpty()) {
+                    pendingBatches.add(submitGroups(executor, batch, algorithmResolvers));
                 }
+                while (!pendingBatches.isEmpty()) {
+                    histograms.addAll(getCompletedBatch(pendingBatches.poll()));
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
         }
 
@@ -585,9 +642,9 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
         sorter.cleanup();
 
         final MetricsFile<DuplicationMetrics, Integer> file = getMetricsFile();
-        for (final String library : duplicationHistosByLibrary.keySet()) {
-            final Histogram<Integer> duplicationHisto = duplicationHistosByLibrary.get(library);
-            final Histogram<Integer> opticalHisto = opticalHistosByLibrary.get(library);
+        for (final String library : histograms.duplicationHistosByLibrary.keySet()) {
+            final Histogram<Integer> duplicationHisto = histograms.duplicationHistosByLibrary.get(library);
+            final Histogram<Integer> opticalHisto = histograms.opticalHistosByLibrary.get(library);
             final DuplicationMetrics metrics = new DuplicationMetrics();
             metrics.LIBRARY = library;
 
@@ -614,6 +671,58 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
         return 0;
     }
 
+    /** Searches each library's read pairs from a group for duplicates, adding to that library's histograms. */
+    private static void searchDuplicates(final Map<String, List<PairedReadSequence>> sequencesByLibrary,
+                                         final ElcDuplicatesFinderResolver algorithmResolver,
+                                         final DuplicationHistograms histograms) {
+        for (final Map.Entry<String, List<PairedReadSequence>> entry : sequencesByLibrary.entrySet()) {
+            final String library = entry.getKey();
+            algorithmResolver.resolveAndSearch(entry.getValue(),
+                    histograms.getDuplicationHisto(library),
+                    histograms.getOpticalHisto(library));
+        }
+    }
+
+    /** Searches a batch of groups for duplicates on a worker thread, into histograms for just that batch. */
+    private static Future<DuplicationHistograms> submitGroups(final ExecutorService executor,
+                                                              final List<Map<String, List<PairedReadSequence>>> batch,
+                                                              final ThreadLocal<ElcDuplicatesFinderResolver> algorithmResolvers) {
+        return executor.submit(() -> {
+            final DuplicationHistograms batchHistograms = new DuplicationHistograms();
+            for (final Map<String, List<PairedReadSequence>> sequencesByLibrary : batch) {
+                searchDuplicates(sequencesByLibrary, algorithmResolvers.get(), batchHistograms);
+            }
+            return batchHistograms;
+        });
+    }
+
+    private static DuplicationHistograms getCompletedBatch(final Future<DuplicationHistograms> pendingBatch) {
+        try {
+            return pendingBatch.get();
+        } catch (final InterruptedException | ExecutionException e) {
+            throw new PicardException("Failed to search for duplicates", e);
+        }
+    }
+
+    /** The per-library histograms of duplicate group sizes, and of optical duplicates by group size. */
+    private static final class DuplicationHistograms {
+        final Map<String, Histogram<Integer>> duplicationHistosByLibrary = new HashMap<>();
+        final Map<String, Histogram<Integer>> opticalHistosByLibrary = new HashMap<>();
+
+        Histogram<Integer> getDuplicationHisto(final String library) {
+            return duplicationHistosByLibrary.computeIfAbsent(library, l -> new Histogram<>("duplication_group_count", l));
+        }
+
+        Histogram<Integer> getOpticalHisto(final String library) {
+            return opticalHistosByLibrary.computeIfAbsent(library, l -> new Histogram<>("duplication_group_count", "optical_duplicates"));
+        }
+
+        void addAll(final DuplicationHistograms other) {
+            other.duplicationHistosByLibrary.forEach((library, histo) -> getDuplicationHisto(library).addHistogram(histo));
+            other.opticalHistosByLibrary.forEach((library, histo) -> getOpticalHisto(library).addHistogram(histo));
+        }
+    }
+
     /**
      * Pulls out of the iterator the next group of reads that can be compared to each other to
      * identify duplicates.
@@ -36,14 +36,20 @@ import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.ProgressLogger;
 import htsjdk.samtools.*;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.Histogram;
 import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.SortingLongCollection;
 import htsjdk.samtools.DuplicateScoringStrategy.ScoringStrategy;
 import picard.sam.markduplicates.util.*;
+import picard.sam.util.ReadNameParser;
 import picard.sam.util.RepresentativeReadIndexer;
+import picard.util.ThreadPoolExecutorWithExceptions;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * A better duplication marking algorithm that handles all cases including clipped
@@ -182,15 +188,45 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
     @Argument(doc= "Clear DT tag from input SAM records. Should be set to false if input SAM doesn't have this tag.  Default true")
     public boolean CLEAR_DT = true;
 
+    @Argument(doc = "The number of threads to use. If greater than one, read ends are built and sets of duplicate pairs " +
+            "are resolved (including optical duplicate detection) on this many worker threads, and the input and output " +
+            "files are decompressed and compressed on separate threads. The output is identical to that of a " +
+            "single-threaded run.")
+    public int NUM_THREADS = 1;
+
+    @Argument(doc = "If true, hold the indexes of duplicate records in a compressed in-memory bitmap rather than sorting " +
+            "them with a collection that spills to TMP_DIR.  This avoids the temporary file I/O and the merge before the " +
+            "output pass, and usually needs far less memory than the duplicate indexes would take on disk when the " +
+            "duplication rate is high.")
+    public boolean USE_DUPLICATE_INDEX_BITMAP = false;
+
+    @Argument(doc = "If true, read end information spilled to TMP_DIR is written using variable-length and delta " +
+            "encoding of the coordinates and indexes rather than fixed-width fields, which substantially reduces the " +
+            "temporary disk space and I/O needed at the cost of a little CPU.")
+    public boolean COMPACT_READ_ENDS_ENCODING = false;
+
+    @Argument(doc = "If true, read ends that are waiting for their mates are held in memory in a hash table keyed by " +
+            "fingerprints of the read names, rather than being written to disk for mates on other reference sequences.  " +
+            "This avoids the temporary files and uses much less memory per waiting read than a map keyed by read name, " +
+            "but all of the unmatched read ends must fit in memory.")
+    public boolean KEEP_UNMATCHED_READ_ENDS_IN_MEMORY = false;
+
     private SortingCollection<ReadEndsForMarkDuplicates> pairSort;
     private SortingCollection<ReadEndsForMarkDuplicates> fragSort;
-    private SortingLongCollection duplicateIndexes;
-    private SortingLongCollection opticalDuplicateIndexes;
+    private DuplicateIndexCollection duplicateIndexes;
+    private DuplicateIndexCollection opticalDuplicateIndexes;
     private SortingCollection<RepresentativeReadIndexer> representativeReadIndicesForDuplicates;
 
     private int numDuplicateIndices = 0;
     static private final long NO_SUCH_INDEX = Long.MAX_VALUE; // needs to be large so that that >= test fails for query-sorted traversal
 
+    /**
+     * The number of records handed to a worker thread at a time when building read ends, or read ends in duplicate
+     * sets when resolving duplicates, with NUM_THREADS > 1.
+     */
+    static final int DEFAULT_READ_ENDS_BATCH_SIZE = 10000;
+    int readEndsBatchSize = DEFAULT_READ_ENDS_BATCH_SIZE;
+
     protected LibraryIdGenerator libraryIdGenerator = null; // this is initialized in buildSortedReadEndLists
 
     private int getBarcodeValue(final SAMRecord record) {
@@ -214,6 +250,14 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
         new MarkDuplicates().instanceMainWithExit(args);
     }
 
+    @Override
+    protected String[] customCommandLineValidation() {
+        if (NUM_THREADS < 1) {
+            return new String[]{"NUM_THREADS must be at least 1, found " + NUM_THREADS};
+        }
+        return super.customCommandLineValidation();
+    }
+
     /**
      * Main work method.  Reads the BAM file once and collects sorted information about
      * the 5' ends of both ends of each read (or just one end in the case of pairs).
@@ -241,7 +285,7 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
             log.info("Found " + (this.libraryIdGenerator.getNumberOfOpticalDuplicateClusters()) + " optical duplicate clusters.");
         }
 
-        final SamHeaderAndIterator headerAndIterator = openInputs(false);
+        final SamHeaderAndIterator headerAndIterator = openInputs(false, NUM_THREADS > 1);
         final SAMFileHeader header = headerAndIterator.header;
         final SAMFileHeader.SortOrder sortOrder = header.getSortOrder();
 
@@ -260,7 +304,11 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
         // Key: previous PG ID on a SAM Record (or null).  Value: New PG ID to replace it.
         final Map<String, String> chainedPgIds = getChainedPgIds(outputHeader);
 
-        final SAMFileWriter out = new SAMFileWriterFactory().makeSAMOrBAMWriter(outputHeader,
+        final SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
+        if (NUM_THREADS > 1) {
+            writerFactory.setUseAsyncIo(true);
+        }
+        final SAMFileWriter out = writerFactory.makeSAMOrBAMWriter(outputHeader,
                 true,
                 OUTPUT);
 
@@ -455,7 +503,16 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
         log.info("Will retain up to " + maxInMemory + " data points before spilling to disk.");
 
         final ReadEndsForMarkDuplicatesCodec fragCodec, pairCodec, diskCodec;
-        if (useBarcodes) {
+        if (COMPACT_READ_ENDS_ENCODING && useBarcodes) {
+            fragCodec = new CompactReadEndsForMarkDuplicatesWithBarcodesCodec();
+            pairCodec = new CompactReadEndsForMarkDuplicatesWithBarcodesCodec();
+            // the disk-based map resets the stream between records, so cannot delta-encode
+            diskCodec = new CompactReadEndsForMarkDuplicatesWithBarcodesCodec(false);
+        } else if (COMPACT_READ_ENDS_ENCODING) {
+            fragCodec = new CompactReadEndsForMarkDuplicatesCodec();
+            pairCodec = new CompactReadEndsForMarkDuplicatesCodec();
+            diskCodec = new CompactReadEndsForMarkDuplicatesCodec(false);
+        } else if (useBarcodes) {
             fragCodec = new ReadEndsForMarkDuplicatesWithBarcodesCodec();
             pairCodec = new ReadEndsForMarkDuplicatesWithBarcodesCodec();
             diskCodec = new ReadEndsForMarkDuplicatesWithBarcodesCodec();
@@ -477,10 +534,13 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
                 maxInMemory,
                 TMP_DIR);
 
-        final SamHeaderAndIterator headerAndIterator = openInputs(true);
+        // When multi-threaded, records are decoded lazily so that the bulk of the decoding happens on the worker threads
+        final SamHeaderAndIterator headerAndIterator = openInputs(NUM_THREADS == 1, NUM_THREADS > 1);
         final SAMFileHeader.SortOrder assumedSortOrder = headerAndIterator.header.getSortOrder();
         final SAMFileHeader header = headerAndIterator.header;
-        final ReadEndsForMarkDuplicatesMap tmp = new DiskBasedReadEndsForMarkDuplicatesMap(MAX_FILE_HANDLES_FOR_READ_ENDS_MAP, diskCodec);
+        final ReadEndsForMarkDuplicatesMap tmp = KEEP_UNMATCHED_READ_ENDS_IN_MEMORY ?
+                new FingerprintingReadEndsForMarkDuplicatesMap() :
+                new DiskBasedReadEndsForMarkDuplicatesMap(MAX_FILE_HANDLES_FOR_READ_ENDS_MAP, diskCodec);
         long index = 0;
         final ProgressLogger progress = new ProgressLogger(log, (int) 1e6, "Read");
         final CloseableIterator<SAMRecord> iterator = headerAndIterator.iterator;
@@ -489,105 +549,80 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
             this.libraryIdGenerator = new LibraryIdGenerator(header);
         }
 
+        // Read ends are built on worker threads in batches, but handed back in input order so that mate matching and
+        // the sorting collections are only ever touched from this thread.
+        final ExecutorService executor = NUM_THREADS > 1 ? new ThreadPoolExecutorWithExceptions(NUM_THREADS) : null;
+        final Deque<Future<List<RecordAndReadEnds>>> pendingBatches = new ArrayDeque<>();
+        final ThreadLocal<ReadNameParser> readNameParsers = ThreadLocal.withInitial(() -> new ReadNameParser(READ_NAME_REGEX, log));
+        List<RecordAndReadEnds> batch = new ArrayList<>();
+
         String duplicateQueryName = null;
         long duplicateIndex = NO_SUCH_INDEX;
-        while (iterator.hasNext()) {
-            final SAMRecord rec = iterator.next();
+        try {
+            while (iterator.hasNext()) {
+                final SAMRecord rec = iterator.next();
+
+                // This doesn't have anything to do with building sorted ReadEnd lists, but it can be done in the same pass
+                // over the input
+                if (PROGRAM_RECORD_ID != null) {
+                    // Gather all PG IDs seen in merged input files in first pass.  These are gathered for two reasons:
+                    // - to know how many different PG records to create to represent this program invocation.
+                    // - to know what PG IDs are already used to avoid collisions when creating new ones.
+                    // Note that if there are one or more records that do not have a PG tag, then a null value
+                    // will be stored in this set.
+                    pgIdsSeen.add(rec.getStringAttribute(SAMTag.PG.name()));
+                }
 
-            // This doesn't have anything to do with building sorted ReadEnd lists, but it can be done in the same pass
-            // over the input
-            if (PROGRAM_RECORD_ID != null) {
-                // Gather all PG IDs seen in merged input files in first pass.  These are gathered for two reasons:
-                // - to know how many different PG records to create to represent this program invocation.
-                // - to know what PG IDs are already used to avoid collisions when creating new ones.
-                // Note that if there are one or more records that do not have a PG tag, then a null value
-                // will be stored in this set.
-                pgIdsSeen.add(rec.getStringAttribute(SAMTag.PG.name()));
-            }
+                // If working in query-sorted, need to keep index of first record with any given query-name.
+                if(assumedSortOrder == SAMFileHeader.SortOrder.queryname && !rec.getReadName().equals(duplicateQueryName)) {
+                    duplicateQueryName  = rec.getReadName();
+                    duplicateIndex      = index;
+                }
 
-            // If working in query-sorted, need to keep index of first record with any given query-name.
-            if(assumedSortOrder == SAMFileHeader.SortOrder.queryname && !rec.getReadName().equals(duplicateQueryName)) {
-                duplicateQueryName  = rec.getReadName();
-                duplicateIndex      = index;
-            }
+                if (rec.getReadUnmappedFlag()) {
+                    if (rec.getReferenceIndex() == -1 && assumedSortOrder == SAMFileHeader.SortOrder.coordinate) {
+                        // When we hit the unmapped reads with no coordinate, no reason to continue (only in coordinate sort).
+                        break;
+                    }
+                    // If this read is unmapped but sorted with the mapped reads, just skip it.
 
-            if (rec.getReadUnmappedFlag()) {
-                if (rec.getReferenceIndex() == -1 && assumedSortOrder == SAMFileHeader.SortOrder.coordinate) {
-                    // When we hit the unmapped reads with no coordinate, no reason to continue (only in coordinate sort).
-                    break;
-                }
-                // If this read is unmapped but sorted with the mapped reads, just skip it.
-
-            } else if (!rec.isSecondaryOrSupplementary()) {
-                final long indexForRead = assumedSortOrder == SAMFileHeader.SortOrder.queryname ? duplicateIndex : index;
-                final ReadEndsForMarkDuplicates fragmentEnd = buildReadEnds(header, indexForRead, rec, useBarcodes);
-                this.fragSort.add(fragmentEnd);
-
-                if (rec.getReadPairedFlag() && !rec.getMateUnmappedFlag()) {
-                    final String key = rec.getAttribute(ReservedTagConstants.READ_GROUP_ID) + ":" + rec.getReadName();
-                    ReadEndsForMarkDuplicates pairedEnds = tmp.remove(rec.getReferenceIndex(), key);
-
-                    // See if we've already seen the first end or not
-                    if (pairedEnds == null) {
-                        // at this point pairedEnds and fragmentEnd are the same, but we need to make
-                        // a copy since pairedEnds will be modified when the mate comes along.
-                        pairedEnds = fragmentEnd.clone();
-                        tmp.put(pairedEnds.read2ReferenceIndex, key, pairedEnds);
+                } else if (!rec.isSecondaryOrSupplementary()) {
+                    final long indexForRead = assumedSortOrder == SAMFileHeader.SortOrder.queryname ? duplicateIndex : index;
+                    if (executor == null) {
+                        final ReadEndsForMarkDuplicates fragmentEnd = buildReadEnds(header, indexForRead, rec, useBarcodes, this.opticalDuplicateFinder);
+                        addReadEnds(rec, indexForRead, fragmentEnd, tmp, useBarcodes);
                     } else {
-                        final int matesRefIndex = fragmentEnd.read1ReferenceIndex;
-                        final int matesCoordinate = fragmentEnd.read1Coordinate;
-
-                        // Set orientationForOpticalDuplicates, which always goes by the first then the second end for the strands.  NB: must do this
-                        // before updating the orientation later.
-                        if (rec.getFirstOfPairFlag()) {
-                            pairedEnds.orientationForOpticalDuplicates = ReadEnds.getOrientationByte(rec.getReadNegativeStrandFlag(), pairedEnds.orientation == ReadEnds.R);
-                            if (useBarcodes)
-                                ((ReadEndsForMarkDuplicatesWithBarcodes) pairedEnds).readOneBarcode = getReadOneBarcodeValue(rec);
-                        } else {
-                            pairedEnds.orientationForOpticalDuplicates = ReadEnds.getOrientationByte(pairedEnds.orientation == ReadEnds.R, rec.getReadNegativeStrandFlag());
-                            if (useBarcodes)
-                                ((ReadEndsForMarkDuplicatesWithBarcodes) pairedEnds).readTwoBarcode = getReadTwoBarcodeValue(rec);
-                        }
+                        batch.add(new RecordAndReadEnds(rec, indexForRead));
+                    }
+                }
 
-                        // If the other read is actually later, simply add the other read's data as read2, else flip the reads
-                        if (matesRefIndex > pairedEnds.read1ReferenceIndex ||
-                                (matesRefIndex == pairedEnds.read1ReferenceIndex && matesCoordinate >= pairedEnds.read1Coordinate)) {
-                            pairedEnds.read2ReferenceIndex = matesRefIndex;
-                            pairedEnds.read2Coordinate = matesCoordinate;
-                            pairedEnds.read2IndexInFile = indexForRead;
-                            pairedEnds.orientation = ReadEnds.getOrientationByte(pairedEnds.orientation == ReadEnds.R,
-                                    rec.getReadNegativeStrandFlag());
-
-                            // if the two read ends are in the same position, pointing in opposite directions,
-                            // the orientation is undefined and the procedure above
-                            // will depend on the order of the reads in the file.
-                            // To avoid this, we set it explicitly (to FR):
-                            if (pairedEnds.read2ReferenceIndex == pairedEnds.read1ReferenceIndex &&
-                                    pairedEnds.read2Coordinate == pairedEnds.read1Coordinate &&
-                                    pairedEnds.orientation == ReadEnds.RF) {
-                                        pairedEnds.orientation = ReadEnds.FR;
-                                    }
-                        } else {
-                            pairedEnds.read2ReferenceIndex = pairedEnds.read1ReferenceIndex;
-                            pairedEnds.read2Coordinate = pairedEnds.read1Coordinate;
-                            pairedEnds.read2IndexInFile = pairedEnds.read1IndexInFile;
-                            pairedEnds.read1ReferenceIndex = matesRefIndex;
-                            pairedEnds.read1Coordinate = matesCoordinate;
-                            pairedEnds.read1IndexInFile = indexForRead;
-                            pairedEnds.orientation = ReadEnds.getOrientationByte(rec.getReadNegativeStrandFlag(),
-                                    pairedEnds.orientation == ReadEnds.R);
-                        }
+                // Print out some stats every 1m reads
+                ++index;
+                if (progress.record(rec)) {
+                    log.info("Tracking " + tmp.size() + " as yet unmatched pairs. " + tmp.sizeInRam() + " records in RAM.");
+                }
 
-                        pairedEnds.score += DuplicateScoringStrategy.computeDuplicateScore(rec, this.DUPLICATE_SCORING_STRATEGY);
-                        this.pairSort.add(pairedEnds);
+                if (batch.size() >= readEndsBatchSize) {
+                    pendingBatches.add(submitReadEndsBatch(executor, batch, header, useBarcodes, readNameParsers));
+                    batch = new ArrayList<>();
+                    // Bound the number of records held in memory while waiting for the oldest batch to complete
+                    while (pendingBatches.size() > 2 * NUM_THREADS) {
+                        addReadEndsBatch(pendingBatches.poll(), tmp, useBarcodes);
                     }
                 }
             }
 
-            // Print out some stats every 1m reads
-            ++index;
-            if (progress.record(rec)) {
-                log.info("Tracking " + tmp.size() + " as yet unmatched pairs. " + tmp.sizeInRam() + " records in RAM.");
+            if (executor != null) {
+                if (!batch.isEmpty()) {
+                    pendingBatches.add(submitReadEndsBatch(executor, batch, header, useBarcodes, readNameParsers));
+                }
+                while (!pendingBatches.isEmpty()) {
+                    addReadEndsBatch(pendingBatches.poll(), tmp, useBarcodes);
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
         }
 
@@ -599,8 +634,130 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
         this.fragSort.doneAdding();
     }
 
-    /** Builds a read ends object that represents a single read. */
-    private ReadEndsForMarkDuplicates buildReadEnds(final SAMFileHeader header, final long index, final SAMRecord rec, final boolean useBarcodes) {
+    /** Little class used to hand a record, and the read ends built from it, between threads. */
+    private static final class RecordAndReadEnds {
+        final SAMRecord rec;
+        final long indexForRead;
+        ReadEndsForMarkDuplicates fragmentEnd;
+
+        RecordAndReadEnds(final SAMRecord rec, final long indexForRead) {
+            this.rec = rec;
+            this.indexForRead = indexForRead;
+        }
+    }
+
+    /** Submits a batch of records to the executor, which will build the fragment read ends for each of them. */
+    private Future<List<RecordAndReadEnds>> submitReadEndsBatch(final ExecutorService executor,
+                                                                final List<RecordAndReadEnds> batch,
+                                                                final SAMFileHeader header,
+                                                                final boolean useBarcodes,
+                                                                final ThreadLocal<ReadNameParser> readNameParsers) {
+        return executor.submit(() -> {
+            final ReadNameParser readNameParser = readNameParsers.get();
+            for (final RecordAndReadEnds recordAndReadEnds : batch) {
+                recordAndReadEnds.fragmentEnd = buildReadEnds(header, recordAndReadEnds.indexForRead, recordAndReadEnds.rec, useBarcodes, readNameParser);
+            }
+            return batch;
+        });
+    }
+
+    /** Waits for a batch submitted by submitReadEndsBatch to complete and adds its read ends in input order. */
+    private void addReadEndsBatch(final Future<List<RecordAndReadEnds>> pendingBatch,
+                                  final ReadEndsForMarkDuplicatesMap tmp,
+                                  final boolean useBarcodes) {
+        final List<RecordAndReadEnds> batch;
+        try {
+            batch = pendingBatch.get();
+        } catch (final InterruptedException | ExecutionException e) {
+            throw new PicardException("Failed to build read ends", e);
+        }
+        for (final RecordAndReadEnds recordAndReadEnds : batch) {
+            addReadEnds(recordAndReadEnds.rec, recordAndReadEnds.indexForRead, recordAndReadEnds.fragmentEnd, tmp, useBarcodes);
+        }
+    }
+
+    /**
+     * Adds the fragment read ends for a record to the fragment sorting collection, and either holds on to it until
+     * its mate is seen or, if the mate has already been seen, completes the pair and adds it to the pair sorting
+     * collection.  Records must be presented in input order.
+     */
+    private void addReadEnds(final SAMRecord rec,
+                             final long indexForRead,
+                             final ReadEndsForMarkDuplicates fragmentEnd,
+                             final ReadEndsForMarkDuplicatesMap tmp,
+                             final boolean useBarcodes) {
+        // Library IDs are handed out in the order in which libraries are encountered, so are filled in here
+        fragmentEnd.libraryId = libraryIdGenerator.getLibraryId(rec);
+        this.fragSort.add(fragmentEnd);
+
+        if (rec.getReadPairedFlag() && !rec.getMateUnmappedFlag()) {
+            final String key = rec.getAttribute(ReservedTagConstants.READ_GROUP_ID) + ":" + rec.getReadName();
+            ReadEndsForMarkDuplicates pairedEnds = tmp.remove(rec.getReferenceIndex(), key);
+
+            // See if we've already seen the first end or not
+            if (pairedEnds == null) {
+                // at this point pairedEnds and fragmentEnd are the same, but we need to make
+                // a copy since pairedEnds will be modified when the mate comes along.
+                pairedEnds = fragmentEnd.clone();
+                tmp.put(pairedEnds.read2ReferenceIndex, key, pairedEnds);
+            } else {
+                final int matesRefIndex = fragmentEnd.read1ReferenceIndex;
+                final int matesCoordinate = fragmentEnd.read1Coordinate;
+
+                // Set orientationForOpticalDuplicates, which always goes by the first then the second end for the strands.  NB: must do this
+                // before updating the orientation later.
+                if (rec.getFirstOfPairFlag()) {
+                    pairedEnds.orientationForOpticalDuplicates = ReadEnds.getOrientationByte(rec.getReadNegativeStrandFlag(), pairedEnds.orientation == ReadEnds.R);
+                    if (useBarcodes)
+                        ((ReadEndsForMarkDuplicatesWithBarcodes) pairedEnds).readOneBarcode = getReadOneBarcodeValue(rec);
+                } else {
+                    pairedEnds.orientationForOpticalDuplicates = ReadEnds.getOrientationByte(pairedEnds.orientation == ReadEnds.R, rec.getReadNegativeStrandFlag());
+                    if (useBarcodes)
+                        ((ReadEndsForMarkDuplicatesWithBarcodes) pairedEnds).readTwoBarcode = getReadTwoBarcodeValue(rec);
+                }
+
+                // If the other read is actually later, simply add the other read's data as read2, else flip the reads
+                if (matesRefIndex > pairedEnds.read1ReferenceIndex ||
+                        (matesRefIndex == pairedEnds.read1ReferenceIndex && matesCoordinate >= pairedEnds.read1Coordinate)) {
+                    pairedEnds.read2ReferenceIndex = matesRefIndex;
+                    pairedEnds.read2Coordinate = matesCoordinate;
+                    pairedEnds.read2IndexInFile = indexForRead;
+                    pairedEnds.orientation = ReadEnds.getOrientationByte(pairedEnds.orientation == ReadEnds.R,
+                            rec.getReadNegativeStrandFlag());
+
+                    // if the two read ends are in the same position, pointing in opposite directions,
+                    // the orientation is undefined and the procedure above
+                    // will depend on the order of the reads in the file.
+                    // To avoid this, we set it explicitly (to FR):
+                    if (pairedEnds.read2ReferenceIndex == pairedEnds.read1ReferenceIndex &&
+                            pairedEnds.read2Coordinate == pairedEnds.read1Coordinate &&
+                            pairedEnds.orientation == ReadEnds.RF) {
+                                pairedEnds.orientation = ReadEnds.FR;
+                            }
+                } else {
+                    pairedEnds.read2ReferenceIndex = pairedEnds.read1ReferenceIndex;
+                    pairedEnds.read2Coordinate = pairedEnds.read1Coordinate;
+                    pairedEnds.read2IndexInFile = pairedEnds.read1IndexInFile;
+                    pairedEnds.read1ReferenceIndex = matesRefIndex;
+                    pairedEnds.read1Coordinate = matesCoordinate;
+                    pairedEnds.read1IndexInFile = indexForRead;
+                    pairedEnds.orientation = ReadEnds.getOrientationByte(rec.getReadNegativeStrandFlag(),
+                            pairedEnds.orientation == ReadEnds.R);
+                }
+
+                // the fragment's score is the duplicate score of this record
+                pairedEnds.score += fragmentEnd.score;
+                this.pairSort.add(pairedEnds);
+            }
+        }
+    }
+
+    /**
+     * Builds a read ends object that represents a single read.  The library ID is not filled in, so that this may be
+     * called from multiple threads as long as each is given its own ReadNameParser.
+     */
+    private ReadEndsForMarkDuplicates buildReadEnds(final SAMFileHeader header, final long index, final SAMRecord rec, final boolean useBarcodes,
+                                                    final ReadNameParser readNameParser) {
         final ReadEndsForMarkDuplicates ends;
 
         if (useBarcodes) {
@@ -619,11 +776,8 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
             ends.read2ReferenceIndex = rec.getMateReferenceIndex();
         }
 
-        // Fill in the library ID
-        ends.libraryId = libraryIdGenerator.getLibraryId(rec);
-
         // Fill in the location information for optical duplicates
-        if (this.opticalDuplicateFinder.addLocationInformation(rec.getReadName(), ends)) {
+        if (readNameParser.addLocationInformation(rec.getReadName(), ends)) {
             // calculate the RG number (nth in list)
             ends.readGroup = 0;
             final String rg = (String) rec.getAttribute(ReservedTagConstants.READ_GROUP_ID);
@@ -669,10 +823,12 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
         // If we're also tracking optical duplicates, reduce maxInMemory, since we'll need two sorting collections
         if (indexOpticalDuplicates) {
             maxInMemory /= ((entryOverhead + SortingLongCollection.SIZEOF) / entryOverhead);
-            this.opticalDuplicateIndexes = new SortingLongCollection(maxInMemory, TMP_DIR.toArray(new File[TMP_DIR.size()]));
+            this.opticalDuplicateIndexes = makeDuplicateIndexCollection(maxInMemory);
+        }
+        if (!USE_DUPLICATE_INDEX_BITMAP) {
+            log.info("Will retain up to " + maxInMemory + " duplicate indices before spilling to disk.");
         }
-        log.info("Will retain up to " + maxInMemory + " duplicate indices before spilling to disk.");
-        this.duplicateIndexes = new SortingLongCollection(maxInMemory, TMP_DIR.toArray(new File[TMP_DIR.size()]));
+        this.duplicateIndexes = makeDuplicateIndexCollection(maxInMemory);
         if (TAG_DUPLICATE_SET_MEMBERS) {
             final RepresentativeReadIndexerCodec representativeIndexCodec = new RepresentativeReadIndexerCodec();
             this.representativeReadIndicesForDuplicates = SortingCollection.newInstance(RepresentativeReadIndexer.class,
@@ -684,28 +840,32 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
 
         ReadEndsForMarkDuplicates firstOfNextChunk = null;
         final List<ReadEndsForMarkDuplicates> nextChunk = new ArrayList<>(200);
+        final ParallelPairResolver parallelPairResolver = NUM_THREADS > 1 ? new ParallelPairResolver() : null;
 
         // First just do the pairs
         log.info("Traversing read pair information and detecting duplicates.");
-        for (final ReadEndsForMarkDuplicates next : this.pairSort) {
-            if (firstOfNextChunk != null && areComparableForDuplicates(firstOfNextChunk, next, true, useBarcodes)) {
-                nextChunk.add(next);
-            } else {
-                if (nextChunk.size() > 1) {
-                    markDuplicatePairs(nextChunk);
-                    if (TAG_DUPLICATE_SET_MEMBERS) {
-                        addRepresentativeReadIndex(nextChunk);
+        try {
+            for (final ReadEndsForMarkDuplicates next : this.pairSort) {
+                if (firstOfNextChunk != null && areComparableForDuplicates(firstOfNextChunk, next, true, useBarcodes)) {
+                    nextChunk.add(next);
+                } else {
+                    if (nextChunk.size() > 1) {
+                        handleDuplicatePairs(nextChunk, parallelPairResolver);
                     }
+                    nextChunk.clear();
+                    nextChunk.add(next);
+                    firstOfNextChunk = next;
                 }
-                nextChunk.clear();
-                nextChunk.add(next);
-                firstOfNextChunk = next;
             }
-        }
-        if (nextChunk.size() > 1) {
-            markDuplicatePairs(nextChunk);
-            if (TAG_DUPLICATE_SET_MEMBERS) {
-                addRepresentativeReadIndex(nextChunk);
+            if (nextChunk.size() > 1) {
+                handleDuplicatePairs(nextChunk, parallelPairResolver);
+            }
+            if (parallelPairResolver != null) {
+                parallelPairResolver.finish();
+            }
+        } finally {
+            if (parallelPairResolver != null) {
+                parallelPairResolver.close();
             }
         }
         this.pairSort.cleanup();
@@ -748,6 +908,14 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
         }
     }
 
+    private DuplicateIndexCollection makeDuplicateIndexCollection(final int maxInMemory) {
+        if (USE_DUPLICATE_INDEX_BITMAP) {
+            return new BitmapDuplicateIndexCollection();
+        } else {
+            return new DiskBasedDuplicateIndexCollection(maxInMemory, TMP_DIR);
+        }
+    }
+
     private boolean areComparableForDuplicates(final ReadEndsForMarkDuplicates lhs, final ReadEndsForMarkDuplicates rhs, final boolean compareRead2, final boolean useBarcodes) {
         boolean areComparable = lhs.libraryId == rhs.libraryId;
 
@@ -814,6 +982,94 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
     }
 
 
+    /**
+     * Marks the duplicates within a set of pairs, either immediately or, if a ParallelPairResolver is given, by
+     * handing a copy of the set to it.
+     */
+    private void handleDuplicatePairs(final List<ReadEndsForMarkDuplicates> list, final ParallelPairResolver parallelPairResolver) {
+        if (parallelPairResolver != null) {
+            parallelPairResolver.add(new ArrayList<>(list));
+        } else {
+            markDuplicatePairs(list);
+            if (TAG_DUPLICATE_SET_MEMBERS) {
+                addRepresentativeReadIndex(list);
+            }
+        }
+    }
+
+    /**
+     * Resolves sets of duplicate pairs on a pool of worker threads.  Choosing the best pair and finding optical
+     * duplicates (which can be expensive for large sets) happens on the workers, with optical duplicates counted in a
+     * histogram per batch; the results are then merged back in their original order on the calling thread, which is
+     * the only one to touch the duplicate index collections.
+     */
+    private final class ParallelPairResolver {
+        private final ExecutorService executor = new ThreadPoolExecutorWithExceptions(NUM_THREADS);
+        private final Deque<Future<PairBatch>> pendingBatches = new ArrayDeque<>();
+        private PairBatch batch = new PairBatch();
+
+        void add(final List<ReadEndsForMarkDuplicates> list) {
+            batch.sets.add(list);
+            batch.numReadEnds += list.size();
+            if (batch.numReadEnds >= readEndsBatchSize) {
+                submit();
+                // Bound the number of read ends held in memory while waiting for the oldest batch to complete
+                while (pendingBatches.size() > 2 * NUM_THREADS) {
+                    merge(pendingBatches.poll());
+                }
+            }
+        }
+
+        void finish() {
+            if (!batch.sets.isEmpty()) {
+                submit();
+            }
+            while (!pendingBatches.isEmpty()) {
+                merge(pendingBatches.poll());
+            }
+        }
+
+        /** Stops the worker threads, abandoning any batches that have not been merged. */
+        void close() {
+            executor.shutdownNow();
+        }
+
+        private void submit() {
+            final PairBatch submitted = batch;
+            pendingBatches.add(executor.submit(() -> {
+                for (final List<ReadEndsForMarkDuplicates> list : submitted.sets) {
+                    submitted.bests.add(findBestPairAndTrackOpticalDuplicates(list, submitted.opticalDuplicatesByLibraryId));
+                }
+                return submitted;
+            }));
+            batch = new PairBatch();
+        }
+
+        private void merge(final Future<PairBatch> pendingBatch) {
+            final PairBatch resolved;
+            try {
+                resolved = pendingBatch.get();
+            } catch (final InterruptedException | ExecutionException e) {
+                throw new PicardException("Failed to resolve duplicate pairs", e);
+            }
+            libraryIdGenerator.getOpticalDuplicatesByLibraryIdMap().addHistogram(resolved.opticalDuplicatesByLibraryId);
+            for (int i = 0; i < resolved.sets.size(); ++i) {
+                addDuplicatePairIndexes(resolved.sets.get(i), resolved.bests.get(i));
+                if (TAG_DUPLICATE_SET_MEMBERS) {
+                    addRepresentativeReadIndex(resolved.sets.get(i));
+                }
+            }
+        }
+    }
+
+    /** A batch of sets of duplicate pairs, and the results of resolving them. */
+    private static final class PairBatch {
+        final List<List<ReadEndsForMarkDuplicates>> sets = new ArrayList<>();
+        final List<ReadEndsForMarkDuplicates> bests = new ArrayList<>();
+        final Histogram<Short> opticalDuplicatesByLibraryId = new Histogram<>();
+        int numReadEnds = 0;
+    }
+
     /**
      * Takes a list of ReadEndsForMarkDuplicates objects and removes from it all objects that should
      * not be marked as duplicates.  This assumes that the list contains objects representing pairs.
@@ -821,6 +1077,17 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
      * @param list
      */
     private void markDuplicatePairs(final List<ReadEndsForMarkDuplicates> list) {
+        final ReadEndsForMarkDuplicates best = findBestPairAndTrackOpticalDuplicates(list, libraryIdGenerator.getOpticalDuplicatesByLibraryIdMap());
+        addDuplicatePairIndexes(list, best);
+    }
+
+    /**
+     * Chooses the pair in the list that is not to be marked as a duplicate and, if optical duplicate detection is
+     * enabled, flags the optical duplicates in the list and counts them in the given histogram.  Only touches the
+     * list and the histogram, so may be called from any thread.
+     */
+    private ReadEndsForMarkDuplicates findBestPairAndTrackOpticalDuplicates(final List<ReadEndsForMarkDuplicates> list,
+                                                                            final Histogram<Short> opticalDuplicatesByLibraryId) {
         short maxScore = 0;
         ReadEndsForMarkDuplicates best = null;
 
@@ -833,9 +1100,14 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
         }
 
         if (this.READ_NAME_REGEX != null) {
-            AbstractMarkDuplicatesCommandLineProgram.trackOpticalDuplicates(list, best, opticalDuplicateFinder, libraryIdGenerator);
+            AbstractMarkDuplicatesCommandLineProgram.trackOpticalDuplicates(list, best, opticalDuplicateFinder, opticalDuplicatesByLibraryId);
         }
 
+        return best;
+    }
+
+    /** Adds the indexes of all but the best pair in the list as duplicates (and optical duplicates if flagged). */
+    private void addDuplicatePairIndexes(final List<ReadEndsForMarkDuplicates> list, final ReadEndsForMarkDuplicates best) {
         for (final ReadEndsForMarkDuplicates end : list) {
             if (end != best) {
                 addIndexAsDuplicate(end.read1IndexInFile);
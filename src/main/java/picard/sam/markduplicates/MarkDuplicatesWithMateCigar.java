@@ -108,6 +108,12 @@ public class MarkDuplicatesWithMateCigar extends AbstractMarkDuplicatesCommandLi
     @Argument(doc = "The block size for use in the coordinate-sorted record buffer.", optional = true)
     public int BLOCK_SIZE = 100000;
 
+    @Argument(doc = "The maximum number of read pair physical locations to hold in memory for optical duplicate detection.  " +
+            "The number of locations grows with the depth of coverage, so beyond this the locations for the earliest " +
+            "potential duplicates are spilled to a file in TMP_DIR.  This bounds only the locations, not the reads themselves " +
+            "(see MAX_RECORDS_IN_RAM): each location takes about 150 bytes, so the default bounds them to about 150MB.", optional = true)
+    public int MAX_OPTICAL_DUPLICATE_LOCATIONS_IN_RAM = 1000000;
+
     /** Warnings that will only be emitted once */
     private boolean warnedNullProgramRecords = false;
     private boolean warnedMissingProgramRecords = false;
@@ -158,6 +164,7 @@ public class MarkDuplicatesWithMateCigar extends AbstractMarkDuplicatesCommandLi
                 this.REMOVE_DUPLICATES,
                 this.SKIP_PAIRS_WITH_NO_MATE_CIGAR,
                 this.MAX_RECORDS_IN_RAM,
+                this.MAX_OPTICAL_DUPLICATE_LOCATIONS_IN_RAM,
                 this.BLOCK_SIZE,
                 this.TMP_DIR);
 
@@ -123,6 +123,37 @@ public class MarkDuplicatesWithMateCigarIterator implements SAMRecordIterator {
                                                final int maxRecordsInRam,
                                                final int blockSize,
                                                final List<File> tmpDirs) throws PicardException {
+        this(header, iterator, opticalDuplicateFinder, duplicateScoringStrategy, toMarkQueueMinimumDistance, removeDuplicates,
+                skipPairsWithNoMateCigar, maxRecordsInRam, Integer.MAX_VALUE, blockSize, tmpDirs);
+    }
+
+    /**
+     * Initializes the mark duplicates iterator.
+     *
+     * @param header                     the SAM header
+     * @param iterator                   an iterator over the SAM records to consider
+     * @param opticalDuplicateFinder     the algorithm for optical duplicate detection
+     * @param duplicateScoringStrategy   the scoring strategy for choosing duplicates.  This cannot be SUM_OF_BASE_QUALITIES.
+     * @param toMarkQueueMinimumDistance minimum distance for which to buffer
+     * @param removeDuplicates           true to remove duplicates, false to mark duplicates
+     * @param skipPairsWithNoMateCigar   true to not return mapped pairs with no mate cigar, false otherwise
+     * @param maxRecordsInRam            the maximum number of records to hold in memory in the output buffer
+     * @param maxLocationsInRam          the maximum number of physical locations for optical duplicate detection to hold in memory
+     * @param blockSize                  the size of the blocks in the underlying buffer/queue
+     * @param tmpDirs                    the temporary directories to use if we spill records or physical locations to disk
+     * @throws PicardException if the inputs are not in coordinate sort order
+     */
+    public MarkDuplicatesWithMateCigarIterator(final SAMFileHeader header,
+                                               final CloseableIterator<SAMRecord> iterator,
+                                               final OpticalDuplicateFinder opticalDuplicateFinder,
+                                               final ScoringStrategy duplicateScoringStrategy,
+                                               final int toMarkQueueMinimumDistance,
+                                               final boolean removeDuplicates,
+                                               final boolean skipPairsWithNoMateCigar,
+                                               final int maxRecordsInRam,
+                                               final int maxLocationsInRam,
+                                               final int blockSize,
+                                               final List<File> tmpDirs) throws PicardException {
         if (header.getSortOrder() != SAMFileHeader.SortOrder.coordinate) {
             throw new PicardException(getClass().getName() + " expects the input to be in coordinate sort order.");
         }
@@ -134,7 +165,7 @@ public class MarkDuplicatesWithMateCigarIterator implements SAMRecordIterator {
         this.removeDuplicates = removeDuplicates;
         this.skipPairsWithNoMateCigar = skipPairsWithNoMateCigar;
         this.opticalDuplicateFinder = opticalDuplicateFinder;
-        toMarkQueue = new MarkQueue(duplicateScoringStrategy);
+        toMarkQueue = new MarkQueue(duplicateScoringStrategy, maxLocationsInRam, tmpDirs);
         libraryIdGenerator = new LibraryIdGenerator(header);
 
         // Check for supported scoring strategies
@@ -166,7 +197,8 @@ public class MarkDuplicatesWithMateCigarIterator implements SAMRecordIterator {
                 "; totalMemory: " + runtime.totalMemory() +
                 "; maxMemory: " + runtime.maxMemory() +
                 "; output buffer size: " + outputBuffer.size() +
-                "; duplicate queue size: " + toMarkQueue.size()
+                "; duplicate queue size: " + toMarkQueue.size() +
+                "; optical duplicate locations in memory: " + toMarkQueue.getNumLocationsInRam()
         );
     }
 
@@ -476,6 +508,7 @@ public class MarkDuplicatesWithMateCigarIterator implements SAMRecordIterator {
         // close the input and output
         backingIterator.close();
         outputBuffer.close();
+        toMarkQueue.close();
         isClosed = true;
     }
 
@@ -593,12 +626,14 @@ public class MarkDuplicatesWithMateCigarIterator implements SAMRecordIterator {
 
             // track optical duplicates using only those reads that are the first end...
             if (toMarkQueue.shouldBeInLocations(next) && next.getRecord().getFirstOfPairFlag()) {
-                final Set<ReadEnds> locations = toMarkQueue.getLocations(next);
+                final Collection<ReadEnds> locations = toMarkQueue.getLocations(next);
 
                 if (!locations.isEmpty()) {
                     AbstractMarkDuplicatesCommandLineProgram.trackOpticalDuplicates(new ArrayList<ReadEnds>(locations), null,
                             opticalDuplicateFinder, libraryIdGenerator);
                 }
+            } else {
+                toMarkQueue.discardLocations(next);
             }
             // NB: we could try to greedily return a record if one is available here.  Instead we continue processing the mark queue */
         }
@@ -48,6 +48,10 @@ import static java.util.stream.Collectors.counting;
  * are 1 Hamming distance so they are joined.  Because A and B are joined and because B and C are joined, this results
  * in A and C being joined even though they have a distance of 2.
  *
+ * To avoid comparing all pairs of UMIs in large sets, candidate pairs are found with a pigeonhole index: if UMIs are
+ * split into maxEditDistanceToJoin + 1 segments, any two UMIs within maxEditDistanceToJoin must share at least one
+ * segment exactly, so only UMIs that share a segment need to be compared.
+ *
  * @author fleharty
  */
 public class UmiGraph {
@@ -96,13 +100,12 @@ public class UmiGraph {
         // Compare all UMIs to each other.  If they are within maxEditDistanceToJoin
         // join them to the same duplicate set using the union-find algorithm.
 
+        final int[][] neighbors = findNeighbors(umi, maxEditDistanceToJoin);
         GraphUtils.Graph<Integer> umiGraph = new GraphUtils.Graph<>();
         for (int i = 0; i < numUmis; i++) {
             umiGraph.addNode(i);
-            for (int j = i + 1; j < numUmis; j++) {
-                if (StringUtil.isWithinHammingDistance(umi[i], umi[j], maxEditDistanceToJoin)) {
-                    umiGraph.addEdge(i, j);
-                }
+            for (final int j : neighbors[i]) {
+                umiGraph.addEdge(i, j);
             }
         }
 
@@ -189,6 +192,67 @@ public class UmiGraph {
         return duplicateSetList;
     }
 
+    /**
+     * Finds, for each UMI, the UMIs that come after it which are within maxEditDistanceToJoin of it.
+     *
+     * @return for each UMI index i, the indexes j > i, in ascending order, of the UMIs within maxEditDistanceToJoin
+     */
+    static int[][] findNeighbors(final String[] umis, final int maxEditDistanceToJoin) {
+        final int numSegments = maxEditDistanceToJoin + 1;
+        final int umiLength = umis.length == 0 ? 0 : umis[0].length();
+        final boolean canUseIndex = maxEditDistanceToJoin >= 0 && umiLength >= numSegments &&
+                Arrays.stream(umis).allMatch(u -> u.length() == umiLength);
+
+        final int[][] neighbors = new int[umis.length][];
+        if (!canUseIndex) {
+            // Compare all pairs, which also reports UMIs of differing lengths
+            for (int i = 0; i < umis.length; i++) {
+                final int first = i;
+                neighbors[i] = IntStream.range(i + 1, umis.length)
+                        .filter(j -> StringUtil.isWithinHammingDistance(umis[first], umis[j], maxEditDistanceToJoin))
+                        .toArray();
+            }
+            return neighbors;
+        }
+
+        // Index the UMIs by each of their segments
+        final List<Map<String, List<Integer>>> segmentIndex = new ArrayList<>(numSegments);
+        for (int s = 0; s < numSegments; s++) {
+            final Map<String, List<Integer>> umisBySegment = new HashMap<>();
+            for (int i = 0; i < umis.length; i++) {
+                umisBySegment.computeIfAbsent(segment(umis[i], s, numSegments), k -> new ArrayList<>()).add(i);
+            }
+            segmentIndex.add(umisBySegment);
+        }
+
+        // Only compare UMIs that share a segment
+        final int[] lastCandidateOf = new int[umis.length];
+        Arrays.fill(lastCandidateOf, -1);
+        for (int i = 0; i < umis.length; i++) {
+            final List<Integer> candidates = new ArrayList<>();
+            for (int s = 0; s < numSegments; s++) {
+                for (final int j : segmentIndex.get(s).get(segment(umis[i], s, numSegments))) {
+                    if (j > i && lastCandidateOf[j] != i) {
+                        lastCandidateOf[j] = i;
+                        candidates.add(j);
+                    }
+                }
+            }
+            final int first = i;
+            neighbors[i] = candidates.stream()
+                    .mapToInt(Integer::intValue)
+                    .filter(j -> StringUtil.isWithinHammingDistance(umis[first], umis[j], maxEditDistanceToJoin))
+                    .sorted()
+                    .toArray();
+        }
+        return neighbors;
+    }
+
+    /** Returns the given segment of a UMI split into numSegments segments of as near equal length as possible. */
+    private static String segment(final String umi, final int segment, final int numSegments) {
+        return umi.substring(segment * umi.length() / numSegments, (segment + 1) * umi.length() / numSegments);
+    }
+
     // Create a map that maps a umi to the duplicateSetID
     private Map<String, Integer> getDuplicateSetsFromUmis() {
         final Map<String, Integer> duplicateSetsFromUmis = new HashMap<>();
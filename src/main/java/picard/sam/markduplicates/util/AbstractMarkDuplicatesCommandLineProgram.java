@@ -207,11 +207,22 @@ public abstract class AbstractMarkDuplicatesCommandLineProgram extends AbstractO
      * and checking of the inputs.
      */
     protected SamHeaderAndIterator openInputs(boolean eagerlyDecode) {
+        return openInputs(eagerlyDecode, false);
+    }
+
+    /**
+     * As {@link #openInputs(boolean)}, but if useAsyncIo is true the inputs are read and decompressed
+     * on a separate thread.
+     */
+    protected SamHeaderAndIterator openInputs(final boolean eagerlyDecode, final boolean useAsyncIo) {
         final List<SAMFileHeader> headers = new ArrayList<>(INPUT.size());
         final List<SamReader> readers = new ArrayList<>(INPUT.size());
 
         for (final String input : INPUT) {
             SamReaderFactory readerFactory = SamReaderFactory.makeDefault();
+            if (useAsyncIo) {
+                readerFactory.setUseAsyncIo(true);
+            }
             SamReader reader = eagerlyDecode ? readerFactory.enable(SamReaderFactory.Option.EAGERLY_DECODE).open(SamInputResource.of(input)) :
                     readerFactory.open(SamInputResource.of(input));
             final SAMFileHeader header = reader.getFileHeader();
@@ -248,6 +259,17 @@ public abstract class AbstractMarkDuplicatesCommandLineProgram extends AbstractO
                                               final ReadEnds keeper,
                                               final OpticalDuplicateFinder opticalDuplicateFinder,
                                               final LibraryIdGenerator libraryIdGenerator) {
+        trackOpticalDuplicates(ends, keeper, opticalDuplicateFinder, libraryIdGenerator.getOpticalDuplicatesByLibraryIdMap());
+    }
+
+    /**
+     * As above, but counts the optical duplicates in the given histogram (keyed by library ID) rather than that of a
+     * LibraryIdGenerator, so that duplicate sets may be examined on several threads and the counts merged afterwards.
+     */
+    public static void trackOpticalDuplicates(final List<? extends ReadEnds> ends,
+                                              final ReadEnds keeper,
+                                              final OpticalDuplicateFinder opticalDuplicateFinder,
+                                              final Histogram<Short> opticalDuplicatesByLibraryId) {
         boolean hasFR = false, hasRF = false;
 
         // Check to see if we have a mixture of FR/RF
@@ -277,10 +299,10 @@ public abstract class AbstractMarkDuplicatesCommandLineProgram extends AbstractO
             }
 
             // track the duplicates
-            trackOpticalDuplicates(trackOpticalDuplicatesF, keeper, opticalDuplicateFinder, libraryIdGenerator.getOpticalDuplicatesByLibraryIdMap());
-            trackOpticalDuplicates(trackOpticalDuplicatesR, keeper, opticalDuplicateFinder, libraryIdGenerator.getOpticalDuplicatesByLibraryIdMap());
+            trackOpticalDuplicatesWithSameOrientation(trackOpticalDuplicatesF, keeper, opticalDuplicateFinder, opticalDuplicatesByLibraryId);
+            trackOpticalDuplicatesWithSameOrientation(trackOpticalDuplicatesR, keeper, opticalDuplicateFinder, opticalDuplicatesByLibraryId);
         } else { // No need to partition
-            AbstractMarkDuplicatesCommandLineProgram.trackOpticalDuplicates(ends, keeper, opticalDuplicateFinder, libraryIdGenerator.getOpticalDuplicatesByLibraryIdMap());
+            trackOpticalDuplicatesWithSameOrientation(ends, keeper, opticalDuplicateFinder, opticalDuplicatesByLibraryId);
         }
     }
 
@@ -294,10 +316,10 @@ public abstract class AbstractMarkDuplicatesCommandLineProgram extends AbstractO
      * optical duplicate detection, we do not consider them duplicates if one read as FR and the other RF when we order orientation by the
      * first mate sequenced (read #1 of the pair).
      */
-    private static void trackOpticalDuplicates(final List<? extends ReadEnds> list,
-                                               final ReadEnds keeper,
-                                               final OpticalDuplicateFinder opticalDuplicateFinder,
-                                               final Histogram<Short> opticalDuplicatesByLibraryId) {
+    private static void trackOpticalDuplicatesWithSameOrientation(final List<? extends ReadEnds> list,
+                                                                  final ReadEnds keeper,
+                                                                  final OpticalDuplicateFinder opticalDuplicateFinder,
+                                                                  final Histogram<Short> opticalDuplicatesByLibraryId) {
         final boolean[] opticalDuplicateFlags = opticalDuplicateFinder.findOpticalDuplicates(list, keeper);
 
         int opticalDuplicates = 0;
@@ -58,9 +58,9 @@ public abstract class AbstractOpticalDuplicateFinderCommandLineProgram extends C
     public int OPTICAL_DUPLICATE_PIXEL_DISTANCE = OpticalDuplicateFinder.DEFAULT_OPTICAL_DUPLICATE_DISTANCE;
 
     @Argument(doc = "This number is the maximum size of a set of duplicate reads for which we will attempt to determine " +
-            "which are optical duplicates.  Please be aware that if you raise this value too high and do encounter a very " +
-            "large set of duplicate reads, it will severely affect the runtime of this tool.  To completely disable this check, " +
-            "set the value to -1.")
+            "which are optical duplicates.  Large sets are compared using a spatial index, so the runtime grows roughly " +
+            "linearly with the size of the set unless most of its reads are within OPTICAL_DUPLICATE_PIXEL_DISTANCE of " +
+            "one another.  To completely disable this check, set the value to -1.")
     public long MAX_OPTICAL_DUPLICATE_SET_SIZE = OpticalDuplicateFinder.DEFAULT_MAX_DUPLICATE_SET_SIZE;
 
     // The tool with which to find optical duplicates
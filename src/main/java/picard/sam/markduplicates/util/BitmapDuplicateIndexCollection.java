@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Memory-based implementation of DuplicateIndexCollection that holds the indexes in a compressed bitmap, in the
+ * style of a Roaring bitmap.  The index space is split into chunks of 2^16 consecutive indexes, and each chunk that
+ * holds any indexes is stored either as a sorted array of the low 16 bits of its indexes (when sparse) or as a
+ * 2^16 bit bitmap (when dense).  Nothing is ever spilled to disk, no sorting or merging is required before
+ * iteration, and membership can be tested directly with {@link #contains(long)}.  The cost is at most two bytes per
+ * index, and much less than that when duplicates are dense.
+ *
+ * Unlike the disk-based implementation, an index that is added more than once is only returned once by next().
+ */
+public class BitmapDuplicateIndexCollection implements DuplicateIndexCollection {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** Above this many entries a bitmap container (8kB) is smaller than an array container. */
+    private static final int MAX_ARRAY_CONTAINER_SIZE = 4096;
+
+    /** Index of this array is the chunk (index >>> CHUNK_BITS); null if the chunk holds no indexes. */
+    private Container[] containers = new Container[0];
+    private long size = 0;
+
+    private boolean iterating = false;
+    // The chunk and low bits from which to search for the index after nextIndex
+    private int iterationChunk;
+    private int iterationLowBits;
+    private long nextIndex;
+
+    @Override
+    public void add(final long index) {
+        if (iterating) {
+            throw new IllegalStateException("Cannot add to a collection once iteration has started.");
+        }
+        final int chunk = chunkOf(index);
+        if (chunk >= containers.length) {
+            containers = Arrays.copyOf(containers, Math.max(chunk + 1, 2 * containers.length));
+        }
+        if (containers[chunk] == null) {
+            containers[chunk] = new ArrayContainer();
+        }
+        if (containers[chunk].add((int) (index & CHUNK_MASK))) {
+            ++size;
+            if (containers[chunk] instanceof ArrayContainer && containers[chunk].cardinality() > MAX_ARRAY_CONTAINER_SIZE) {
+                containers[chunk] = ((ArrayContainer) containers[chunk]).toBitmapContainer();
+            }
+        }
+    }
+
+    /** @return true if the given index has been added to the collection. */
+    public boolean contains(final long index) {
+        if (index < 0) return false;
+        final long chunk = index >>> CHUNK_BITS;
+        return chunk < containers.length && containers[(int) chunk] != null && containers[(int) chunk].contains((int) (index & CHUNK_MASK));
+    }
+
+    /** @return the number of distinct indexes in the collection. */
+    public long size() { return size; }
+
+    @Override
+    public void doneAddingStartIteration() {
+        iterating = true;
+        iterationChunk = 0;
+        iterationLowBits = 0;
+        advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!iterating) {
+            throw new IllegalStateException("Cannot iterate before doneAddingStartIteration() is called.");
+        }
+        return nextIndex >= 0;
+    }
+
+    @Override
+    public long next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final long ret = nextIndex;
+        advance();
+        return ret;
+    }
+
+    @Override
+    public void cleanup() {
+        containers = new Container[0];
+        size = 0;
+        nextIndex = -1;
+    }
+
+    /** Finds the next index at or after the iteration position, and leaves the position just past it. */
+    private void advance() {
+        for (; iterationChunk < containers.length; ++iterationChunk, iterationLowBits = 0) {
+            final Container container = containers[iterationChunk];
+            if (container == null) continue;
+
+            final int lowBits = container.nextValue(iterationLowBits);
+            if (lowBits >= 0) {
+                nextIndex = ((long) iterationChunk << CHUNK_BITS) | lowBits;
+                iterationLowBits = lowBits + 1;
+                return;
+            }
+        }
+        nextIndex = -1;
+    }
+
+    private static int chunkOf(final long index) {
+        final long chunk = index >>> CHUNK_BITS;
+        if (index < 0 || chunk >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Index out of range: " + index);
+        }
+        return (int) chunk;
+    }
+
+    /** Holds the low bits of the indexes within one chunk. */
+    private interface Container {
+        /** @return true if the value was not already present. */
+        boolean add(int value);
+
+        boolean contains(int value);
+
+        /** @return the smallest value >= from, or -1 if there is none. */
+        int nextValue(int from);
+
+        int cardinality();
+    }
+
+    /** Container for sparse chunks: a sorted array of values. */
+    private static final class ArrayContainer implements Container {
+        private char[] values = new char[4];
+        private int cardinality = 0;
+
+        @Override
+        public boolean add(final int value) {
+            final int pos = Arrays.binarySearch(values, 0, cardinality, (char) value);
+            if (pos >= 0) return false;
+
+            final int insertionPoint = -(pos + 1);
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, 2 * values.length);
+            }
+            System.arraycopy(values, insertionPoint, values, insertionPoint + 1, cardinality - insertionPoint);
+            values[insertionPoint] = (char) value;
+            ++cardinality;
+            return true;
+        }
+
+        @Override
+        public boolean contains(final int value) {
+            return Arrays.binarySearch(values, 0, cardinality, (char) value) >= 0;
+        }
+
+        @Override
+        public int nextValue(final int from) {
+            if (from >= CHUNK_SIZE) return -1;
+            final int pos = Arrays.binarySearch(values, 0, cardinality, (char) from);
+            final int index = pos >= 0 ? pos : -(pos + 1);
+            return index < cardinality ? values[index] : -1;
+        }
+
+        @Override
+        public int cardinality() { return cardinality; }
+
+        BitmapContainer toBitmapContainer() {
+            final BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; ++i) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    /** Container for dense chunks: one bit per possible value. */
+    private static final class BitmapContainer implements Container {
+        private final long[] words = new long[CHUNK_SIZE / Long.SIZE];
+        private int cardinality = 0;
+
+        @Override
+        public boolean add(final int value) {
+            final long bit = 1L << value;
+            final int word = value >>> 6;
+            if ((words[word] & bit) != 0) return false;
+
+            words[word] |= bit;
+            ++cardinality;
+            return true;
+        }
+
+        @Override
+        public boolean contains(final int value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        public int nextValue(final int from) {
+            if (from >= CHUNK_SIZE) return -1;
+            int word = from >>> 6;
+            long bits = words[word] & (-1L << from);
+            while (bits == 0) {
+                if (++word == words.length) return -1;
+                bits = words[word];
+            }
+            return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+        }
+
+        @Override
+        public int cardinality() { return cardinality; }
+    }
+}
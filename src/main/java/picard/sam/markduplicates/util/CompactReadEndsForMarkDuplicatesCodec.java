@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates.util;
+
+import htsjdk.samtools.util.SortingCollection;
+import picard.PicardException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codec for ReadEnds that writes most fields as variable-length integers, so that the small values that most fields
+ * hold take one or two bytes rather than their full width.  Where records are written in sorted order, as they are
+ * by a SortingCollection, the reference index and coordinate of read 1 are written as the difference from those of
+ * the previous record in the stream, and read 2's coordinate and index are always written relative to read 1's.
+ *
+ * Because records are delta-encoded against the previous record since the last call to setOutputStream(), the
+ * same sequence of calls must be made when reading back.  Consumers, such as CoordinateSortedPairInfoMap, that
+ * reset the output stream between records written to the same file must turn delta encoding off.
+ */
+public class CompactReadEndsForMarkDuplicatesCodec extends ReadEndsForMarkDuplicatesCodec {
+    private final boolean deltaEncode;
+
+    // State of the previous record written to, or read from, the current stream
+    private int previousReferenceIndex;
+    private int previousCoordinate;
+
+    /** Creates a codec that delta-encodes successive records. */
+    public CompactReadEndsForMarkDuplicatesCodec() {
+        this(true);
+    }
+
+    /**
+     * @param deltaEncode whether to encode the position of each record relative to the previous record in the stream
+     */
+    public CompactReadEndsForMarkDuplicatesCodec(final boolean deltaEncode) {
+        this.deltaEncode = deltaEncode;
+        resetDeltaState();
+    }
+
+    @Override
+    public SortingCollection.Codec<ReadEndsForMarkDuplicates> clone() {
+        return new CompactReadEndsForMarkDuplicatesCodec(deltaEncode);
+    }
+
+    protected boolean isDeltaEncoded() { return deltaEncode; }
+
+    @Override
+    public void setOutputStream(final OutputStream os) {
+        super.setOutputStream(os);
+        resetDeltaState();
+    }
+
+    @Override
+    public void setInputStream(final InputStream is) {
+        super.setInputStream(is);
+        resetDeltaState();
+    }
+
+    private void resetDeltaState() {
+        previousReferenceIndex = 0;
+        previousCoordinate = 0;
+    }
+
+    @Override
+    public void encode(final ReadEndsForMarkDuplicates read) {
+        try {
+            writeVarInt(this.out, read.score);
+            writeVarInt(this.out, read.libraryId);
+            this.out.writeByte(read.orientation);
+
+            // The coordinate is only worth delta-encoding against a record on the same reference
+            final int referenceIndexDelta = read.read1ReferenceIndex - previousReferenceIndex;
+            writeVarInt(this.out, referenceIndexDelta);
+            writeVarInt(this.out, referenceIndexDelta == 0 ? read.read1Coordinate - previousCoordinate : read.read1Coordinate);
+            writeVarLong(this.out, read.read1IndexInFile);
+            writeVarInt(this.out, read.read2ReferenceIndex - read.read1ReferenceIndex);
+
+            if (read.orientation > ReadEnds.R) {
+                writeVarInt(this.out, read.read2Coordinate - read.read1Coordinate);
+                writeVarLong(this.out, read.read2IndexInFile - read.read1IndexInFile);
+            }
+
+            writeVarInt(this.out, read.readGroup);
+            writeVarInt(this.out, read.tile);
+            writeVarInt(this.out, (short) read.x);
+            writeVarInt(this.out, (short) read.y);
+            this.out.writeByte(read.orientationForOpticalDuplicates);
+            writeVarInt(this.out, read.duplicateSetSize);
+
+            if (deltaEncode) {
+                previousReferenceIndex = read.read1ReferenceIndex;
+                previousCoordinate = read.read1Coordinate;
+            }
+        } catch (final IOException ioe) {
+            throw new PicardException("Exception writing ReadEnds to file.", ioe);
+        }
+    }
+
+    @Override
+    public ReadEndsForMarkDuplicates decode() {
+        final ReadEndsForMarkDuplicates read = new ReadEndsForMarkDuplicates();
+        try {
+            // If the first read results in an EOF we've exhausted the stream
+            final int firstByte = this.in.read();
+            if (firstByte == -1) {
+                return null;
+            }
+            read.score = (short) readVarInt(this.in, firstByte);
+
+            read.libraryId = (short) readVarInt(this.in);
+            read.orientation = this.in.readByte();
+
+            final int referenceIndexDelta = readVarInt(this.in);
+            read.read1ReferenceIndex = previousReferenceIndex + referenceIndexDelta;
+            read.read1Coordinate = referenceIndexDelta == 0 ? previousCoordinate + readVarInt(this.in) : readVarInt(this.in);
+            read.read1IndexInFile = readVarLong(this.in);
+            read.read2ReferenceIndex = read.read1ReferenceIndex + readVarInt(this.in);
+
+            if (read.orientation > ReadEnds.R) {
+                read.read2Coordinate = read.read1Coordinate + readVarInt(this.in);
+                read.read2IndexInFile = read.read1IndexInFile + readVarLong(this.in);
+            }
+
+            read.readGroup = (short) readVarInt(this.in);
+            read.tile = (short) readVarInt(this.in);
+            read.x = (short) readVarInt(this.in);
+            read.y = (short) readVarInt(this.in);
+
+            read.orientationForOpticalDuplicates = this.in.readByte();
+            read.duplicateSetSize = readVarInt(this.in);
+
+            if (deltaEncode) {
+                previousReferenceIndex = read.read1ReferenceIndex;
+                previousCoordinate = read.read1Coordinate;
+            }
+            return read;
+        } catch (final IOException ioe) {
+            throw new PicardException("Exception reading ReadEnds from file.", ioe);
+        }
+    }
+
+    /** Writes a signed int as a zig-zag encoded variable-length integer of one to five bytes. */
+    protected static void writeVarInt(final DataOutputStream out, final int value) throws IOException {
+        writeVarLong(out, value);
+    }
+
+    /** Writes a signed long as a zig-zag encoded variable-length integer of one to ten bytes. */
+    protected static void writeVarLong(final DataOutputStream out, final long value) throws IOException {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.writeByte((int) zigZag);
+    }
+
+    protected static int readVarInt(final DataInputStream in) throws IOException {
+        return (int) readVarLong(in, in.readUnsignedByte());
+    }
+
+    private static int readVarInt(final DataInputStream in, final int firstByte) throws IOException {
+        return (int) readVarLong(in, firstByte);
+    }
+
+    protected static long readVarLong(final DataInputStream in) throws IOException {
+        return readVarLong(in, in.readUnsignedByte());
+    }
+
+    private static long readVarLong(final DataInputStream in, final int firstByte) throws IOException {
+        long zigZag = firstByte & 0x7F;
+        int b = firstByte;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if (shift > 63) {
+                throw new PicardException("Malformed variable-length integer in ReadEnds file.");
+            }
+            b = in.readUnsignedByte();
+            zigZag |= (long) (b & 0x7F) << shift;
+        }
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+}
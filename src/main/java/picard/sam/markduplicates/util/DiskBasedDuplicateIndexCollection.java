@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates.util;
+
+import htsjdk.samtools.util.SortingLongCollection;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Disk-based implementation of DuplicateIndexCollection that sorts the indexes using a SortingLongCollection,
+ * spilling to disk as necessary.
+ */
+public class DiskBasedDuplicateIndexCollection implements DuplicateIndexCollection {
+    private final SortingLongCollection indexes;
+
+    /**
+     * @param maxInMemory the number of indexes to hold in memory before spilling to disk
+     * @param tmpDirs     the directories in which to write temporary files
+     */
+    public DiskBasedDuplicateIndexCollection(final int maxInMemory, final List<File> tmpDirs) {
+        this.indexes = new SortingLongCollection(maxInMemory, tmpDirs.toArray(new File[tmpDirs.size()]));
+    }
+
+    @Override
+    public void add(final long index) { this.indexes.add(index); }
+
+    @Override
+    public void doneAddingStartIteration() { this.indexes.doneAddingStartIteration(); }
+
+    @Override
+    public boolean hasNext() { return this.indexes.hasNext(); }
+
+    @Override
+    public long next() { return this.indexes.next(); }
+
+    @Override
+    public void cleanup() { this.indexes.cleanup(); }
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates.util;
+
+/**
+ * Interface for accumulating the indexes (ordinals in the input) of records that are to be flagged, e.g. as
+ * duplicates, and then retrieving them in ascending order.  Indexes may be added in any order.  An implementation
+ * may be disk-based to reduce memory footprint.
+ */
+public interface DuplicateIndexCollection {
+    /**
+     * Adds the index of a record to the collection.  Not valid once iteration has started.
+     */
+    void add(long index);
+
+    /**
+     * Call once all indexes have been added, before calling hasNext() or next().
+     */
+    void doneAddingStartIteration();
+
+    /**
+     * @return true if there are more indexes to be returned by next()
+     */
+    boolean hasNext();
+
+    /**
+     * @return the next index, in ascending order.  Implementations may return an index that was added more than
+     * once either once or as many times as it was added.
+     */
+    long next();
+
+    /**
+     * Frees any resources (memory or temporary files) held by the collection.
+     */
+    void cleanup();
+}
@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates.util;
+
+/**
+ * Memory-based implementation of ReadEndsForMarkDuplicatesMap that avoids holding on to a String key and a boxed
+ * map entry per waiting read.  Each key, together with the mate sequence index, is reduced to a 128-bit fingerprint
+ * (two independent 64-bit hashes) that is stored in primitive arrays of an open-addressed (linear probing) hash
+ * table alongside the ReadEnds objects themselves.
+ * <p/>
+ * As in the other implementations, a put() of a key that is already present replaces its entry.  Keys are compared
+ * only by their fingerprints, but the chance of two different waiting reads' fingerprints matching is of the order
+ * of 2^-128 per pair of reads, i.e. negligible.
+ */
+public class FingerprintingReadEndsForMarkDuplicatesMap implements ReadEndsForMarkDuplicatesMap {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.6;
+
+    private long[] fingerprints1 = new long[INITIAL_CAPACITY];
+    private long[] fingerprints2 = new long[INITIAL_CAPACITY];
+    /** A null value marks an empty slot. */
+    private ReadEndsForMarkDuplicates[] values = new ReadEndsForMarkDuplicates[INITIAL_CAPACITY];
+    private int size = 0;
+
+    @Override
+    public ReadEndsForMarkDuplicates remove(final int mateSequenceIndex, final String key) {
+        final long fingerprint1 = fingerprint1(mateSequenceIndex, key);
+        final long fingerprint2 = fingerprint2(mateSequenceIndex, key);
+        final int slot = findSlot(fingerprint1, fingerprint2);
+        final ReadEndsForMarkDuplicates readEnds = values[slot];
+        if (readEnds != null) {
+            deleteSlot(slot);
+            --size;
+        }
+        return readEnds;
+    }
+
+    @Override
+    public void put(final int mateSequenceIndex, final String key, final ReadEndsForMarkDuplicates readEnds) {
+        final long fingerprint1 = fingerprint1(mateSequenceIndex, key);
+        final long fingerprint2 = fingerprint2(mateSequenceIndex, key);
+        final int slot = findSlot(fingerprint1, fingerprint2);
+        if (values[slot] != null) {
+            values[slot] = readEnds;
+            return;
+        }
+
+        fingerprints1[slot] = fingerprint1;
+        fingerprints2[slot] = fingerprint2;
+        values[slot] = readEnds;
+        if (++size > MAX_LOAD * values.length) {
+            resize(2 * values.length);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int sizeInRam() {
+        return size();
+    }
+
+    /** @return the slot holding the given fingerprint, or else the empty slot at which it would be inserted. */
+    private int findSlot(final long fingerprint1, final long fingerprint2) {
+        final int mask = values.length - 1;
+        int slot = (int) fingerprint1 & mask;
+        while (values[slot] != null && (fingerprints1[slot] != fingerprint1 || fingerprints2[slot] != fingerprint2)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Empties a slot, shifting back any later entries in the same probe run so that no tombstones are needed. */
+    private void deleteSlot(int slot) {
+        final int mask = values.length - 1;
+        int next = (slot + 1) & mask;
+        while (values[next] != null) {
+            final int home = (int) fingerprints1[next] & mask;
+            // Move the entry at next into the gap unless its home slot lies cyclically in (slot, next]
+            final boolean homeBetween = slot <= next ? (slot < home && home <= next) : (slot < home || home <= next);
+            if (!homeBetween) {
+                fingerprints1[slot] = fingerprints1[next];
+                fingerprints2[slot] = fingerprints2[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[slot] = null;
+    }
+
+    private void resize(final int capacity) {
+        final long[] oldFingerprints1 = fingerprints1;
+        final long[] oldFingerprints2 = fingerprints2;
+        final ReadEndsForMarkDuplicates[] oldValues = values;
+
+        fingerprints1 = new long[capacity];
+        fingerprints2 = new long[capacity];
+        values = new ReadEndsForMarkDuplicates[capacity];
+        for (int i = 0; i < oldValues.length; ++i) {
+            if (oldValues[i] == null) continue;
+            final int slot = findSlot(oldFingerprints1[i], oldFingerprints2[i]);
+            fingerprints1[slot] = oldFingerprints1[i];
+            fingerprints2[slot] = oldFingerprints2[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /** 64-bit FNV-1a hash of the mate sequence index and key, finished with a mixing step. */
+    static long fingerprint1(final int mateSequenceIndex, final String key) {
+        long hash = 0xcbf29ce484222325L ^ mateSequenceIndex;
+        for (int i = 0; i < key.length(); ++i) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /** A second 64-bit hash of the mate sequence index and key, computed independently of fingerprint1. */
+    static long fingerprint2(final int mateSequenceIndex, final String key) {
+        long hash = 0x9e3779b97f4a7c15L * (mateSequenceIndex + 1);
+        for (int i = 0; i < key.length(); ++i) {
+            hash = (hash + key.charAt(i)) * 0xc6a4a7935bd1e995L;
+            hash ^= hash >>> 47;
+        }
+        return mix(hash ^ key.length());
+    }
+
+    /** The 64-bit finalizer from MurmurHash3. */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -33,8 +33,10 @@ import picard.PicardException;
 import picard.sam.DuplicationMetrics;
 import htsjdk.samtools.DuplicateScoringStrategy.ScoringStrategy;
 
+import java.io.File;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.Set;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -44,6 +46,9 @@ import java.util.TreeSet;
  * This stores a current nonDuplicateReadEndsSet of read ends that need to be duplicate marked.  It only stores internally the "best" read end for a given
  * possible duplicate location, preferring to perform duplicate marking as read ends come in, rather than wait for all "comparable"
  * read ends to arrive.  This reduces the memory footprint of this data structure.
+ * <p/>
+ * The physical locations tracked for optical duplicate detection grow with the depth of coverage, so once more than a
+ * given number are held in memory, the location sets of the earliest read ends in the queue are spilled to disk.
  */
 public class MarkQueue {
 
@@ -125,8 +130,32 @@ public class MarkQueue {
     /** temporary so we do not need to create many objects */
     private ReadEndsForMateCigar tmpReadEnds = null;
 
+    /** The maximum number of physical locations for optical duplicate detection to hold in memory. */
+    private final int maxLocationsInRam;
+
+    /** The file to which physical locations are spilled, shared by all of the location sets in this queue. */
+    private final PhysicalLocationSpillFile spillFile;
+
+    /** The number of physical locations for optical duplicate detection currently held in memory. */
+    private int numLocationsInRam = 0;
+
     public MarkQueue(final ScoringStrategy duplicateScoringStrategy) {
+        this(duplicateScoringStrategy, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * @param duplicateScoringStrategy the scoring strategy for choosing duplicates
+     * @param maxLocationsInRam        the maximum number of physical locations for optical duplicate detection to hold in memory
+     * @param tmpDirs                  the temporary directories to use if we spill physical locations to disk
+     */
+    public MarkQueue(final ScoringStrategy duplicateScoringStrategy, final int maxLocationsInRam, final List<File> tmpDirs) {
+        if (maxLocationsInRam < 1) throw new PicardException("maxLocationsInRam must be at least 1, found " + maxLocationsInRam);
+        if (maxLocationsInRam != Integer.MAX_VALUE && (null == tmpDirs || tmpDirs.isEmpty())) {
+            throw new PicardException("A temporary directory is required to spill physical locations to disk");
+        }
         comparator = new ReadEndsMCComparator(duplicateScoringStrategy);
+        this.maxLocationsInRam = maxLocationsInRam;
+        this.spillFile = null == tmpDirs || tmpDirs.isEmpty() ? null : new PhysicalLocationSpillFile(tmpDirs.get(0));
     }
 
     /** Returns the number of duplicates detected */
@@ -155,14 +184,45 @@ public class MarkQueue {
     }
 
     /** Returns the nonDuplicateReadEndsSet of read ends that should be considered for tracking optical duplicates. */
-    public Set<ReadEnds> getLocations(final ReadEndsForMateCigar current) {
+    public Collection<ReadEnds> getLocations(final ReadEndsForMateCigar current) {
         // NB: only needed for pairs!!!
         if (!shouldBeInLocations(current)) throw new PicardException("Not implemented");
-        final Set<ReadEnds> locationSet = current.getReadEndSetForOpticalDuplicates();
+        if (null != current.getLocationSet()) this.numLocationsInRam -= current.getLocationSet().sizeInRam();
+        final Collection<ReadEnds> locationSet = current.getReadEndSetForOpticalDuplicates();
         if (null == locationSet) throw new PicardException("Locations was empty: unexpected error");
         return locationSet;
     }
 
+    /** Releases the physical locations tracked with the given read end, for when they will not be used for optical duplicate detection. */
+    public void discardLocations(final ReadEndsForMateCigar current) {
+        final PhysicalLocationForMateCigarSet locationSet = current.removeLocationSet();
+        if (null != locationSet) {
+            this.numLocationsInRam -= locationSet.sizeInRam();
+            locationSet.cleanup();
+        }
+    }
+
+    /** Returns the number of physical locations for optical duplicate detection currently held in memory. */
+    public int getNumLocationsInRam() { return this.numLocationsInRam; }
+
+    /**
+     * If too many physical locations are held in memory, spills the location sets of the earliest read ends in the queue
+     * to disk until at most half the maximum remain.
+     */
+    private void spillLocationsIfNecessary() {
+        if (this.numLocationsInRam <= this.maxLocationsInRam) return;
+        for (final ReadEndsForMateCigar end : this.nonDuplicateReadEndsSet) {
+            if (this.numLocationsInRam <= this.maxLocationsInRam / 2) break;
+            final PhysicalLocationForMateCigarSet locationSet = end.getLocationSet();
+            if (null != locationSet) this.numLocationsInRam -= locationSet.spillToDisk(this.spillFile);
+        }
+    }
+
+    /** Deletes any physical locations spilled to disk. */
+    public void close() {
+        if (null != this.spillFile) this.spillFile.close();
+    }
+
     /** Returns the first element in this queue */
     public ReadEndsForMateCigar peek() {
         return this.nonDuplicateReadEndsSet.first();
@@ -358,7 +418,10 @@ public class MarkQueue {
         final SAMRecord record = other.getRecord();
         if (record.getReadPairedFlag() && !record.getReadUnmappedFlag() && !record.getMateUnmappedFlag() && addToLocationSet) {
             if (null == locationSet) throw new PicardException("location nonDuplicateReadEndsSet was null: " + record.getSAMString());
-            locationSet.add(other);
+            if (locationSet.add(other)) {
+                this.numLocationsInRam++;
+                spillLocationsIfNecessary();
+            }
         }
 
         // if we have a duplicate, update it for duplicate tracking and update the metrics
@@ -29,7 +29,11 @@ import htsjdk.samtools.util.ProgressLogger;
 import picard.sam.util.PhysicalLocation;
 import picard.sam.util.ReadNameParser;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Contains methods for finding optical/co-localized/sequencing duplicates.
@@ -43,7 +47,13 @@ public class OpticalDuplicateFinder extends ReadNameParser {
 
     public static final int DEFAULT_OPTICAL_DUPLICATE_DISTANCE = 100;
     public static final int DEFAULT_BIG_DUPLICATE_SET_SIZE = 1000;
-    public static final int DEFAULT_MAX_DUPLICATE_SET_SIZE = 300000; // larger than this number will generate over 100 billion comparisons in the n^2 algorithm below
+    public static final int DEFAULT_MAX_DUPLICATE_SET_SIZE = 300000; // guards against pathological sets in which most reads are within the pixel distance of one another
+
+    /**
+     * Sets at least this large are compared using a spatial index, so that only reads that fall in neighbouring grid
+     * cells of the same read group and tile are compared; smaller sets are cheaper to compare exhaustively.
+     */
+    static final int MIN_SET_SIZE_FOR_SPATIAL_INDEX = 64;
 
     private int bigDuplicateSetSize = DEFAULT_BIG_DUPLICATE_SET_SIZE;
     private long maxDuplicateSetSize = DEFAULT_MAX_DUPLICATE_SET_SIZE;
@@ -65,10 +75,7 @@ public class OpticalDuplicateFinder extends ReadNameParser {
      * @param maxDuplicateSetSize the size of a set that is too big enough to process
      */
     public void setMaxDuplicateSetSize(final long maxDuplicateSetSize) {
-        if (maxDuplicateSetSize < 1) {
-            this.maxDuplicateSetSize = Long.MAX_VALUE;
-        }
-        this.maxDuplicateSetSize = maxDuplicateSetSize;
+        this.maxDuplicateSetSize = maxDuplicateSetSize < 1 ? Long.MAX_VALUE : maxDuplicateSetSize;
     }
 
     /**
@@ -96,13 +103,13 @@ public class OpticalDuplicateFinder extends ReadNameParser {
      *
      * @param readNameRegex see {@link ReadNameParser#DEFAULT_READ_NAME_REGEX}.
      * @param opticalDuplicatePixelDistance the optical duplicate pixel distance
-     * @param maxDuplicateSetSize the size of a set that is too big enough to process
+     * @param maxDuplicateSetSize the size of a set that is too big enough to process, or less than 1 for no limit
      * @param log the log to which to write messages.
      */
     public OpticalDuplicateFinder(final String readNameRegex, final int opticalDuplicatePixelDistance, final long maxDuplicateSetSize, final Log log) {
         super(readNameRegex, log);
         this.opticalDuplicatePixelDistance = opticalDuplicatePixelDistance;
-        this.maxDuplicateSetSize = maxDuplicateSetSize;
+        setMaxDuplicateSetSize(maxDuplicateSetSize);
     }
 
     /**
@@ -123,7 +130,7 @@ public class OpticalDuplicateFinder extends ReadNameParser {
         final boolean[] opticalDuplicateFlags = new boolean[length];
 
         // If there is only one or zero reads passed in (so there are obviously no optical duplicates),
-        // or if there are too many reads (so we don't want to try to run this expensive n^2 algorithm),
+        // or if there are too many reads (so we don't want to risk a near n^2 number of comparisons),
         // then just return an array of all false
         if (length < 2 || length > maxDuplicateSetSize) {
             return opticalDuplicateFlags;
@@ -168,29 +175,127 @@ public class OpticalDuplicateFinder extends ReadNameParser {
         if (logProgress) log.debug("Done with comparing to keeper, now the rest.");
 
         // Now go through and do each pairwise comparison not involving the actualKeeper
+        if (length >= MIN_SET_SIZE_FOR_SPATIAL_INDEX) {
+            compareUsingSpatialIndex(list, actualKeeper, distance, opticalDuplicateFlags, progressLoggerForRest);
+        } else {
+            for (int i = 0; i < length; ++i) {
+                final PhysicalLocation lhs = list.get(i);
+                if (lhs == actualKeeper) continue; // no comparisons to actualKeeper since those are all handled above
+
+                // logging here for same reason as above
+                if (logProgress) progressLoggerForRest.record(String.format("%d", lhs.getReadGroup()), lhs.getX());
+
+                for (int j = i + 1; j < length; ++j) {
+                    markIfOpticalDuplicates(list, actualKeeper, i, j, distance, opticalDuplicateFlags);
+                }
+            }
+        }
+
+        return opticalDuplicateFlags;
+    }
+
+    /**
+     * Does the same comparisons as the exhaustive pairwise loop, and in the same order (which matters, since which of
+     * a pair gets marked depends on what has already been marked), but skips every pair that cannot be close enough.
+     * Reads are bucketed into a grid of cells no smaller than the pixel distance, keyed by read group and tile, so
+     * that each read need only be compared to the reads after it in the list that fall in the 3x3 block of cells
+     * around it.
+     */
+    private void compareUsingSpatialIndex(final List<? extends PhysicalLocation> list,
+                                          final PhysicalLocation actualKeeper,
+                                          final int distance,
+                                          final boolean[] opticalDuplicateFlags,
+                                          final ProgressLogger progressLogger) {
+        final int length = list.size();
+        final int cellSize = Math.max(distance, 1);
+
+        // Reads are added in list order, so the indexes in each cell are ascending
+        final Map<GridCell, List<Integer>> cells = new HashMap<>();
+        for (int i = 0; i < length; ++i) {
+            final PhysicalLocation loc = list.get(i);
+            if (loc == actualKeeper || !loc.hasLocation()) continue; // these can never be marked by the comparisons below
+            cells.computeIfAbsent(new GridCell(loc, cellSize, 0, 0), k -> new ArrayList<>()).add(i);
+        }
+
+        int[] neighbours = new int[16];
         for (int i = 0; i < length; ++i) {
             final PhysicalLocation lhs = list.get(i);
-            if (lhs == actualKeeper) continue; // no comparisons to actualKeeper since those are all handled above
-
-            // logging here for same reason as above
-            if (logProgress) progressLoggerForRest.record(String.format("%d", lhs.getReadGroup()), lhs.getX());
-
-            for (int j = i + 1; j < length; ++j) {
-                final PhysicalLocation rhs = list.get(j);
-                if (rhs == actualKeeper) continue; // no comparisons to actualKeeper since those are all handled above
-                if (opticalDuplicateFlags[i] && opticalDuplicateFlags[j]) continue; // both already marked, no need to check
-
-                if (closeEnough(lhs, rhs, distance)) {
-                    // At this point we want to mark either lhs or rhs as duplicate. Either could have been marked
-                    // as a duplicate of the keeper (but not both - that's checked above), so be careful about which
-                    // one to now mark as a duplicate.
-                    final int index = opticalDuplicateFlags[j] ? i : j;
-                    opticalDuplicateFlags[index] = true;
+            if (lhs == actualKeeper || !lhs.hasLocation()) continue;
+
+            if (progressLogger != null) progressLogger.record(String.format("%d", lhs.getReadGroup()), lhs.getX());
+
+            // Gather the later reads in neighbouring cells, and visit them in list order
+            int numNeighbours = 0;
+            for (int dx = -1; dx <= 1; ++dx) {
+                for (int dy = -1; dy <= 1; ++dy) {
+                    final List<Integer> cell = cells.get(new GridCell(lhs, cellSize, dx, dy));
+                    if (cell == null) continue;
+                    for (int k = cell.size() - 1; k >= 0 && cell.get(k) > i; --k) {
+                        if (numNeighbours == neighbours.length) neighbours = Arrays.copyOf(neighbours, 2 * neighbours.length);
+                        neighbours[numNeighbours++] = cell.get(k);
+                    }
                 }
             }
+            Arrays.sort(neighbours, 0, numNeighbours);
+
+            for (int k = 0; k < numNeighbours; ++k) {
+                markIfOpticalDuplicates(list, actualKeeper, i, neighbours[k], distance, opticalDuplicateFlags);
+            }
         }
+    }
 
-        return opticalDuplicateFlags;
+    /** Compares the reads at indexes i < j and, if they are optical duplicates, marks one of them. */
+    private void markIfOpticalDuplicates(final List<? extends PhysicalLocation> list,
+                                         final PhysicalLocation actualKeeper,
+                                         final int i,
+                                         final int j,
+                                         final int distance,
+                                         final boolean[] opticalDuplicateFlags) {
+        final PhysicalLocation lhs = list.get(i);
+        final PhysicalLocation rhs = list.get(j);
+        if (rhs == actualKeeper) return; // no comparisons to actualKeeper since those are all handled above
+        if (opticalDuplicateFlags[i] && opticalDuplicateFlags[j]) return; // both already marked, no need to check
+
+        if (closeEnough(lhs, rhs, distance)) {
+            // At this point we want to mark either lhs or rhs as duplicate. Either could have been marked
+            // as a duplicate of the keeper (but not both - that's checked above), so be careful about which
+            // one to now mark as a duplicate.
+            final int index = opticalDuplicateFlags[j] ? i : j;
+            opticalDuplicateFlags[index] = true;
+        }
+    }
+
+    /** A cell of the grid used to find reads that may be close enough to be optical duplicates. */
+    private static final class GridCell {
+        private final short readGroup;
+        private final short tile;
+        private final int cellX;
+        private final int cellY;
+
+        /** The cell that is dx and dy cells away from the one containing loc. */
+        GridCell(final PhysicalLocation loc, final int cellSize, final int dx, final int dy) {
+            this.readGroup = loc.getReadGroup();
+            this.tile = loc.getTile();
+            this.cellX = Math.floorDiv(loc.getX(), cellSize) + dx;
+            this.cellY = Math.floorDiv(loc.getY(), cellSize) + dy;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof GridCell)) return false;
+            final GridCell that = (GridCell) o;
+            return readGroup == that.readGroup && tile == that.tile && cellX == that.cellX && cellY == that.cellY;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = readGroup;
+            result = 31 * result + tile;
+            result = 31 * result + cellX;
+            result = 31 * result + cellY;
+            return result;
+        }
     }
 
     /** Returns the keeper if it is contained within the list and has location information, otherwise null. */
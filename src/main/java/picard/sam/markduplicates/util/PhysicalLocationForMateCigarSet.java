@@ -26,52 +26,164 @@ package picard.sam.markduplicates.util;
 
 import picard.PicardException;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This stores records that are comparable for detecting optical duplicates.
+ * <p/>
+ * Only the information needed for optical duplicate detection is kept for each record, so that the set does not hold
+ * on to the underlying SAM records.  The set may also be spilled to a file shared with other sets (see
+ * {@link #spillToDisk(PhysicalLocationSpillFile)}) to bound the memory used at very deep loci; spilled records are read
+ * back when the read ends are retrieved.
  */
 public class PhysicalLocationForMateCigarSet {
     /**
-     * We want to return a set of ReadEnds but want to compare based on physical location, hence we store two sets.
+     * We want to return a set of ReadEnds but want to compare based on physical location, hence we key the read ends
+     * by their physical location.
      */
-    private final Set<ReadEnds> readEnds = new HashSet<ReadEnds>();
-    private final Set<PhysicalLocationForMateCigar> physicalLocations = new HashSet<PhysicalLocationForMateCigar>();
+    private final Map<PhysicalLocationForMateCigar, ReadEnds> readEnds = new LinkedHashMap<PhysicalLocationForMateCigar, ReadEnds>();
+
+    /** The file holding the records spilled to disk, and the chunks of it that they are in, or null if none have been spilled. */
+    private PhysicalLocationSpillFile spillFile = null;
+    private List<PhysicalLocationSpillFile.Chunk> spilledChunks = null;
+    private int numSpilled = 0;
 
     public PhysicalLocationForMateCigarSet() {}
 
-    /** Adds the end to this set, if not already added based on physical location */
-    public void add(final ReadEndsForMateCigar end) {
+    /** Adds the end to this set, if not already added based on physical location.  Returns true if it was added. */
+    public boolean add(final ReadEndsForMateCigar end) {
         final PhysicalLocationForMateCigar location = new PhysicalLocationForMateCigar(end);
-        if (!physicalLocations.contains(location)) {
-            readEnds.add(end);
-            physicalLocations.add(new PhysicalLocationForMateCigar(location));
-        }
+        if (readEnds.containsKey(location)) return false;
+        readEnds.put(location, new ReadEndsForOpticalDuplicates(end));
+        return true;
     }
 
-    /** The number of records in this set */
-    public int size() { return physicalLocations.size(); }
+    /** The number of records in this set, including those spilled to disk */
+    public int size() { return readEnds.size() + numSpilled; }
 
-    /** Removes the end from this set, if present */
+    /** The number of records in this set that are held in memory */
+    public int sizeInRam() { return readEnds.size(); }
+
+    /** Removes the end from this set, if present in memory */
     public void remove(final ReadEndsForMateCigar end) {
-        final PhysicalLocationForMateCigar location = new PhysicalLocationForMateCigar(end);
-        if (physicalLocations.contains(location)) {
-            readEnds.remove(end);
-            physicalLocations.remove(location);
-        }
+        readEnds.remove(new PhysicalLocationForMateCigar(end));
     }
 
-    /** Gets the set of read ends */
-    public Set<ReadEnds> getReadEnds() { return this.readEnds; }
+    /**
+     * Gets the set of read ends, reading back any that were spilled to disk.  Ends are de-duplicated by physical location,
+     * keeping the first added.
+     */
+    public Collection<ReadEnds> getReadEnds() {
+        if (null == spilledChunks) return this.readEnds.values();
 
-    /** Replaces a given end with the other end.  This ensures that that current is in this set */
+        final Map<PhysicalLocationForMateCigar, ReadEnds> allReadEnds = new LinkedHashMap<PhysicalLocationForMateCigar, ReadEnds>();
+        for (final PhysicalLocationSpillFile.Chunk chunk : spilledChunks) {
+            final byte[] bytes = spillFile.read(chunk);
+            try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+                for (int i = 0; i < bytes.length / ReadEndsForOpticalDuplicates.SIZE_IN_BYTES; i++) {
+                    final ReadEnds end = ReadEndsForOpticalDuplicates.read(in);
+                    allReadEnds.putIfAbsent(new PhysicalLocationForMateCigar(end), end);
+                }
+            } catch (final IOException e) {
+                throw new PicardException("Could not read optical duplicate locations", e);
+            }
+        }
+        spilledChunks = null;
+        numSpilled = 0;
+
+        for (final Map.Entry<PhysicalLocationForMateCigar, ReadEnds> entry : this.readEnds.entrySet()) {
+            allReadEnds.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        return allReadEnds.values();
+    }
+
+    /** Replaces a given end with the other end.  This ensures that that current is in this set, unless it was spilled to disk */
     public void replace(final ReadEndsForMateCigar current, final ReadEndsForMateCigar other) {
         final PhysicalLocationForMateCigar location = new PhysicalLocationForMateCigar(current);
-        if (!physicalLocations.contains(location)) {
+        if (!readEnds.containsKey(location)) {
+            if (null != spilledChunks) return; // the mate of other is on disk, and has the same information for optical duplicates
             throw new PicardException("Trying to replace something not in the set");
         }
         this.remove(current);
         this.add(other);
     }
+
+    /**
+     * Appends the records held in memory to the given file, which every set in the same queue must share, and releases them.
+     *
+     * @return the number of records spilled
+     */
+    public int spillToDisk(final PhysicalLocationSpillFile spillFile) {
+        final int numToSpill = readEnds.size();
+        if (0 == numToSpill) return 0;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(numToSpill * ReadEndsForOpticalDuplicates.SIZE_IN_BYTES);
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            for (final ReadEnds end : readEnds.values()) {
+                ReadEndsForOpticalDuplicates.write(end, out);
+            }
+        } catch (final IOException e) {
+            throw new PicardException("Could not write optical duplicate locations", e);
+        }
+        if (null == spilledChunks) spilledChunks = new ArrayList<PhysicalLocationSpillFile.Chunk>();
+        spilledChunks.add(spillFile.write(bytes.toByteArray()));
+        this.spillFile = spillFile;
+        readEnds.clear();
+        numSpilled += numToSpill;
+        return numToSpill;
+    }
+
+    /** Releases any records spilled to disk. */
+    public void cleanup() {
+        if (null != spilledChunks) {
+            spilledChunks.forEach(spillFile::release);
+            spilledChunks = null;
+            numSpilled = 0;
+        }
+    }
+
+    /** Holds just the information from a read end needed for optical duplicate detection. */
+    private static class ReadEndsForOpticalDuplicates extends ReadEnds {
+        /** The number of bytes written for each read end. */
+        static final int SIZE_IN_BYTES = 3 * Short.BYTES + 2 * Integer.BYTES + Byte.BYTES;
+
+        private ReadEndsForOpticalDuplicates() {}
+
+        ReadEndsForOpticalDuplicates(final ReadEnds end) {
+            this.libraryId = end.libraryId;
+            this.readGroup = end.readGroup;
+            this.setTile(end.getTile());
+            this.setX(end.getX());
+            this.setY(end.getY());
+            this.orientationForOpticalDuplicates = end.orientationForOpticalDuplicates;
+        }
+
+        static void write(final ReadEnds end, final DataOutputStream out) throws IOException {
+            out.writeShort(end.libraryId);
+            out.writeShort(end.readGroup);
+            out.writeShort(end.getTile());
+            out.writeInt(end.getX());
+            out.writeInt(end.getY());
+            out.writeByte(end.orientationForOpticalDuplicates);
+        }
+
+        static ReadEnds read(final DataInputStream in) throws IOException {
+            final ReadEndsForOpticalDuplicates end = new ReadEndsForOpticalDuplicates();
+            end.libraryId = in.readShort();
+            end.readGroup = in.readShort();
+            end.setTile(in.readShort());
+            end.setX(in.readInt());
+            end.setY(in.readInt());
+            end.orientationForOpticalDuplicates = in.readByte();
+            return end;
+        }
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.sam.markduplicates.util;
+
+import picard.PicardException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A temporary file shared by the physical location sets of a {@link MarkQueue}, to which each set appends the
+ * locations that it spills to disk as a {@link Chunk}.  Chunks are released as their sets are drained: once none are
+ * left the file is truncated, and once most of the file has been released the remaining chunks are moved down to
+ * the start of it.  The file is created when first needed, and deleted by {@link #close()}.
+ */
+public class PhysicalLocationSpillFile implements Closeable {
+    /** The number of released bytes below which the file is not worth compacting. */
+    static final long DEFAULT_MIN_RELEASED_BYTES_TO_COMPACT = 64L * 1024 * 1024;
+    long minReleasedBytesToCompact = DEFAULT_MIN_RELEASED_BYTES_TO_COMPACT;
+
+    private final File tmpDir;
+    private File file = null;
+    private RandomAccessFile randomAccessFile = null;
+
+    /** The chunks that have not been released, in the order of their offsets in the file. */
+    private final Set<Chunk> chunks = new LinkedHashSet<>();
+    private long liveBytes = 0;
+    private long length = 0;
+
+    /** @param tmpDir the directory in which to create the file */
+    public PhysicalLocationSpillFile(final File tmpDir) {
+        this.tmpDir = tmpDir;
+    }
+
+    /** A run of bytes written to the file. */
+    public static final class Chunk {
+        private long offset;
+        private final int length;
+
+        private Chunk(final long offset, final int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /** Appends the bytes to the file. */
+    public Chunk write(final byte[] bytes) {
+        try {
+            if (null == randomAccessFile) {
+                file = File.createTempFile("MarkQueue.", ".locations", tmpDir);
+                file.deleteOnExit();
+                randomAccessFile = new RandomAccessFile(file, "rw");
+            }
+            randomAccessFile.seek(length);
+            randomAccessFile.write(bytes);
+        } catch (final IOException e) {
+            throw new PicardException("Could not write optical duplicate locations to " + file, e);
+        }
+        final Chunk chunk = new Chunk(length, bytes.length);
+        chunks.add(chunk);
+        liveBytes += chunk.length;
+        length += chunk.length;
+        return chunk;
+    }
+
+    /** Reads back the bytes of the chunk, and releases it. */
+    public byte[] read(final Chunk chunk) {
+        final byte[] bytes = readBytes(chunk);
+        release(chunk);
+        return bytes;
+    }
+
+    /** Releases the chunk, whose bytes will not be read. */
+    public void release(final Chunk chunk) {
+        if (!chunks.remove(chunk)) throw new PicardException("Optical duplicate locations were already released");
+        liveBytes -= chunk.length;
+        try {
+            if (chunks.isEmpty()) {
+                length = 0;
+                randomAccessFile.setLength(0);
+            } else if (length - liveBytes >= minReleasedBytesToCompact && length - liveBytes > liveBytes) {
+                compact();
+            }
+        } catch (final IOException e) {
+            throw new PicardException("Could not compact optical duplicate locations in " + file, e);
+        }
+    }
+
+    /** The number of bytes in the file, including those of released chunks that have not been compacted away. */
+    public long length() { return length; }
+
+    /** Moves each chunk down to the end of the one before it, and truncates the file after the last. */
+    private void compact() throws IOException {
+        long offset = 0;
+        for (final Chunk chunk : chunks) {
+            if (chunk.offset != offset) {
+                final byte[] bytes = readBytes(chunk);
+                randomAccessFile.seek(offset);
+                randomAccessFile.write(bytes);
+                chunk.offset = offset;
+            }
+            offset += chunk.length;
+        }
+        length = offset;
+        randomAccessFile.setLength(length);
+    }
+
+    private byte[] readBytes(final Chunk chunk) {
+        final byte[] bytes = new byte[chunk.length];
+        try {
+            randomAccessFile.seek(chunk.offset);
+            randomAccessFile.readFully(bytes);
+        } catch (final IOException e) {
+            throw new PicardException("Could not read optical duplicate locations from " + file, e);
+        }
+        return bytes;
+    }
+
+    /** Deletes the file, along with any chunks that have not been released. */
+    @Override
+    public void close() {
+        if (null == randomAccessFile) return;
+        try {
+            randomAccessFile.close();
+        } catch (final IOException e) {
+            throw new PicardException("Could not close " + file, e);
+        } finally {
+            file.delete();
+            randomAccessFile = null;
+            chunks.clear();
+            liveBytes = 0;
+            length = 0;
+        }
+    }
+}
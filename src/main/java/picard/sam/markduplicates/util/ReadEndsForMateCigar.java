@@ -31,8 +31,8 @@ import htsjdk.samtools.SAMUtils;
 import htsjdk.samtools.util.SamRecordWithOrdinal;
 import picard.PicardException;
 
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
 
 /**
  * A class to store individual records for MarkDuplicatesWithMateCigar.  This aids in comparing records to determine which need to
@@ -143,9 +143,9 @@ public class ReadEndsForMateCigar extends ReadEnds {
     public boolean isPaired() { return this.getRecord().getReadPairedFlag(); }
 
     /** Gets the read ends for optical duplicate tracking */
-    public Set<ReadEnds> getReadEndSetForOpticalDuplicates() {
+    public Collection<ReadEnds> getReadEndSetForOpticalDuplicates() {
         if (null == this.locationSet) throw new PicardException("Already called getReadEndSetForOpticalDuplicates");
-        final Set<ReadEnds> locationSet = this.locationSet.getReadEnds();
+        final Collection<ReadEnds> locationSet = this.locationSet.getReadEnds();
         this.locationSet = null;
         return locationSet;
     }
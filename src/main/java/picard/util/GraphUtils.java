@@ -35,6 +35,7 @@ public class GraphUtils {
 
     static public class Graph<Node extends Comparable<Node>> {
         final private List<Node> nodes;
+        final private Map<Node, Integer> nodeIndexes;
         final private List<List<Integer>> neighbors;
 
         /**
@@ -49,12 +50,13 @@ public class GraphUtils {
             IntStream.range(0, neighbors.size()).forEach(i ->
                     neighbors.get(i).stream().forEach(j -> joinNodes(cluster, j, i)));
 
-            return nodes.stream().collect(Collectors.toMap(n -> n, n -> cluster[nodes.indexOf(n)]));
+            return nodes.stream().collect(Collectors.toMap(n -> n, n -> cluster[nodeIndexes.get(n)]));
 
         }
 
         public Graph() {
             nodes = new ArrayList<>();
+            nodeIndexes = new HashMap<>();
             neighbors = new ArrayList<>();
         }
 
@@ -69,11 +71,14 @@ public class GraphUtils {
 
         public Integer addNode(final Node singleton) {
 
-            if (!nodes.contains(singleton)) {
-                nodes.add(singleton);
-                neighbors.add(new ArrayList<>());
+            final Integer index = nodeIndexes.get(singleton);
+            if (index != null) {
+                return index;
             }
-            return nodes.indexOf(singleton);
+            nodes.add(singleton);
+            neighbors.add(new ArrayList<>());
+            nodeIndexes.put(singleton, nodes.size() - 1);
+            return nodes.size() - 1;
         }
 
         /* bidirectional and public */
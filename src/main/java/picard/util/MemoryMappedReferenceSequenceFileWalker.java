@@ -0,0 +1,239 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.util;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.reference.FastaSequenceIndex;
+import htsjdk.samtools.reference.FastaSequenceIndexEntry;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.StringUtil;
+import picard.PicardException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A ReferenceSequenceFileWalker over an uncompressed, indexed FASTA file, that memory-maps each reference sequence
+ * (using the offsets in the .fai index) rather than reading it into a byte array.  The bases of the sequences it returns
+ * are read from the mapping by {@link MappedReferenceSequence#getBase(int)}, so moving on to a new sequence neither
+ * allocates nor reads the whole sequence.  When prefetching, the walker also maps the sequence after the one that was
+ * last requested, and loads it into memory on a background thread.
+ *
+ * Like the ReferenceSequenceFileWalker, it returns only the most recently requested sequence, and sequences must be
+ * requested in ascending order.  {@link #getSequence(int)} may be used to map any sequence, from any thread.
+ */
+public class MemoryMappedReferenceSequenceFileWalker extends ReferenceSequenceFileWalker {
+    private final File fasta;
+    private final FileChannel channel;
+    private final FastaSequenceIndexEntry[] entries;
+    private final ExecutorService prefetcher;
+
+    private MappedReferenceSequence current = null;
+    private MappedReferenceSequence next = null;
+
+    /**
+     * @param fasta    uncompressed FASTA file, with a .fai index
+     * @param prefetch whether to load the sequence after each requested sequence on a background thread
+     */
+    public MemoryMappedReferenceSequenceFileWalker(final File fasta, final boolean prefetch) {
+        super(fasta);
+        this.fasta = fasta;
+
+        final Path indexPath = ReferenceSequenceFileFactory.getFastaIndexFileName(fasta.toPath());
+        if (!Files.exists(indexPath)) {
+            throw new PicardException("A memory-mapped reference requires a .fai index, but none was found for " + fasta);
+        }
+        final FastaSequenceIndex index = new FastaSequenceIndex(indexPath);
+
+        // Number the sequences as the ReferenceSequenceFileWalker does, by the dictionary if there is one
+        final SAMSequenceDictionary dictionary = getSequenceDictionary();
+        final List<FastaSequenceIndexEntry> entryList = new ArrayList<>(index.size());
+        if (dictionary != null) {
+            dictionary.getSequences().forEach(sequence -> entryList.add(index.getIndexEntry(sequence.getSequenceName())));
+        } else {
+            index.forEach(entryList::add);
+        }
+        this.entries = entryList.toArray(new FastaSequenceIndexEntry[entryList.size()]);
+
+        try {
+            this.channel = FileChannel.open(fasta.toPath(), StandardOpenOption.READ);
+        } catch (final IOException e) {
+            throw new PicardException("Could not open reference " + fasta, e);
+        }
+
+        this.prefetcher = prefetch ? Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "MemoryMappedReferencePrefetcher");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Creates a walker that prefetches the next sequence.
+     *
+     * @param fasta uncompressed FASTA file, with a .fai index
+     */
+    public MemoryMappedReferenceSequenceFileWalker(final File fasta) {
+        this(fasta, true);
+    }
+
+    /**
+     * Returns the mapped sequence with the given index, which must not be before the previously requested sequence.
+     */
+    @Override
+    public ReferenceSequence get(final int sequenceIndex) {
+        if (current != null && current.getContigIndex() == sequenceIndex) {
+            return current;
+        }
+        if (current != null && current.getContigIndex() > sequenceIndex) {
+            throw new PicardException("Requesting earlier reference sequence: " + sequenceIndex + " < " + current.getContigIndex());
+        }
+
+        current = (next != null && next.getContigIndex() == sequenceIndex) ? next : getSequence(sequenceIndex);
+        next = null;
+        if (prefetcher != null && sequenceIndex + 1 < entries.length) {
+            final MappedReferenceSequence nextSequence = getSequence(sequenceIndex + 1);
+            prefetcher.submit(nextSequence::load);
+            next = nextSequence;
+        }
+        return current;
+    }
+
+    /**
+     * Maps the sequence with the given index, without loading it into memory.
+     */
+    public MappedReferenceSequence getSequence(final int sequenceIndex) {
+        if (sequenceIndex < 0 || sequenceIndex >= entries.length || entries[sequenceIndex] == null) {
+            throw new PicardException("Reference sequence " + sequenceIndex + " is not in the index of " + fasta);
+        }
+        try {
+            return new MappedReferenceSequence(channel, entries[sequenceIndex], sequenceIndex);
+        } catch (final IOException e) {
+            throw new PicardException("Could not map reference sequence " + entries[sequenceIndex].getContig() + " of " + fasta, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+        }
+        current = null;
+        next = null;
+        CloserUtil.close(channel);
+        super.close();
+    }
+
+    /**
+     * A reference sequence whose bases are read from a memory-mapped FASTA file.  The FASTA's lines are mapped in
+     * chunks, since each mapping is limited to 2GB.  {@link #getBases()} copies all of the bases into a new array each
+     * time it is called, so {@link #getBase(int)} should be used instead.
+     */
+    public static class MappedReferenceSequence extends ReferenceSequence {
+        private final int length;
+        private final int basesPerLine;
+        private final int bytesPerLine;
+        private final int linesPerChunk;
+        private final MappedByteBuffer[] chunks;
+
+        MappedReferenceSequence(final FileChannel channel, final FastaSequenceIndexEntry entry, final int sequenceIndex) throws IOException {
+            super(entry.getContig(), sequenceIndex, new byte[0]);
+            this.length = (int) entry.getSize();
+            this.basesPerLine = entry.getBasesPerLine();
+            this.bytesPerLine = entry.getBytesPerLine();
+            this.linesPerChunk = Integer.MAX_VALUE / bytesPerLine;
+
+            final long lastOffset = length == 0 ? -1 : byteOffset(length - 1);
+            final long chunkBytes = (long) linesPerChunk * bytesPerLine;
+            this.chunks = new MappedByteBuffer[(int) ((lastOffset + chunkBytes) / chunkBytes)];
+            for (int i = 0; i < chunks.length; ++i) {
+                final long start = i * chunkBytes;
+                final long size = Math.min(chunkBytes, lastOffset + 1 - start);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, entry.getLocation() + start, size);
+            }
+        }
+
+        /** Returns the offset of a (0-based) base from the start of the sequence in the FASTA file. */
+        private long byteOffset(final long offset) {
+            return (offset / basesPerLine) * bytesPerLine + offset % basesPerLine;
+        }
+
+        /**
+         * @param position 1-based position in the sequence
+         * @return the base at the position, as it is in the FASTA file
+         */
+        public byte getBase(final int position) {
+            final int offset = position - 1;
+            final int line = offset / basesPerLine;
+            final int column = offset - line * basesPerLine;
+            if (line < linesPerChunk) {
+                return chunks[0].get(line * bytesPerLine + column);
+            }
+            return chunks[line / linesPerChunk].get((line % linesPerChunk) * bytesPerLine + column);
+        }
+
+        /** Loads the whole sequence into memory. */
+        void load() {
+            for (final MappedByteBuffer chunk : chunks) {
+                chunk.load();
+            }
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public byte[] getBases() {
+            final byte[] bases = new byte[length];
+            for (int start = 0; start < length; start += basesPerLine) {
+                final int line = start / basesPerLine;
+                final ByteBuffer chunk = chunks[line / linesPerChunk].duplicate();
+                chunk.position((line % linesPerChunk) * bytesPerLine);
+                chunk.get(bases, start, Math.min(basesPerLine, length - start));
+            }
+            return bases;
+        }
+
+        @Override
+        public String getBaseString() {
+            return StringUtil.bytesToString(getBases());
+        }
+    }
+}
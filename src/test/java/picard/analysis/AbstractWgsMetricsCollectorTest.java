@@ -45,7 +45,7 @@ public class AbstractWgsMetricsCollectorTest {
             public void addInfo(AbstractLocusInfo info, ReferenceSequence ref, boolean referenceBaseN) {
             }
         };
-        assertEquals(templateHistogramArray, collector.highQualityDepthHistogramArray);
+        assertEquals(templateHistogramArray, collector.highQualityDepthCounts.toArray());
         assertEquals(templateQualHistogram, collector.unfilteredBaseQHistogramArray);
         assertEquals(0, collector.basesExcludedByCapping);
         assertEquals(0, collector.basesExcludedByOverlap);
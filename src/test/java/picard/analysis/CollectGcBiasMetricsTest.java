@@ -31,11 +31,16 @@ import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordSetBuilder;
 import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.reference.FastaSequenceIndexCreator;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.SAMException;
 import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
 import org.testng.Assert;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
+import picard.PicardException;
 import picard.cmdline.CommandLineProgramTest;
 import picard.sam.SortSam;
 import picard.vcf.VcfTestUtils;
@@ -45,7 +50,9 @@ import static picard.analysis.GcBiasMetricsCollector.PerUnitGcBiasMetricsCollect
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -287,6 +294,11 @@ public class CollectGcBiasMetricsTest extends CommandLineProgramTest {
     /////////////////////////////////////////////////////////////////////////////
     public void runGcBias (final File input, final String referenceFile, final File summaryOutfile, final File detailsOutfile,
                            final boolean nonDups) throws IOException {
+        runGcBias(input, referenceFile, summaryOutfile, detailsOutfile, nonDups, null);
+    }
+
+    public void runGcBias (final File input, final String referenceFile, final File summaryOutfile, final File detailsOutfile,
+                           final boolean nonDups, final File gcWindowIndex) throws IOException {
         final File pdf = File.createTempFile("test", ".pdf");
         pdf.deleteOnExit();
 
@@ -310,7 +322,113 @@ public class CollectGcBiasMetricsTest extends CommandLineProgramTest {
                 "ASSUME_SORTED=" + assumeSorted,
                 "ALSO_IGNORE_DUPLICATES=" + nonDups
         };
-        runPicardCommandLine(args);
+        final List<String> argList = new ArrayList<>(Arrays.asList(args));
+        if (gcWindowIndex != null) {
+            argList.add("GC_WINDOW_INDEX=" + gcWindowIndex.getAbsolutePath());
+        }
+        runPicardCommandLine(argList);
+    }
+
+    private File buildGcWindowIndex(final String referenceFile, final int windowSize) throws IOException {
+        final File index = File.createTempFile("test", GcWindowIndex.FILE_EXTENSION);
+        index.deleteOnExit();
+        final String[] args = new String[]{
+                "REFERENCE_SEQUENCE=" + referenceFile,
+                "OUTPUT=" + index.getAbsolutePath(),
+                "SCAN_WINDOW_SIZE=" + windowSize
+        };
+        Assert.assertEquals(new BuildGcWindowIndex().instanceMain(args), 0);
+        return index;
+    }
+
+    /** Copies the reference to a temporary directory along with a fasta index for it, which GC_WINDOW_INDEX requires. */
+    private String indexedReference(final String referenceFile) throws IOException {
+        final File dir = IOUtil.createTempDir("CollectGcBiasMetricsTest", null);
+        dir.deleteOnExit();
+        final File reference = new File(dir, new File(referenceFile).getName());
+        Files.copy(new File(referenceFile).toPath(), reference.toPath());
+        FastaSequenceIndexCreator.create(reference.toPath(), false);
+        reference.deleteOnExit();
+        ReferenceSequenceFileFactory.getFastaIndexFileName(reference.toPath()).toFile().deleteOnExit();
+        return reference.getAbsolutePath();
+    }
+
+    /////////////////////////////////////////////////////////////////////////////
+    // Reading the gc of each window from a precomputed index must give the same metrics as computing it from the reference.
+    /////////////////////////////////////////////////////////////////////////////
+    @Test
+    public void runGcWindowIndexComparisonTest() throws IOException {
+        final File summaryOutfile = File.createTempFile("test", ".gc_bias.summary_metrics");
+        final File detailsOutfile = File.createTempFile("test", ".gc_bias.detail_metrics");
+        final File indexedSummaryOutfile = File.createTempFile("testIndexed", ".gc_bias.summary_metrics");
+        final File indexedDetailsOutfile = File.createTempFile("testIndexed", ".gc_bias.detail_metrics");
+        summaryOutfile.deleteOnExit();
+        detailsOutfile.deleteOnExit();
+        indexedSummaryOutfile.deleteOnExit();
+        indexedDetailsOutfile.deleteOnExit();
+
+        final File index = buildGcWindowIndex(REFERENCE_FILE_1, 100);
+        runGcBias(tempSamFileAllChr, REFERENCE_FILE_1, summaryOutfile, detailsOutfile, true);
+        runGcBias(tempSamFileAllChr, indexedReference(REFERENCE_FILE_1), indexedSummaryOutfile, indexedDetailsOutfile, true, index);
+
+        final MetricsFile<GcBiasSummaryMetrics, Comparable<?>> summary = new MetricsFile<>();
+        summary.read(new FileReader(summaryOutfile));
+        final MetricsFile<GcBiasSummaryMetrics, Comparable<?>> indexedSummary = new MetricsFile<>();
+        indexedSummary.read(new FileReader(indexedSummaryOutfile));
+        Assert.assertFalse(summary.getMetrics().isEmpty());
+        Assert.assertTrue(summary.areMetricsEqual(indexedSummary));
+
+        final MetricsFile<GcBiasDetailMetrics, Comparable<?>> details = new MetricsFile<>();
+        details.read(new FileReader(detailsOutfile));
+        final MetricsFile<GcBiasDetailMetrics, Comparable<?>> indexedDetails = new MetricsFile<>();
+        indexedDetails.read(new FileReader(indexedDetailsOutfile));
+        Assert.assertTrue(details.areMetricsEqual(indexedDetails));
+    }
+
+    @Test(expectedExceptions = PicardException.class)
+    public void runGcWindowIndexWindowSizeMismatchTest() throws IOException {
+        final File summaryOutfile = File.createTempFile("test", ".gc_bias.summary_metrics");
+        final File detailsOutfile = File.createTempFile("test", ".gc_bias.detail_metrics");
+        summaryOutfile.deleteOnExit();
+        detailsOutfile.deleteOnExit();
+
+        runGcBias(tempSamFileAllChr, indexedReference(REFERENCE_FILE_1), summaryOutfile, detailsOutfile, false, buildGcWindowIndex(REFERENCE_FILE_1, 50));
+    }
+
+    @Test
+    public void testGcCacheComputesEachContigOnce() {
+        final Random random = new Random(13);
+        final byte[] bases = new byte[1000];
+        for (int i = 0; i < bases.length; ++i) {
+            bases[i] = "ACGT".getBytes()[random.nextInt(4)];
+        }
+        final ReferenceSequence ref = new ReferenceSequence("chr1", 0, bases);
+        final GcBiasMetricsCollector.GcCache gcCache = new GcBiasMetricsCollector.GcCache(100);
+
+        final byte[] gc = gcCache.getGc(ref).array();
+        Assert.assertEquals(gc, GcBiasUtils.calculateAllGcs(bases, bases.length - 100, 100));
+        Assert.assertSame(gcCache.getGc(ref).array(), gc);
+        Assert.assertNotSame(gcCache.getGc(new ReferenceSequence("chr1", 0, bases.clone())).array(), gc);
+    }
+
+    @Test(expectedExceptions = PicardException.class, expectedExceptionsMessageRegExp = ".*was not built from REFERENCE_SEQUENCE.*")
+    public void runGcWindowIndexReferenceMismatchTest() throws IOException {
+        final File summaryOutfile = File.createTempFile("test", ".gc_bias.summary_metrics");
+        final File detailsOutfile = File.createTempFile("test", ".gc_bias.detail_metrics");
+        summaryOutfile.deleteOnExit();
+        detailsOutfile.deleteOnExit();
+
+        runGcBias(tempSamFileAllChr, indexedReference(REFERENCE_FILE_1), summaryOutfile, detailsOutfile, false, buildGcWindowIndex(REFERENCE_FILE_2, 100));
+    }
+
+    @Test(expectedExceptions = PicardException.class, expectedExceptionsMessageRegExp = ".*must have a sequence dictionary.*")
+    public void runGcWindowIndexUnindexedReferenceTest() throws IOException {
+        final File summaryOutfile = File.createTempFile("test", ".gc_bias.summary_metrics");
+        final File detailsOutfile = File.createTempFile("test", ".gc_bias.detail_metrics");
+        summaryOutfile.deleteOnExit();
+        detailsOutfile.deleteOnExit();
+
+        runGcBias(tempSamFileAllChr, REFERENCE_FILE_1, summaryOutfile, detailsOutfile, false, buildGcWindowIndex(REFERENCE_FILE_1, 100));
     }
 
     /**
@@ -0,0 +1,17 @@
+package picard.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Runs all the CollectMultipleMetrics tests with the programs accepting reads on several threads, which should
+ * produce the same metrics as running single-threaded.
+ */
+public class CollectMultipleMetricsMultiThreadedTest extends CollectMultipleMetricsTest {
+
+    @Override
+    public int runPicardCommandLine(final String[] args) {
+        final String[] multiThreadedArgs = Arrays.copyOf(args, args.length + 1);
+        multiThreadedArgs[args.length] = "NUM_THREADS=3";
+        return super.runPicardCommandLine(multiThreadedArgs);
+    }
+}
@@ -10,7 +10,7 @@ import htsjdk.samtools.SAMTextHeaderCodec;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.util.BufferedLineReader;
 import org.testng.Assert;
-import org.testng.annotations.BeforeTest;
+import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 import picard.cmdline.CommandLineProgramTest;
 import picard.sam.SortSam;
@@ -329,7 +329,7 @@ public class CollectMultipleMetricsTest extends CommandLineProgramTest {
     private final SAMReadGroupRecord readGroupRecord3 = new SAMReadGroupRecord(readGroupId3);
 
     //create a samfile with different samples, read groups and libraries that overlap for testing.
-    @BeforeTest
+    @BeforeClass
     void setupBuilder() throws IOException {
         final int numReads = 100;
         final String flowCellBarcode = "TESTBARCODE";
@@ -1,6 +1,16 @@
 package picard.analysis;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordSetBuilder;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalList;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -8,7 +18,11 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 
 public class CollectOxoGMetricsTest {
     private static final File TEST_DATA_DIR = new File("testdata/picard/sam/");
@@ -173,6 +187,136 @@ public class CollectOxoGMetricsTest {
     }
 
 
+    @DataProvider(name = "shardingOptions")
+    public static Object[][] shardingOptions() {
+        return new Object[][] {
+                // bases per shard, whether to restrict to intervals
+                {1000, false},
+                {1000, true},
+                {7, true},
+                {CollectOxoGMetrics.DEFAULT_BASES_PER_SHARD, false}
+        };
+    }
+
+    @Test(dataProvider = "shardingOptions")
+    public void testShardedMatchesSingleThreaded(final int basesPerShard, final boolean useIntervals) throws IOException {
+        final File tempDir = IOUtil.createTempDir("CollectOxoGMetricsTest", null);
+        try {
+            final List<String> args = makeSyntheticArgs(tempDir, useIntervals);
+            final MetricsFile<CollectOxoGMetrics.CpcgMetrics, Comparable<?>> expected = runOxoG(args, tempDir, 1, basesPerShard, false);
+            final MetricsFile<CollectOxoGMetrics.CpcgMetrics, Comparable<?>> actual = runOxoG(args, tempDir, 4, basesPerShard, false);
+
+            Assert.assertTrue(expected.getMetrics().stream().anyMatch(m -> m.TOTAL_SITES > 0));
+            Assert.assertTrue(actual.areMetricsEqual(expected));
+        } finally {
+            IOUtil.deleteDirectoryTree(tempDir);
+        }
+    }
+
+    @DataProvider(name = "fastAlgorithmOptions")
+    public static Object[][] fastAlgorithmOptions() {
+        return new Object[][] {
+                // number of threads, bases per shard, whether to restrict to intervals
+                {1, CollectOxoGMetrics.DEFAULT_BASES_PER_SHARD, false},
+                {1, CollectOxoGMetrics.DEFAULT_BASES_PER_SHARD, true},
+                {4, 1000, false},
+                {4, 7, true}
+        };
+    }
+
+    @Test(dataProvider = "fastAlgorithmOptions")
+    public void testFastAlgorithmMatchesLocusIteration(final int numThreads, final int basesPerShard, final boolean useIntervals) throws IOException {
+        final File tempDir = IOUtil.createTempDir("CollectOxoGMetricsTest", null);
+        try {
+            final List<String> args = makeSyntheticArgs(tempDir, useIntervals);
+            final MetricsFile<CollectOxoGMetrics.CpcgMetrics, Comparable<?>> expected = runOxoG(args, tempDir, 1, basesPerShard, false);
+            final MetricsFile<CollectOxoGMetrics.CpcgMetrics, Comparable<?>> actual = runOxoG(args, tempDir, numThreads, basesPerShard, true);
+
+            Assert.assertTrue(expected.getMetrics().stream().anyMatch(m -> m.ALT_OXO_BASES > 0));
+            Assert.assertTrue(actual.areMetricsEqual(expected));
+        } finally {
+            IOUtil.deleteDirectoryTree(tempDir);
+        }
+    }
+
+    @Test(dataProvider = "contextSizes")
+    public void testFastAlgorithmMatchesLocusIterationOnTestData(final int contextSize) throws IOException {
+        final File tempDir = IOUtil.createTempDir("CollectOxoGMetricsTest", null);
+        try {
+            final List<String> args = Arrays.asList(
+                    "INPUT=" + SAM_FILE.getAbsolutePath(),
+                    "REFERENCE_SEQUENCE=" + REFERENCE_SEQUENCE.getAbsolutePath(),
+                    "CONTEXT_SIZE=" + contextSize);
+            final MetricsFile<CollectOxoGMetrics.CpcgMetrics, Comparable<?>> expected = runOxoG(args, tempDir, 1, CollectOxoGMetrics.DEFAULT_BASES_PER_SHARD, false);
+            final MetricsFile<CollectOxoGMetrics.CpcgMetrics, Comparable<?>> actual = runOxoG(args, tempDir, 1, CollectOxoGMetrics.DEFAULT_BASES_PER_SHARD, true);
+
+            Assert.assertTrue(expected.getMetrics().stream().anyMatch(m -> m.TOTAL_SITES > 0));
+            Assert.assertTrue(actual.areMetricsEqual(expected));
+        } finally {
+            IOUtil.deleteDirectoryTree(tempDir);
+        }
+    }
+
+    @DataProvider(name = "contextSizes")
+    public static Object[][] contextSizes() {
+        return new Object[][] {{0}, {1}, {2}, {5}};
+    }
+
+    /** Writes an indexed BAM of random read pairs over two sequences and a reference for it, and returns the arguments to read them. */
+    private List<String> makeSyntheticArgs(final File tempDir, final boolean useIntervals) throws IOException {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate);
+        builder.getHeader().setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(
+                new SAMSequenceRecord("chrA", 5000), new SAMSequenceRecord("chrB", 3000))));
+        final Random random = new Random(17);
+        for (int i = 0; i < 400; ++i) {
+            final int sequenceIndex = random.nextInt(2);
+            final int start = 1 + random.nextInt(2500);
+            builder.addPair("pair" + i, sequenceIndex, start, start + 100 + random.nextInt(300));
+        }
+
+        final File bam = new File(tempDir, "oxog.bam");
+        try (final SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true)
+                .makeBAMWriter(builder.getHeader(), true, bam)) {
+            for (final SAMRecord rec : builder) {
+                writer.addAlignment(rec);
+            }
+        }
+        final File reference = SinglePassSamProgramShardingTest.writeReference(tempDir, builder.getHeader(), new Random(3));
+
+        final List<String> args = new ArrayList<>(Arrays.asList(
+                "INPUT=" + bam.getAbsolutePath(),
+                "REFERENCE_SEQUENCE=" + reference.getAbsolutePath()));
+        if (useIntervals) {
+            final IntervalList intervals = new IntervalList(builder.getHeader());
+            intervals.add(new Interval("chrA", 150, 1200));
+            intervals.add(new Interval("chrA", 1190, 1300));
+            intervals.add(new Interval("chrA", 2000, 4999));
+            intervals.add(new Interval("chrB", 1, 3000));
+            final File intervalsFile = new File(tempDir, "oxog.interval_list");
+            intervals.write(intervalsFile);
+            args.add("INTERVALS=" + intervalsFile.getAbsolutePath());
+        }
+        return args;
+    }
+
+    private MetricsFile<CollectOxoGMetrics.CpcgMetrics, Comparable<?>> runOxoG(final List<String> args, final File tempDir,
+                                                                             final int numThreads, final int basesPerShard,
+                                                                             final boolean useFastAlgorithm) throws IOException {
+        final File outputFile = File.createTempFile("test", ".oxo_g_metrics", tempDir);
+        final List<String> allArgs = new ArrayList<>(args);
+        allArgs.add("OUTPUT=" + outputFile.getAbsolutePath());
+        allArgs.add("NUM_THREADS=" + numThreads);
+        allArgs.add("USE_FAST_ALGORITHM=" + useFastAlgorithm);
+
+        final CollectOxoGMetrics collectOxoGMetrics = new CollectOxoGMetrics();
+        collectOxoGMetrics.basesPerShard = basesPerShard;
+        Assert.assertEquals(collectOxoGMetrics.instanceMain(allArgs.toArray(new String[allArgs.size()])), 0);
+
+        final MetricsFile<CollectOxoGMetrics.CpcgMetrics, Comparable<?>> output = new MetricsFile<>();
+        output.read(new FileReader(outputFile));
+        return output;
+    }
+
     @DataProvider(name = "RightOptions")
     public static Object[][] rightOptions() {
         final HashSet<String> rightContext1 = new HashSet<>();
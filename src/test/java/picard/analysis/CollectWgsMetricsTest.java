@@ -77,14 +77,16 @@ public class CollectWgsMetricsTest extends CommandLineProgramTest {
         final String referenceFile = "testdata/picard/quality/chrM.reference.fasta";
 
         return new Object[][] {
-                {tempSamFile, outfile, referenceFile, "false"},
-                {tempSamFile, outfile, referenceFile, "true"},
+                {tempSamFile, outfile, referenceFile, "false", "false"},
+                {tempSamFile, outfile, referenceFile, "true", "false"},
+                {tempSamFile, outfile, referenceFile, "false", "true"},
+                {tempSamFile, outfile, referenceFile, "true", "true"},
         };
     }
 
     @Test(dataProvider = "wgsDataProvider")
     public void testMetricsFromWGS(final File input, final File outfile, final String referenceFile,
-            final String useFastAlgorithm) throws IOException {
+            final String useFastAlgorithm, final String memoryMapReference) throws IOException {
         outfile.deleteOnExit();
         final int sampleSize = 1000;
 
@@ -93,7 +95,8 @@ public class CollectWgsMetricsTest extends CommandLineProgramTest {
                 "OUTPUT=" + outfile.getAbsolutePath(),
                 "REFERENCE_SEQUENCE=" + referenceFile,
                 "SAMPLE_SIZE=" + sampleSize,
-                "USE_FAST_ALGORITHM=" + useFastAlgorithm
+                "USE_FAST_ALGORITHM=" + useFastAlgorithm,
+                "MEMORY_MAP_REFERENCE=" + memoryMapReference
         };
         Assert.assertEquals(runPicardCommandLine(args), 0);
 
@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis;
+
+import htsjdk.samtools.util.Histogram;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class DepthHistogramTest {
+
+    @DataProvider(name = "maxDepths")
+    public Object[][] maxDepths() {
+        return new Object[][]{{0}, {10}, {DepthHistogram.DENSE_DEPTHS - 1}, {DepthHistogram.DENSE_DEPTHS}, {50000}};
+    }
+
+    /** Counts runs of random depths, favouring depths of zero and of the maximum depth, into both a histogram and an array. */
+    private static long[] fill(final DepthHistogram histogram, final Random random) {
+        final int maxDepth = histogram.getMaxDepth();
+        final long[] expected = new long[maxDepth + 1];
+        for (int i = 0; i < 2000; ++i) {
+            final int choice = random.nextInt(4);
+            final int depth = choice == 0 ? 0 : choice == 1 ? maxDepth : random.nextInt(maxDepth + 1);
+            final int runLength = 1 + random.nextInt(5);
+            if (random.nextBoolean()) {
+                for (int j = 0; j < runLength; ++j) {
+                    histogram.increment(depth);
+                }
+            } else {
+                histogram.increment(depth, runLength);
+            }
+            expected[depth] += runLength;
+        }
+        return expected;
+    }
+
+    @Test(dataProvider = "maxDepths")
+    public void testMatchesArray(final int maxDepth) {
+        final Random random = new Random(maxDepth);
+        final DepthHistogram histogram = new DepthHistogram(maxDepth);
+        final long[] expected = fill(histogram, random);
+
+        Assert.assertEquals(histogram.toArray(), expected);
+        long totalDepth = 0;
+        for (int depth = 0; depth <= maxDepth; ++depth) {
+            Assert.assertEquals(histogram.get(depth), expected[depth]);
+            totalDepth += depth * expected[depth];
+        }
+        Assert.assertEquals(histogram.getTotalDepth(), totalDepth);
+
+        final Histogram<Integer> withoutZero = histogram.toHistogram("coverage", "count", 1);
+        Assert.assertEquals(withoutZero.size(), maxDepth);
+        for (int depth = 1; depth <= maxDepth; ++depth) {
+            Assert.assertEquals(withoutZero.get(depth).getValue(), (double) expected[depth]);
+        }
+
+        histogram.clear(0);
+        expected[0] = 0;
+        histogram.clear(maxDepth);
+        expected[maxDepth] = 0;
+        Assert.assertEquals(histogram.toArray(), expected);
+    }
+
+    @Test(dataProvider = "maxDepths")
+    public void testMerge(final int maxDepth) {
+        final Random random = new Random(maxDepth);
+        final DepthHistogram histogram = new DepthHistogram(maxDepth);
+        final DepthHistogram other = new DepthHistogram(maxDepth);
+        final long[] expected = fill(histogram, random);
+        final long[] otherExpected = fill(other, random);
+        for (int depth = 0; depth <= maxDepth; ++depth) {
+            expected[depth] += otherExpected[depth];
+        }
+
+        histogram.merge(other);
+        Assert.assertEquals(histogram.toArray(), expected);
+        Assert.assertEquals(other.toArray(), otherExpected);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDepthAboveMaximum() {
+        new DepthHistogram(100).increment(101);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeDifferentMaximums() {
+        new DepthHistogram(100).merge(new DepthHistogram(101));
+    }
+}
@@ -165,7 +165,7 @@ public class FastWgsMetricsCollectorTest {
         collector.addInfo(secondInfo, ref, false);
         collector.addInfo(thirdInfo, ref, false);
         collector.addInfo(fourthInfo, ref, false);
-        assertEquals(templateHistogramArray, collector.unfilteredDepthHistogramArray);
+        assertEquals(templateHistogramArray, collector.unfilteredDepthCounts.toArray());
     }
 
     @Test
@@ -174,7 +174,7 @@ public class FastWgsMetricsCollectorTest {
         long[] templateHistogramArray = new long[11];
         CollectWgsMetrics collectWgsMetrics = new CollectWgsMetrics();
         FastWgsMetricsCollector collector = new FastWgsMetricsCollector(collectWgsMetrics, 10, createIntervalList());
-        assertEquals(templateHistogramArray, collector.unfilteredDepthHistogramArray);
+        assertEquals(templateHistogramArray, collector.unfilteredDepthCounts.toArray());
         assertEquals(templateQualHistogram, collector.unfilteredBaseQHistogramArray);
         assertEquals(0, collector.basesExcludedByCapping);
         assertEquals(0, collector.basesExcludedByOverlap);
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis;
+
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.StringUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class GcWindowIndexTest {
+    private static final File REFERENCE = new File("testdata/picard/metrics/chrMNO.reference.fasta");
+
+    @DataProvider(name = "windowSizes")
+    public Object[][] windowSizes() {
+        return new Object[][]{{100}, {50}, {1}};
+    }
+
+    @Test(dataProvider = "windowSizes")
+    public void testIndexMatchesReferenceScan(final int windowSize) throws IOException {
+        final File indexFile = File.createTempFile("GcWindowIndexTest", GcWindowIndex.FILE_EXTENSION);
+        indexFile.deleteOnExit();
+        GcWindowIndex.create(REFERENCE, windowSize, indexFile);
+
+        try (final GcWindowIndex index = new GcWindowIndex(indexFile)) {
+            Assert.assertEquals(index.getWindowSize(), windowSize);
+            Assert.assertEquals(index.getWindowsByGc(), GcBiasUtils.calculateRefWindowsByGc(101, REFERENCE, windowSize));
+
+            final ReferenceSequenceFile refFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE);
+            int numSequences = 0;
+            ReferenceSequence ref;
+            while ((ref = refFile.nextSequence()) != null) {
+                ++numSequences;
+                final byte[] bases = ref.getBases();
+                StringUtil.toUpperCase(bases);
+                final byte[] expected = GcBiasUtils.calculateAllGcs(bases, bases.length - windowSize, windowSize);
+
+                Assert.assertEquals(index.getSequenceDictionary().getSequence(ref.getContigIndex()).getSequenceName(), ref.getName());
+                final ByteBuffer gc = index.getGc(ref.getContigIndex());
+                Assert.assertEquals(gc.remaining(), expected.length);
+                final byte[] actual = new byte[gc.remaining()];
+                gc.get(actual);
+                Assert.assertEquals(actual, expected);
+            }
+            refFile.close();
+            Assert.assertEquals(index.getSequenceDictionary().size(), numSequences);
+        }
+    }
+}
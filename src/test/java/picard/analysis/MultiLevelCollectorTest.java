@@ -3,6 +3,7 @@ package picard.analysis;
 
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMTag;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.metrics.MetricsFile;
@@ -102,6 +103,12 @@ public class MultiLevelCollectorTest {
             public void acceptRecord(final TestArg args) {
                 numProcessed += 1;
                 metric.TALLY += 1;
+                if (args.samRecord.getReadGroup() == null) {
+                    if (metric.SAMPLE != null) {
+                        Assert.assertEquals(metric.SAMPLE, MultiLevelCollector.UNKNOWN);
+                    }
+                    return;
+                }
                 if(metric.SAMPLE != null) {
                     Assert.assertEquals(metric.SAMPLE, args.samRecord.getReadGroup().getSample());
                 }
@@ -192,4 +199,31 @@ public class MultiLevelCollectorTest {
         Assert.assertEquals(totalProcessed, collector.getNumProcessed());
         CloserUtil.close(in);
     }
+
+    @Test
+    public void testRecordsWithoutKnownReadGroupGoToUnknownCollectors() {
+        final SamReader in = SamReaderFactory.makeDefault().open(TESTFILE);
+        final Set<MetricAccumulationLevel> accumulationLevels = makeSet(MetricAccumulationLevel.ALL_READS,
+                MetricAccumulationLevel.SAMPLE, MetricAccumulationLevel.LIBRARY, MetricAccumulationLevel.READ_GROUP);
+        final RecordCountMultiLevelCollector collector = new RecordCountMultiLevelCollector(accumulationLevels, in.getFileHeader().getReadGroups());
+
+        int numRecords = 0;
+        for (final SAMRecord rec : in) {
+            if (numRecords == 0) {
+                rec.setAttribute(SAMTag.RG.name(), null);
+            } else if (numRecords == 1) {
+                rec.setAttribute(SAMTag.RG.name(), "not_in_header");
+            }
+            collector.acceptRecord(rec, null);
+            ++numRecords;
+        }
+        collector.finish();
+
+        Assert.assertEquals((int) collector.getUnitsToMetrics().get("__").TALLY, numRecords);
+        Assert.assertEquals((int) collector.getUnitsToMetrics().get("unknown__").TALLY, 2);
+        Assert.assertEquals((int) collector.getUnitsToMetrics().get("unknown_unknown_").TALLY, 2);
+        Assert.assertEquals((int) collector.getUnitsToMetrics().get("unknown_unknown_unknown").TALLY, 2);
+        Assert.assertEquals(collector.getNumProcessed(), 4 * numRecords);
+        CloserUtil.close(in);
+    }
 }
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordSetBuilder;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalList;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that processing regions of the genome in parallel with the fast algorithm of CollectWgsMetrics produces
+ * the same metrics as processing the whole genome on one thread.
+ */
+public class ParallelWgsMetricsProcessorTest {
+    private static final int READ_LENGTH = 100;
+    private static final int BASES_PER_REGION = 1000;
+
+    private File tempDir;
+    private File bam;
+    private File reference;
+    private File intervals;
+    private File gappedIntervals;
+    private File partialIntervals;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        tempDir = IOUtil.createTempDir("ParallelWgsMetricsProcessorTest", null);
+
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate);
+        builder.setReadLength(READ_LENGTH);
+        builder.getHeader().setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(
+                new SAMSequenceRecord("chrA", 20000), new SAMSequenceRecord("chrB", 15000), new SAMSequenceRecord("chrC", 3000))));
+        addReads(builder, new Random(13));
+
+        bam = new File(tempDir, "parallel_wgs.bam");
+        try (final SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true)
+                .makeBAMWriter(builder.getHeader(), true, bam)) {
+            for (final SAMRecord rec : builder) {
+                writer.addAlignment(rec);
+            }
+        }
+        reference = SinglePassSamProgramShardingTest.writeReference(tempDir, builder.getHeader(), new Random(17));
+
+        // NB: whole sequences, as on one thread the reads at the start of a sequence are clipped to the previous interval
+        final IntervalList intervalList = new IntervalList(builder.getHeader());
+        intervalList.add(new Interval("chrA", 1, 20000));
+        intervalList.add(new Interval("chrB", 1, 15000));
+        intervals = new File(tempDir, "parallel_wgs.interval_list");
+        intervalList.write(intervals);
+
+        // Regions of these aren't processed in parallel
+        intervalList.add(new Interval("chrC", 1, 1000));
+        intervalList.add(new Interval("chrC", 2000, 3000));
+        gappedIntervals = new File(tempDir, "parallel_wgs_gapped.interval_list");
+        intervalList.write(gappedIntervals);
+
+        // Nor are those of an interval that starts part way through a sequence
+        final IntervalList partialIntervalList = new IntervalList(builder.getHeader());
+        partialIntervalList.add(new Interval("chrA", 1, 20000));
+        partialIntervalList.add(new Interval("chrB", 5000, 15000));
+        partialIntervals = new File(tempDir, "parallel_wgs_partial.interval_list");
+        partialIntervalList.write(partialIntervals);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(tempDir);
+    }
+
+    @DataProvider(name = "parallelArgs")
+    public Object[][] parallelArgs() {
+        return new Object[][]{
+                {null, false, 2, false},
+                {null, true, 4, false},
+                {null, false, 3, true},
+                {"intervals", false, 4, false},
+                {"intervals", true, 3, true},
+                {"gapped", false, 4, false},
+                {"partial", false, 4, false},
+        };
+    }
+
+    @Test(dataProvider = "parallelArgs")
+    public void testParallelMatchesSingleThreaded(final String intervalsName, final boolean countUnpaired, final int numThreads,
+                                                  final boolean memoryMapReference) throws IOException {
+        final File intervalsFile = intervalsName == null ? null :
+                intervalsName.equals("gapped") ? gappedIntervals :
+                intervalsName.equals("partial") ? partialIntervals : intervals;
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> expected = runCollectWgsMetrics(intervalsFile, countUnpaired, 1, false);
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> actual = runCollectWgsMetrics(intervalsFile, countUnpaired, numThreads, memoryMapReference);
+
+        Assert.assertTrue(expected.getMetrics().get(0).MEAN_COVERAGE > 0);
+        Assert.assertTrue(expected.getMetrics().get(0).PCT_EXC_DUPE > 0);
+        Assert.assertTrue(actual.areMetricsEqual(expected), "metrics differ");
+        Assert.assertTrue(actual.areHistogramsEqual(expected), "histograms differ");
+    }
+
+    @Test
+    public void testCanSplitOnlyWholeSequences() {
+        Assert.assertTrue(ParallelWgsMetricsProcessor.canSplit(IntervalList.fromFile(intervals)));
+        Assert.assertFalse(ParallelWgsMetricsProcessor.canSplit(IntervalList.fromFile(gappedIntervals)));
+        Assert.assertFalse(ParallelWgsMetricsProcessor.canSplit(IntervalList.fromFile(partialIntervals)));
+    }
+
+    private MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> runCollectWgsMetrics(final File intervals,
+                                                                                     final boolean countUnpaired,
+                                                                                     final int numThreads,
+                                                                                     final boolean memoryMapReference) throws IOException {
+        final File output = File.createTempFile("wgs_metrics", ".txt", tempDir);
+        final List<String> args = new ArrayList<>(Arrays.asList(
+                "INPUT=" + bam.getAbsolutePath(),
+                "OUTPUT=" + output.getAbsolutePath(),
+                "REFERENCE_SEQUENCE=" + reference.getAbsolutePath(),
+                "USE_FAST_ALGORITHM=true",
+                "READ_LENGTH=" + READ_LENGTH,
+                "COVERAGE_CAP=10",
+                "INCLUDE_BQ_HISTOGRAM=true",
+                "COUNT_UNPAIRED=" + countUnpaired,
+                "NUM_THREADS=" + numThreads,
+                "MEMORY_MAP_REFERENCE=" + memoryMapReference));
+        if (intervals != null) {
+            args.add("INTERVALS=" + intervals.getAbsolutePath());
+        }
+
+        final CollectWgsMetrics program = new CollectWgsMetrics();
+        program.basesPerRegion = BASES_PER_REGION;
+        Assert.assertEquals(program.instanceMain(args.toArray(new String[args.size()])), 0);
+
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> metrics = new MetricsFile<>();
+        try (final FileReader reader = new FileReader(output)) {
+            metrics.read(reader);
+        }
+        return metrics;
+    }
+
+    /**
+     * Adds reads to each sequence, half of them close to the region boundaries, including overlapping mates, duplicates,
+     * reads with low mapping or base qualities, deletions, unpaired reads and stacks deeper than the coverage cap.
+     */
+    private static void addReads(final SAMRecordSetBuilder builder, final Random random) {
+        int readNumber = 0;
+        for (final SAMSequenceRecord sequence : builder.getHeader().getSequenceDictionary().getSequences()) {
+            final int maxStart = sequence.getSequenceLength() - 3 * READ_LENGTH;
+            for (int i = 0; i < 400; ++i) {
+                final int start = (i % 2 == 0) ?
+                        1 + random.nextInt(maxStart) :
+                        Math.max(1, Math.min(maxStart, BASES_PER_REGION * (1 + random.nextInt(maxStart / BASES_PER_REGION)) - random.nextInt(2 * READ_LENGTH)));
+                final int mateStart = start + random.nextInt(2 * READ_LENGTH);
+                final String name = "read" + readNumber++;
+
+                final List<SAMRecord> records = new ArrayList<>();
+                if (i % 13 == 0) {
+                    records.add(builder.addFrag(name, sequence.getSequenceIndex(), start, random.nextBoolean()));
+                } else {
+                    final String cigar = (i % 9 == 0) ? "40M30D60M" : READ_LENGTH + "M";
+                    records.addAll(builder.addPair(name, sequence.getSequenceIndex(), start, mateStart, false, false,
+                            cigar, READ_LENGTH + "M", false, true, 30));
+                }
+
+                for (final SAMRecord rec : records) {
+                    if (i % 7 == 0) rec.setDuplicateReadFlag(true);
+                    if (i % 11 == 0) rec.setMappingQuality(5);
+                    final byte[] qualities = rec.getBaseQualities();
+                    for (int q = 0; q < qualities.length; ++q) {
+                        qualities[q] = (byte) (2 + random.nextInt(39));
+                    }
+                    rec.setBaseQualities(qualities);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordSetBuilder;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import picard.cmdline.CommandLineProgram;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Tests that programs collecting regions of an indexed BAM in parallel produce the same metrics as collecting the
+ * whole BAM in one pass.
+ */
+public class SinglePassSamProgramShardingTest {
+    private static final int READ_LENGTH = 101;
+    // Regions of the BAM with a reference are small enough for reads to straddle their boundaries
+    private static final int BASES_PER_REGION_WITH_REFERENCE = 5000;
+
+    private File tempDir;
+    private File bam;
+    private File bamWithReference;
+    private File reference;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        tempDir = IOUtil.createTempDir("SinglePassSamProgramShardingTest", null);
+
+        // Reads across the default chromosomes, including ones on either side of the region boundaries
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate);
+        builder.setReadLength(READ_LENGTH);
+        addReads(builder, new Random(42), 10000000);
+        bam = writeIndexedBam(builder, "sharding.bam");
+
+        // Reads on a small reference, which is written out along with its index and dictionary
+        final SAMRecordSetBuilder smallBuilder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate);
+        smallBuilder.setReadLength(READ_LENGTH);
+        final SAMSequenceDictionary dictionary = new SAMSequenceDictionary(Arrays.asList(
+                new SAMSequenceRecord("chrA", 20000), new SAMSequenceRecord("chrB", 15000)));
+        smallBuilder.getHeader().setSequenceDictionary(dictionary);
+        addReads(smallBuilder, new Random(7), BASES_PER_REGION_WITH_REFERENCE);
+        bamWithReference = writeIndexedBam(smallBuilder, "sharding_with_reference.bam");
+        reference = writeReference(tempDir, smallBuilder.getHeader(), new Random(11));
+    }
+
+    @AfterClass
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(tempDir);
+    }
+
+    @DataProvider(name = "programs")
+    public Object[][] programs() {
+        return new Object[][]{
+                {(Supplier<CommandLineProgram>) QualityScoreDistribution::new, "CHART=", false},
+                {(Supplier<CommandLineProgram>) CollectInsertSizeMetrics::new, "HISTOGRAM_FILE=", false},
+                {(Supplier<CommandLineProgram>) CollectInsertSizeMetrics::new, "HISTOGRAM_FILE=", true},
+                {(Supplier<CommandLineProgram>) CollectAlignmentSummaryMetrics::new, null, false},
+                {(Supplier<CommandLineProgram>) CollectAlignmentSummaryMetrics::new, null, true},
+                {(Supplier<CommandLineProgram>) CollectGcBiasMetrics::new, "CHART=", true},
+        };
+    }
+
+    @Test(dataProvider = "programs")
+    public void testShardedMatchesSinglePass(final Supplier<CommandLineProgram> program, final String chartArg,
+                                             final boolean withReference) throws IOException {
+        final MetricsFile<?, ?> expected = runProgram(program.get(), chartArg, withReference, 1);
+        final MetricsFile<?, ?> actual = runProgram(program.get(), chartArg, withReference, 4);
+
+        Assert.assertFalse(expected.getMetrics().isEmpty() && expected.getAllHistograms().isEmpty());
+        Assert.assertTrue(actual.areMetricsEqual(expected), "metrics differ");
+        Assert.assertTrue(actual.areHistogramsEqual(expected), "histograms differ");
+    }
+
+    private MetricsFile<?, ?> runProgram(final CommandLineProgram program, final String chartArg,
+                                         final boolean withReference, final int numThreads) throws IOException {
+        final File output = File.createTempFile("metrics", ".txt", tempDir);
+        final List<String> args = new ArrayList<>();
+        args.add("INPUT=" + (withReference ? bamWithReference : bam).getAbsolutePath());
+        args.add("OUTPUT=" + output.getAbsolutePath());
+        args.add("METRIC_ACCUMULATION_LEVEL=ALL_READS");
+        args.add("METRIC_ACCUMULATION_LEVEL=READ_GROUP");
+        args.add("NUM_THREADS=" + numThreads);
+        if (chartArg != null) {
+            args.add(chartArg + File.createTempFile("chart", ".pdf", tempDir).getAbsolutePath());
+        }
+        if (withReference) {
+            args.add("REFERENCE_SEQUENCE=" + reference.getAbsolutePath());
+            ((SinglePassSamProgram) program).basesPerRegion = BASES_PER_REGION_WITH_REFERENCE;
+        }
+        if (program instanceof CollectGcBiasMetrics) {
+            args.add("SUMMARY_OUTPUT=" + File.createTempFile("summary", ".txt", tempDir).getAbsolutePath());
+            args.add("ALSO_IGNORE_DUPLICATES=true");
+        }
+        if (program instanceof QualityScoreDistribution) {
+            args.removeIf(arg -> arg.startsWith("METRIC_ACCUMULATION_LEVEL"));
+        }
+
+        Assert.assertEquals(program.instanceMain(args.toArray(new String[args.size()])), 0);
+
+        final MetricsFile<?, ?> metrics = new MetricsFile<>();
+        try (final FileReader reader = new FileReader(output)) {
+            metrics.read(reader);
+        }
+        return metrics;
+    }
+
+    private static void addReads(final SAMRecordSetBuilder builder, final Random random, final int regionSize) {
+        final List<SAMSequenceRecord> sequences = builder.getHeader().getSequenceDictionary().getSequences();
+        int readNumber = 0;
+        for (final SAMSequenceRecord sequence : sequences) {
+            final int maxStart = Math.min(sequence.getSequenceLength(), 3 * regionSize) - 2 * READ_LENGTH - 500;
+            for (int i = 0; i < 200; ++i) {
+                // half the reads start close to a region boundary
+                final int start = (i % 2 == 0) ?
+                        1 + random.nextInt(maxStart) :
+                        Math.max(1, Math.min(maxStart, regionSize * (1 + random.nextInt(2)) - random.nextInt(2 * READ_LENGTH)));
+                final int insert = 100 + random.nextInt(400);
+                final String name = "pair" + readNumber++;
+                switch (i % 10) {
+                    case 0:
+                        // a mapped read with an unmapped mate
+                        builder.addPair(name, sequence.getSequenceIndex(), start, start, false, true, READ_LENGTH + "M", null,
+                                false, true, 30);
+                        break;
+                    case 1:
+                        builder.addFrag(name, sequence.getSequenceIndex(), start, random.nextBoolean());
+                        break;
+                    default:
+                        builder.addPair(name, sequence.getSequenceIndex(), start, start + insert - READ_LENGTH);
+                }
+            }
+        }
+        for (int i = 0; i < 20; ++i) {
+            builder.addUnmappedPair("unmapped" + i);
+        }
+    }
+
+    private File writeIndexedBam(final SAMRecordSetBuilder builder, final String name) {
+        final File file = new File(tempDir, name);
+        try (final SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true)
+                .makeBAMWriter(builder.getHeader(), true, file)) {
+            for (final SAMRecord rec : builder) {
+                writer.addAlignment(rec);
+            }
+        }
+        return file;
+    }
+
+    /** Writes a random reference for the sequences of the header to dir, along with its index and dictionary. */
+    static File writeReference(final File dir, final SAMFileHeader header, final Random random) throws IOException {
+        final File fasta = new File(dir, "reference.fasta");
+        final int lineLength = 60;
+        try (final PrintWriter fastaWriter = new PrintWriter(fasta);
+             final PrintWriter indexWriter = new PrintWriter(new File(dir, "reference.fasta.fai"))) {
+            long offset = 0;
+            for (final SAMSequenceRecord sequence : header.getSequenceDictionary().getSequences()) {
+                final String nameLine = ">" + sequence.getSequenceName();
+                fastaWriter.println(nameLine);
+                offset += nameLine.length() + 1;
+                indexWriter.println(sequence.getSequenceName() + "\t" + sequence.getSequenceLength() + "\t" + offset +
+                        "\t" + lineLength + "\t" + (lineLength + 1));
+
+                for (int written = 0; written < sequence.getSequenceLength(); written += lineLength) {
+                    final int length = Math.min(lineLength, sequence.getSequenceLength() - written);
+                    final StringBuilder line = new StringBuilder(length);
+                    for (int i = 0; i < length; ++i) {
+                        line.append("ACGT".charAt(random.nextInt(4)));
+                    }
+                    fastaWriter.println(line);
+                    offset += length + 1;
+                }
+            }
+        }
+
+        final SAMFileHeader dictionaryHeader = new SAMFileHeader();
+        dictionaryHeader.setSequenceDictionary(header.getSequenceDictionary());
+        try (final PrintWriter dictWriter = new PrintWriter(new File(dir, "reference.dict"))) {
+            new SAMTextHeaderCodec().encode(dictWriter, dictionaryHeader);
+        }
+        return fasta;
+    }
+}
@@ -1,7 +1,11 @@
 package picard.analysis.directed;
 
+import com.google.common.collect.Lists;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.util.Histogram;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalList;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -10,6 +14,11 @@ import picard.cmdline.CommandLineProgramTest;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class CollectHsMetricsTest extends CommandLineProgramTest {
     private final static File TEST_DIR = new File("testdata/picard/analysis/directed/CollectHsMetrics");
@@ -128,4 +137,63 @@ public class CollectHsMetricsTest extends CommandLineProgramTest {
         Assert.assertEquals(coverageHistogram.get(0).getValue(), 10.0);
         Assert.assertEquals(coverageHistogram.get(1).getValue(), 10.0);
     }
+
+    @Test
+    public void testBinaryPerBaseCoverage() throws IOException {
+        final File tempDir = IOUtil.createTempDir("testBinaryPerBaseCoverage", null);
+        try {
+            final IntervalList targets = new IntervalList(IntervalList.fromFile(new File(TEST_DIR, "chrM.interval_list")).getHeader());
+            targets.add(new Interval("chrM", 1, 50, false, "target-1"));
+            targets.add(new Interval("chrM", 60, 120, false, "target-2"));
+            targets.add(new Interval("chrM", 150, 200, false, null));
+            final File targetIntervals = new File(tempDir, "targets.interval_list");
+            targets.write(targetIntervals);
+
+            final File textCoverage = new File(tempDir, "per_base.txt");
+            final File binaryCoverage = new File(tempDir, "per_base.pbc");
+            for (final File perBaseCoverage : Arrays.asList(textCoverage, binaryCoverage)) {
+                final String[] args = new String[] {
+                        "TARGET_INTERVALS=" + targetIntervals,
+                        "BAIT_INTERVALS=" + targetIntervals,
+                        "INPUT=" + TEST_DIR + "/overlapping.sam",
+                        "OUTPUT=" + new File(tempDir, "hs_metrics"),
+                        "PER_BASE_COVERAGE=" + perBaseCoverage,
+                        "PER_BASE_COVERAGE_FORMAT=" + (perBaseCoverage == textCoverage ? "TEXT" : "BINARY")
+                };
+                Assert.assertEquals(runPicardCommandLine(args), 0);
+            }
+
+            // chrom, pos, target, coverage
+            final List<String> lines = Files.readAllLines(textCoverage.toPath());
+            Assert.assertEquals(lines.size(), 1 + targets.getBaseCount());
+
+            try (final PerBaseCoverageReader reader = new PerBaseCoverageReader(binaryCoverage)) {
+                Assert.assertEquals(reader.getSequenceNames().get(0), "chrM");
+                Assert.assertEquals(reader.getTargets(), targets.getIntervals());
+                Assert.assertEquals(reader.getOverlappingTargets(new Interval("chrM", 100, 160)),
+                        targets.getIntervals().subList(1, 3));
+
+                // read the targets out of order
+                int line = 1;
+                final Map<Interval, int[]> depthsByTarget = new HashMap<>();
+                for (final Interval target : Lists.reverse(reader.getTargets())) {
+                    depthsByTarget.put(target, reader.getDepths(new Interval(target.getContig(), target.getStart(), target.getEnd())));
+                }
+                boolean covered = false;
+                for (final Interval target : targets.getIntervals()) {
+                    final int[] depths = depthsByTarget.get(target);
+                    Assert.assertEquals(depths.length, target.length());
+                    for (int i = 0; i < depths.length; ++i) {
+                        final String[] fields = lines.get(line++).split("\t");
+                        Assert.assertEquals(Integer.parseInt(fields[1]), target.getStart() + i);
+                        Assert.assertEquals(Integer.parseInt(fields[3]), depths[i]);
+                        covered |= depths[i] > 0;
+                    }
+                }
+                Assert.assertTrue(covered);
+            }
+        } finally {
+            IOUtil.deleteDirectoryTree(tempDir);
+        }
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.sam.markduplicates;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import picard.sam.markduplicates.util.ReadEndsForMarkDuplicates;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static picard.sam.markduplicates.MultiThreadedMarkDuplicatesTest.MarkDuplicatesOutput;
+import static picard.sam.markduplicates.MultiThreadedMarkDuplicatesTest.runMarkDuplicates;
+import static picard.sam.markduplicates.MultiThreadedMarkDuplicatesTest.writeDuplicatesBam;
+
+/**
+ * Runs all of the MarkDuplicates tests with COMPACT_READ_ENDS_ENCODING=true, spilling all but a few read ends to disk,
+ * which should give exactly the same results.
+ */
+public class CompactReadEndsMarkDuplicatesTest extends MarkDuplicatesTest {
+
+    @Override
+    protected AbstractMarkDuplicatesCommandLineProgramTester getTester() {
+        return new CompactReadEndsMarkDuplicatesTester();
+    }
+
+    /** A SORTING_COLLECTION_SIZE_RATIO that keeps only about ten read ends in memory, so that the rest are spilled. */
+    private static String spillingSortingCollectionSizeRatio() {
+        return Double.toString(10.0 * ReadEndsForMarkDuplicates.getSizeOf() / Runtime.getRuntime().maxMemory());
+    }
+
+    @DataProvider(name = "barcodeArgs")
+    public Object[][] barcodeArgs() {
+        return new Object[][] {{new String[0]}, {new String[] {"BARCODE_TAG=BC"}}};
+    }
+
+    /** Spills the read ends to disk in the compact encoding, and checks that the results match the default encoding. */
+    @Test(dataProvider = "barcodeArgs")
+    public void testSpilledCompactReadEndsMatchDefaultEncoding(final String[] barcodeArgs) throws IOException {
+        final File tempDir = IOUtil.createTempDir("CompactReadEndsMarkDuplicatesTest", null);
+        try {
+            final File input = writeDuplicatesBam(tempDir, new Random(7));
+            final List<String> args = new ArrayList<>(Arrays.asList(barcodeArgs));
+            args.add("INPUT=" + input.getAbsolutePath());
+            args.add("SORTING_COLLECTION_SIZE_RATIO=" + spillingSortingCollectionSizeRatio());
+            final MarkDuplicatesOutput expected = runMarkDuplicates(new MarkDuplicates(), args, tempDir);
+
+            args.add("COMPACT_READ_ENDS_ENCODING=true");
+            final MarkDuplicatesOutput actual = runMarkDuplicates(new MarkDuplicates(), args, tempDir);
+
+            Assert.assertTrue(expected.records.stream().anyMatch(SAMRecord::getDuplicateReadFlag));
+            actual.assertEquals(expected);
+        } finally {
+            IOUtil.deleteDirectoryTree(tempDir);
+        }
+    }
+
+    private static class CompactReadEndsMarkDuplicatesTester extends MarkDuplicatesTester {
+        @Override
+        public void runTest() {
+            addArg("COMPACT_READ_ENDS_ENCODING=true");
+            addArg("SORTING_COLLECTION_SIZE_RATIO=" + spillingSortingCollectionSizeRatio());
+            super.runTest();
+        }
+    }
+}
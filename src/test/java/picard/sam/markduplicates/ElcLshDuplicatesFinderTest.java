@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.sam.markduplicates;
+
+import htsjdk.samtools.util.Histogram;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static picard.sam.markduplicates.EstimateLibraryComplexity.PairedReadSequence;
+
+public class ElcLshDuplicatesFinderTest extends ElcIdenticalBasesDuplicatesFinderTest {
+
+    private ElcDuplicatesFinder duplicatesFinder = new ElcLshDuplicatesFinder(
+            MAX_DIFF_RATE,
+            MAX_READ_LENGTH,
+            MIN_IDENTICAL_BASES,
+            OPTICAL_DUPLICATE_FINDER
+    );
+
+    @DataProvider(name = "searchDuplicatesDataProvider")
+    public Object[][] searchDuplicatesDataProvider() {
+        return new Object[][]{
+                // empty dups, that mean increment first bin
+                {duplicatesFinder, new Histogram<>(), new Histogram<>(), generatePairedReadSequences(1, false), 1, 0, 0},
+                // 10 dups, that mean increment 10 bin
+                {duplicatesFinder, new Histogram<>(), new Histogram<>(), generatePairedReadSequences(10, false), 10, 0, 0},
+                // 10 paired-reads but only 9 dupes, that mean increment 9 bin
+                {duplicatesFinder, new Histogram<>(), new Histogram<>(), generateSeqsWithNoDup(10, true), 9, 0, 0},
+                // 10 dups, that mean increment 10 bin and isOpticalDuplicates is true, then
+                // increment opticalHisto 10 bin 9 times
+                {duplicatesFinder, new Histogram<>(), new Histogram<>(), generatePairedReadSequences(10, true), 10, 10, 9},
+                // 10 paired-reads but only 9 dupes, that mean increment 9 bin and isOpticalDuplicates is true, then
+                // increment opticalHisto 9 bin 8 times
+                {duplicatesFinder, new Histogram<>(), new Histogram<>(), generateSeqsWithNoDup(10, true), 9, 9, 8}
+        };
+    }
+
+    @Test(dataProvider = "searchDuplicatesDataProvider")
+    public void testSearchDuplicates(ElcDuplicatesFinder duplicatesFinder,
+                                     Histogram<Integer> duplicationHisto,
+                                     Histogram<Integer> opticalHisto,
+                                     ArrayList<PairedReadSequence> dupes,
+                                     int dupHistoIndex,
+                                     int optHistoIndex,
+                                     int optHistoValue) throws Exception {
+        super.testSearchDuplicates(
+                duplicatesFinder,
+                duplicationHisto,
+                opticalHisto,
+                dupes,
+                dupHistoIndex,
+                optHistoIndex,
+                optHistoValue
+        );
+    }
+
+    @DataProvider(name = "randomGroupsDataProvider")
+    public Object[][] randomGroupsDataProvider() {
+        return new Object[][]{
+                // number of distinct molecules, maximum copies of each, read length, maximum errors per copy
+                {50, 5, 100, 6},
+                {200, 10, 76, 4},
+                {500, 3, 151, 10},
+                {100, 20, 36, 2}
+        };
+    }
+
+    /**
+     * Searching a group with the index finds the same duplicates as comparing every pair of reads, including
+     * copies with as many errors as the maximum difference rate allows, and copies of differing lengths.
+     */
+    @Test(dataProvider = "randomGroupsDataProvider")
+    public void testMatchesComparingAllPairs(final int molecules, final int maxCopies, final int readLength, final int maxErrors) {
+        final Random random = new Random(molecules * readLength);
+        final List<PairedReadSequence> sequences = new ArrayList<>();
+        for (int m = 0; m < molecules; ++m) {
+            final byte[] read1 = randomBases(random, readLength);
+            final byte[] read2 = randomBases(random, readLength);
+            final int copies = 1 + random.nextInt(maxCopies);
+            for (int c = 0; c < copies; ++c) {
+                final PairedReadSequence prs = new PairedReadSequence();
+                final int trimmed = random.nextInt(4);
+                prs.read1 = mutate(random, read1, readLength - trimmed, random.nextInt(maxErrors + 1));
+                prs.read2 = mutate(random, read2, readLength, random.nextInt(maxErrors + 1));
+                prs.setReadGroup((short) 1);
+                prs.setTile((short) (1 + random.nextInt(2)));
+                prs.setX(random.nextInt(1000));
+                prs.setY(random.nextInt(1000));
+                sequences.add(prs);
+            }
+        }
+        // the reads of a group share their first MIN_IDENTICAL_BASES bases
+        for (final PairedReadSequence prs : sequences) {
+            for (int i = 0; i < MIN_IDENTICAL_BASES; ++i) {
+                prs.read1[i] = 'A';
+                prs.read2[i] = 'C';
+            }
+        }
+
+        final Histogram<Integer> expectedDuplicationHisto = new Histogram<>();
+        final Histogram<Integer> expectedOpticalHisto = new Histogram<>();
+        new ElcIdenticalBasesDuplicatesFinder(MAX_DIFF_RATE, MAX_READ_LENGTH, MIN_IDENTICAL_BASES, false, OPTICAL_DUPLICATE_FINDER)
+                .searchDuplicates(new ArrayList<>(sequences), expectedDuplicationHisto, expectedOpticalHisto);
+
+        final Histogram<Integer> duplicationHisto = new Histogram<>();
+        final Histogram<Integer> opticalHisto = new Histogram<>();
+        duplicatesFinder.searchDuplicates(sequences, duplicationHisto, opticalHisto);
+
+        Assert.assertEquals(duplicationHisto, expectedDuplicationHisto);
+        Assert.assertEquals(opticalHisto, expectedOpticalHisto);
+        Assert.assertTrue(duplicationHisto.getSumOfValues() < sequences.size());
+    }
+
+    private static byte[] randomBases(final Random random, final int length) {
+        final byte[] bases = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bases[i] = (byte) "ACGT".charAt(random.nextInt(4));
+        }
+        return bases;
+    }
+
+    private static byte[] mutate(final Random random, final byte[] read, final int length, final int errors) {
+        final byte[] copy = new byte[length];
+        System.arraycopy(read, 0, copy, 0, length);
+        for (int e = 0; e < errors; ++e) {
+            final int position = random.nextInt(length);
+            copy[position] = copy[position] == 'A' ? (byte) 'G' : (byte) 'A';
+        }
+        return copy;
+    }
+}
@@ -110,6 +110,25 @@ public class EstimateLibraryComplexityTest extends CommandLineProgramTest {
         examineMetricsFile(output, numDuplicates, numReadPairsExamined);
     }
 
+    /**
+     * Finds the same duplicates when searching on multiple threads.
+     */
+    @Test(dataProvider = "testSimpleDuplicate")
+    public void testSimpleDuplicateMultiThreaded(final String testName, final int numDuplicates, final int numReadPairsExamined) throws IOException {
+        final File input = new File(TEST_DATA_DIR, testName);
+        final File output = File.createTempFile("estimateLibraryComplexity", ".els_metrics");
+        output.deleteOnExit();
+
+        final List<String> args = new ArrayList<>();
+        args.add("INPUT=" + input.getAbsolutePath());
+        args.add("OUTPUT=" + output.getAbsolutePath());
+        args.add("MIN_GROUP_COUNT=1");
+        args.add("NUM_THREADS=4");
+
+        Assert.assertEquals(runPicardCommandLine(args), 0);
+        examineMetricsFile(output, numDuplicates, numReadPairsExamined);
+    }
+
     /**
      * Finds duplicates as expected ignoring secondary and supplementary records.
      */
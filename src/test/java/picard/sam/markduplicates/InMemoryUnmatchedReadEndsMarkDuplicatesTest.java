@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.sam.markduplicates;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static picard.sam.markduplicates.MultiThreadedMarkDuplicatesTest.MarkDuplicatesOutput;
+import static picard.sam.markduplicates.MultiThreadedMarkDuplicatesTest.runMarkDuplicates;
+import static picard.sam.markduplicates.MultiThreadedMarkDuplicatesTest.writeDuplicatesBam;
+
+/**
+ * Runs all of the MarkDuplicates tests with KEEP_UNMATCHED_READ_ENDS_IN_MEMORY=true, which should give exactly the
+ * same results.
+ */
+public class InMemoryUnmatchedReadEndsMarkDuplicatesTest extends MarkDuplicatesTest {
+
+    @Override
+    protected AbstractMarkDuplicatesCommandLineProgramTester getTester() {
+        return new InMemoryUnmatchedReadEndsMarkDuplicatesTester();
+    }
+
+    /** Checks that keeping the read ends waiting for their mates in memory gives the same flags and metrics. */
+    @Test
+    public void testInMemoryUnmatchedReadEndsMatchDefault() throws IOException {
+        final File tempDir = IOUtil.createTempDir("InMemoryUnmatchedReadEndsMarkDuplicatesTest", null);
+        try {
+            final File input = writeDuplicatesBam(tempDir, new Random(11));
+            final List<String> args = new ArrayList<>(Collections.singletonList("INPUT=" + input.getAbsolutePath()));
+            final MarkDuplicatesOutput expected = runMarkDuplicates(new MarkDuplicates(), args, tempDir);
+
+            args.add("KEEP_UNMATCHED_READ_ENDS_IN_MEMORY=true");
+            final MarkDuplicatesOutput actual = runMarkDuplicates(new MarkDuplicates(), args, tempDir);
+
+            Assert.assertTrue(expected.records.stream().anyMatch(SAMRecord::getDuplicateReadFlag));
+            actual.assertEquals(expected);
+        } finally {
+            IOUtil.deleteDirectoryTree(tempDir);
+        }
+    }
+
+    private static class InMemoryUnmatchedReadEndsMarkDuplicatesTester extends MarkDuplicatesTester {
+        @Override
+        public void runTest() {
+            addArg("KEEP_UNMATCHED_READ_ENDS_IN_MEMORY=true");
+            super.runTest();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.sam.markduplicates;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordSetBuilder;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import picard.sam.DuplicationMetrics;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs all of the MarkDuplicates tests with NUM_THREADS > 1, which should give exactly the same results.
+ */
+public class MultiThreadedMarkDuplicatesTest extends MarkDuplicatesTest {
+
+    @Override
+    protected AbstractMarkDuplicatesCommandLineProgramTester getTester() {
+        return new MultiThreadedMarkDuplicatesTester();
+    }
+
+    @DataProvider(name = "readEndsBatchSizes")
+    public Object[][] readEndsBatchSizes() {
+        return new Object[][] {{1}, {3}, {17}};
+    }
+
+    /**
+     * Sends the read ends and duplicate sets to the worker threads in many small batches, so that they have to be
+     * merged back in order, and checks that the results are the same as those of a single thread.
+     */
+    @Test(dataProvider = "readEndsBatchSizes")
+    public void testManySmallBatchesMatchSingleThreaded(final int readEndsBatchSize) throws IOException {
+        final File tempDir = IOUtil.createTempDir("MultiThreadedMarkDuplicatesTest", null);
+        try {
+            final File input = writeDuplicatesBam(tempDir, new Random(readEndsBatchSize));
+            final List<String> args = Arrays.asList("INPUT=" + input.getAbsolutePath(), "TAG_DUPLICATE_SET_MEMBERS=true");
+
+            final MarkDuplicates singleThreaded = new MarkDuplicates();
+            final MarkDuplicatesOutput expected = runMarkDuplicates(singleThreaded, args, tempDir);
+
+            final MarkDuplicates multiThreaded = new MarkDuplicates();
+            multiThreaded.readEndsBatchSize = readEndsBatchSize;
+            final List<String> multiThreadedArgs = new ArrayList<>(args);
+            multiThreadedArgs.add("NUM_THREADS=4");
+            final MarkDuplicatesOutput actual = runMarkDuplicates(multiThreaded, multiThreadedArgs, tempDir);
+
+            Assert.assertTrue(expected.records.stream().anyMatch(SAMRecord::getDuplicateReadFlag));
+            Assert.assertTrue(expected.metrics.getMetrics().get(0).READ_PAIR_OPTICAL_DUPLICATES > 0);
+            actual.assertEquals(expected);
+        } finally {
+            IOUtil.deleteDirectoryTree(tempDir);
+        }
+    }
+
+    /**
+     * Writes a coordinate sorted BAM of read pairs and fragments piled up at a few positions, with read names whose
+     * coordinates put some of them close enough together to be optical duplicates.
+     */
+    static File writeDuplicatesBam(final File tempDir, final Random random) {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate);
+        for (int i = 0; i < 1000; ++i) {
+            final String name = "READ" + i + ":1:" + (1 + random.nextInt(2)) + ":" + random.nextInt(500) + ":" + random.nextInt(500);
+            final int start = 1 + 100 * random.nextInt(20);
+            if (random.nextInt(10) == 0) {
+                builder.addFrag(name, random.nextInt(2), start, random.nextBoolean());
+            } else {
+                builder.addPair(name, random.nextInt(2), start, start + 100 * random.nextInt(4));
+            }
+        }
+
+        final File bam = new File(tempDir, "duplicates.bam");
+        try (final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(builder.getHeader(), true, bam)) {
+            for (final SAMRecord rec : builder) {
+                writer.addAlignment(rec);
+            }
+        }
+        return bam;
+    }
+
+    /** Runs the given MarkDuplicates with the given arguments, and reads back its output. */
+    static MarkDuplicatesOutput runMarkDuplicates(final MarkDuplicates markDuplicates, final List<String> args, final File tempDir) throws IOException {
+        final File output = File.createTempFile("markDuplicates", ".bam", tempDir);
+        final File metrics = File.createTempFile("markDuplicates", ".duplicate_metrics", tempDir);
+        final List<String> allArgs = new ArrayList<>(args);
+        allArgs.add("OUTPUT=" + output.getAbsolutePath());
+        allArgs.add("METRICS_FILE=" + metrics.getAbsolutePath());
+        allArgs.add("TMP_DIR=" + tempDir.getAbsolutePath());
+        Assert.assertEquals(markDuplicates.instanceMain(allArgs.toArray(new String[allArgs.size()])), 0);
+
+        final MarkDuplicatesOutput result = new MarkDuplicatesOutput();
+        try (final SamReader reader = SamReaderFactory.makeDefault().open(output)) {
+            for (final SAMRecord rec : reader) {
+                result.records.add(rec);
+            }
+        }
+        result.metrics.read(new FileReader(metrics));
+        return result;
+    }
+
+    /** The records and metrics written by a run of MarkDuplicates. */
+    static final class MarkDuplicatesOutput {
+        final List<SAMRecord> records = new ArrayList<>();
+        final MetricsFile<DuplicationMetrics, Comparable<?>> metrics = new MetricsFile<>();
+
+        void assertEquals(final MarkDuplicatesOutput expected) {
+            Assert.assertEquals(records.size(), expected.records.size());
+            for (int i = 0; i < records.size(); ++i) {
+                Assert.assertEquals(records.get(i).getSAMString(), expected.records.get(i).getSAMString());
+            }
+            Assert.assertTrue(metrics.areMetricsEqual(expected.metrics));
+        }
+    }
+
+    private static class MultiThreadedMarkDuplicatesTester extends MarkDuplicatesTester {
+        @Override
+        public void runTest() {
+            addArg("NUM_THREADS=4");
+            super.runTest();
+        }
+    }
+}
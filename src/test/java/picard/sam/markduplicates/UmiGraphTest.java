@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates;
+
+import htsjdk.samtools.util.StringUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests that the UMIs UmiGraph finds to be within a given edit distance of each other are those found by comparing
+ * all pairs of UMIs.
+ */
+public class UmiGraphTest {
+
+    @DataProvider(name = "findNeighborsDataProvider")
+    public Object[][] findNeighborsDataProvider() {
+        return new Object[][]{
+                // number of UMIs, UMI length, max edit distance to join
+                {500, 8, 1},
+                {500, 6, 2},
+                {200, 12, 3},
+                {100, 4, 0},
+                {50, 3, 3},  // fewer bases than segments, so all pairs are compared
+                {1, 6, 1},
+                {0, 6, 1}
+        };
+    }
+
+    @Test(dataProvider = "findNeighborsDataProvider")
+    public void testFindNeighbors(final int numUmis, final int umiLength, final int maxEditDistanceToJoin) {
+        final Random random = new Random(numUmis + umiLength);
+        final Set<String> umiSet = new LinkedHashSet<>();
+        while (umiSet.size() < numUmis) {
+            final StringBuilder umi = new StringBuilder();
+            for (int i = 0; i < umiLength; i++) {
+                umi.append("ACGTN".charAt(random.nextInt(5)));
+            }
+            umiSet.add(umi.toString());
+        }
+        final String[] umis = umiSet.toArray(new String[0]);
+
+        final int[][] neighbors = UmiGraph.findNeighbors(umis, maxEditDistanceToJoin);
+
+        Assert.assertEquals(neighbors.length, umis.length);
+        for (int i = 0; i < umis.length; i++) {
+            final List<Integer> expected = new ArrayList<>();
+            for (int j = i + 1; j < umis.length; j++) {
+                if (StringUtil.isWithinHammingDistance(umis[i], umis[j], maxEditDistanceToJoin)) {
+                    expected.add(j);
+                }
+            }
+            final List<Integer> actual = new ArrayList<>();
+            for (final int j : neighbors[i]) {
+                actual.add(j);
+            }
+            Assert.assertEquals(actual, expected, "Neighbors of " + umis[i]);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testFindNeighborsOfDifferingLengths() {
+        UmiGraph.findNeighbors(new String[]{"AAAA", "A"}, 1);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates.util;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class BitmapDuplicateIndexCollectionTest {
+
+    @DataProvider(name = "indexesToAdd")
+    public Object[][] indexesToAdd() {
+        final Random random = new Random(42);
+        final List<Long> sparse = new ArrayList<>();
+        final List<Long> dense = new ArrayList<>();
+        final List<Long> mixed = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            sparse.add((long) random.nextInt(Integer.MAX_VALUE));
+        }
+        for (int i = 0; i < 50000; ++i) {
+            dense.add((long) random.nextInt(100000));
+        }
+        for (int i = 0; i < 10000; ++i) {
+            mixed.add(random.nextBoolean() ? random.nextInt(65536) : 5000000000L + random.nextInt(1000));
+        }
+        final List<Long> edges = new ArrayList<>();
+        for (final long index : new long[]{0, 65535, 65536, 65537, 131071, 63, 64, 1L << 40}) {
+            edges.add(index);
+            edges.add(index); // indexes added twice are only returned once
+        }
+        return new Object[][]{{new ArrayList<Long>()}, {sparse}, {dense}, {mixed}, {edges}};
+    }
+
+    @Test(dataProvider = "indexesToAdd")
+    public void testAddAndIterate(final List<Long> indexes) {
+        final BitmapDuplicateIndexCollection collection = new BitmapDuplicateIndexCollection();
+        indexes.forEach(collection::add);
+        final TreeSet<Long> expected = new TreeSet<>(indexes);
+
+        Assert.assertEquals(collection.size(), expected.size());
+        for (final long index : expected) {
+            Assert.assertTrue(collection.contains(index));
+            Assert.assertFalse(collection.contains(index + 1) && !expected.contains(index + 1));
+        }
+
+        collection.doneAddingStartIteration();
+        for (final long index : expected) {
+            Assert.assertTrue(collection.hasNext());
+            Assert.assertEquals(collection.next(), index);
+        }
+        Assert.assertFalse(collection.hasNext());
+        collection.cleanup();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testAddAfterIterationStarted() {
+        final BitmapDuplicateIndexCollection collection = new BitmapDuplicateIndexCollection();
+        collection.add(1);
+        collection.doneAddingStartIteration();
+        collection.add(2);
+    }
+}
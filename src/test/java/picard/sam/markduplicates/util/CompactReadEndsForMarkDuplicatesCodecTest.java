@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates.util;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.SortingCollection;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class CompactReadEndsForMarkDuplicatesCodecTest {
+
+    private static final Comparator<ReadEndsForMarkDuplicates> COMPARATOR = Comparator
+            .comparingInt((ReadEndsForMarkDuplicates r) -> r.libraryId)
+            .thenComparingInt(r -> r.read1ReferenceIndex)
+            .thenComparingInt(r -> r.read1Coordinate)
+            .thenComparingInt(r -> r.orientation)
+            .thenComparingLong(r -> r.read1IndexInFile);
+
+    @DataProvider(name = "codecs")
+    public Object[][] codecs() {
+        return new Object[][]{
+                {new ReadEndsForMarkDuplicatesCodec(), new CompactReadEndsForMarkDuplicatesCodec(), false},
+                {new ReadEndsForMarkDuplicatesCodec(), new CompactReadEndsForMarkDuplicatesCodec(false), false},
+                {new ReadEndsForMarkDuplicatesWithBarcodesCodec(), new CompactReadEndsForMarkDuplicatesWithBarcodesCodec(), true},
+                {new ReadEndsForMarkDuplicatesWithBarcodesCodec(), new CompactReadEndsForMarkDuplicatesWithBarcodesCodec(false), true},
+        };
+    }
+
+    @Test(dataProvider = "codecs")
+    public void testRoundTripIsSmaller(final ReadEndsForMarkDuplicatesCodec standardCodec,
+                                       final CompactReadEndsForMarkDuplicatesCodec compactCodec,
+                                       final boolean useBarcodes) {
+        final List<ReadEndsForMarkDuplicates> reads = makeReadEnds(10000, useBarcodes);
+        reads.sort(COMPARATOR);
+
+        final ByteArrayOutputStream standardBytes = new ByteArrayOutputStream();
+        standardCodec.setOutputStream(standardBytes);
+        reads.forEach(standardCodec::encode);
+
+        final ByteArrayOutputStream compactBytes = new ByteArrayOutputStream();
+        compactCodec.setOutputStream(compactBytes);
+        reads.forEach(compactCodec::encode);
+
+        Assert.assertTrue(compactBytes.size() < standardBytes.size() * 0.75,
+                "compact: " + compactBytes.size() + " standard: " + standardBytes.size());
+
+        compactCodec.setInputStream(new ByteArrayInputStream(compactBytes.toByteArray()));
+        for (final ReadEndsForMarkDuplicates expected : reads) {
+            assertReadEndsEqual(compactCodec.decode(), expected, useBarcodes);
+        }
+        Assert.assertNull(compactCodec.decode());
+    }
+
+    @Test
+    public void testSortingCollectionSpill() {
+        final List<ReadEndsForMarkDuplicates> reads = makeReadEnds(5000, false);
+        final SortingCollection<ReadEndsForMarkDuplicates> sorter = SortingCollection.newInstance(ReadEndsForMarkDuplicates.class,
+                new CompactReadEndsForMarkDuplicatesCodec(), COMPARATOR, 500);
+        reads.forEach(sorter::add);
+        sorter.doneAdding();
+
+        reads.sort(COMPARATOR);
+        try (final CloseableIterator<ReadEndsForMarkDuplicates> iterator = sorter.iterator()) {
+            for (final ReadEndsForMarkDuplicates expected : reads) {
+                Assert.assertTrue(iterator.hasNext());
+                assertReadEndsEqual(iterator.next(), expected, false);
+            }
+            Assert.assertFalse(iterator.hasNext());
+        }
+        sorter.cleanup();
+    }
+
+    @Test
+    public void testDiskBasedMap() {
+        final List<ReadEndsForMarkDuplicates> reads = makeReadEnds(1000, false);
+        final ReadEndsForMarkDuplicatesMap map = new DiskBasedReadEndsForMarkDuplicatesMap(10, new CompactReadEndsForMarkDuplicatesCodec(false));
+        for (int i = 0; i < reads.size(); ++i) {
+            map.put(reads.get(i).read2ReferenceIndex, "read" + i, reads.get(i));
+        }
+        // removing from each reference index in turn forces the map to read back what it has written to disk
+        for (int i = 0; i < reads.size(); ++i) {
+            assertReadEndsEqual(map.remove(reads.get(i).read2ReferenceIndex, "read" + i), reads.get(i), false);
+        }
+        Assert.assertEquals(map.size(), 0);
+    }
+
+    private List<ReadEndsForMarkDuplicates> makeReadEnds(final int n, final boolean useBarcodes) {
+        final Random random = new Random(n);
+        final List<ReadEndsForMarkDuplicates> reads = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            final ReadEndsForMarkDuplicates read = useBarcodes ? new ReadEndsForMarkDuplicatesWithBarcodes() : new ReadEndsForMarkDuplicates();
+            read.score = (short) random.nextInt(5000);
+            read.libraryId = (short) (1 + random.nextInt(2));
+            read.read1ReferenceIndex = random.nextInt(3);
+            read.read1Coordinate = 1 + random.nextInt(1000000);
+            read.read1IndexInFile = random.nextInt(10000000);
+            if (random.nextBoolean()) {
+                read.orientation = (byte) (ReadEnds.FF + random.nextInt(4));
+                read.read2ReferenceIndex = random.nextInt(10) == 0 ? random.nextInt(3) : read.read1ReferenceIndex;
+                read.read2Coordinate = read.read1Coordinate + random.nextInt(1000) - 100;
+                read.read2IndexInFile = read.read1IndexInFile + random.nextInt(100000) - 50000;
+                read.orientationForOpticalDuplicates = (byte) (ReadEnds.FF + random.nextInt(4));
+            } else {
+                read.orientation = (byte) random.nextInt(2);
+            }
+            read.readGroup = (short) random.nextInt(4);
+            read.tile = (short) (1101 + random.nextInt(100));
+            read.x = random.nextInt(Short.MAX_VALUE);
+            read.y = random.nextInt(Short.MAX_VALUE);
+            if (useBarcodes) {
+                final ReadEndsForMarkDuplicatesWithBarcodes readWithBarcodes = (ReadEndsForMarkDuplicatesWithBarcodes) read;
+                readWithBarcodes.barcode = random.nextInt();
+                readWithBarcodes.readOneBarcode = random.nextInt();
+                readWithBarcodes.readTwoBarcode = random.nextInt();
+            }
+            reads.add(read);
+        }
+        return reads;
+    }
+
+    private void assertReadEndsEqual(final ReadEndsForMarkDuplicates actual, final ReadEndsForMarkDuplicates expected, final boolean useBarcodes) {
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(actual.score, expected.score);
+        Assert.assertEquals(actual.libraryId, expected.libraryId);
+        Assert.assertEquals(actual.orientation, expected.orientation);
+        Assert.assertEquals(actual.read1ReferenceIndex, expected.read1ReferenceIndex);
+        Assert.assertEquals(actual.read1Coordinate, expected.read1Coordinate);
+        Assert.assertEquals(actual.read1IndexInFile, expected.read1IndexInFile);
+        Assert.assertEquals(actual.read2ReferenceIndex, expected.read2ReferenceIndex);
+        Assert.assertEquals(actual.read2Coordinate, expected.read2Coordinate);
+        Assert.assertEquals(actual.read2IndexInFile, expected.read2IndexInFile);
+        Assert.assertEquals(actual.readGroup, expected.readGroup);
+        Assert.assertEquals(actual.tile, expected.tile);
+        Assert.assertEquals(actual.x, expected.x);
+        Assert.assertEquals(actual.y, expected.y);
+        Assert.assertEquals(actual.orientationForOpticalDuplicates, expected.orientationForOpticalDuplicates);
+        Assert.assertEquals(actual.duplicateSetSize, expected.duplicateSetSize);
+        if (useBarcodes) {
+            Assert.assertEquals(((ReadEndsForMarkDuplicatesWithBarcodes) actual).barcode, ((ReadEndsForMarkDuplicatesWithBarcodes) expected).barcode);
+            Assert.assertEquals(((ReadEndsForMarkDuplicatesWithBarcodes) actual).readOneBarcode, ((ReadEndsForMarkDuplicatesWithBarcodes) expected).readOneBarcode);
+            Assert.assertEquals(((ReadEndsForMarkDuplicatesWithBarcodes) actual).readTwoBarcode, ((ReadEndsForMarkDuplicatesWithBarcodes) expected).readTwoBarcode);
+        }
+    }
+}
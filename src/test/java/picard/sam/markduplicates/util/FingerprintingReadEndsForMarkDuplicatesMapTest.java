@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam.markduplicates.util;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class FingerprintingReadEndsForMarkDuplicatesMapTest {
+
+    @Test
+    public void testPutAndRemove() {
+        final ReadEndsForMarkDuplicatesMap map = new FingerprintingReadEndsForMarkDuplicatesMap();
+        final Random random = new Random(7);
+        final List<Integer> order = new ArrayList<>();
+        final List<ReadEndsForMarkDuplicates> readEnds = new ArrayList<>();
+        final int n = 50000;
+
+        for (int i = 0; i < n; ++i) {
+            final ReadEndsForMarkDuplicates ends = new ReadEndsForMarkDuplicates();
+            ends.read1IndexInFile = i;
+            readEnds.add(ends);
+            map.put(i % 25, key(i), ends);
+            order.add(i);
+        }
+        Assert.assertEquals(map.size(), n);
+        Assert.assertEquals(map.sizeInRam(), n);
+
+        // keys absent from the map, including present keys under the wrong sequence index, are not found
+        Assert.assertNull(map.remove(0, key(n)));
+        Assert.assertNull(map.remove(1, key(0)));
+
+        // remove in a random order, interleaved with re-adding some, so that deletions hit all parts of probe runs
+        Collections.shuffle(order, random);
+        for (final int i : order) {
+            Assert.assertSame(map.remove(i % 25, key(i)), readEnds.get(i));
+            if (random.nextInt(10) == 0) {
+                map.put(i % 25, key(i), readEnds.get(i));
+                Assert.assertSame(map.remove(i % 25, key(i)), readEnds.get(i));
+            }
+        }
+        Assert.assertEquals(map.size(), 0);
+    }
+
+    @DataProvider(name = "maps")
+    public Object[][] maps() {
+        return new Object[][]{{new FingerprintingReadEndsForMarkDuplicatesMap()}, {new MemoryBasedReadEndsForMarkDuplicatesMap()}};
+    }
+
+    /** A repeated key replaces the entry, as it does in the other implementations. */
+    @Test(dataProvider = "maps")
+    public void testRepeatedKeyReplacesEntry(final ReadEndsForMarkDuplicatesMap map) {
+        final ReadEndsForMarkDuplicates first = new ReadEndsForMarkDuplicates();
+        final ReadEndsForMarkDuplicates second = new ReadEndsForMarkDuplicates();
+
+        map.put(3, "rg1:read", first);
+        map.put(3, "rg1:read", second);
+        Assert.assertEquals(map.size(), 1);
+        Assert.assertSame(map.remove(3, "rg1:read"), second);
+        Assert.assertNull(map.remove(3, "rg1:read"));
+        Assert.assertEquals(map.size(), 0);
+    }
+
+    private static String key(final int i) {
+        return "rg" + (i % 3) + ":H0164ALXX140820:2:1101:" + (10000 + i) + ":" + (1800 + i % 1000);
+    }
+}
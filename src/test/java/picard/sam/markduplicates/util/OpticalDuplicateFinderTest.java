@@ -1,6 +1,7 @@
 package picard.sam.markduplicates.util;
 
 import htsjdk.samtools.util.Log;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import org.testng.Assert;
 import picard.sam.util.PhysicalLocation;
@@ -142,6 +143,72 @@ public class OpticalDuplicateFinderTest {
         Assert.assertEquals(countTrue(constrainedFinder.findOpticalDuplicates(locs, null)), 0);
     }
 
+    @Test
+    public void testNoMaxSetSize() {
+        final Log log = Log.getInstance(OpticalDuplicateFinderTest.class);
+        List<PhysicalLocation> locs = Arrays.asList(
+                loc(7, 1500, 1500),
+                loc(7, 1501, 1501),
+                loc(7, 1490, 1502));
+
+        // a negative maximum set size disables the check altogether
+        final OpticalDuplicateFinder unconstrainedFinder = new OpticalDuplicateFinder(OpticalDuplicateFinder.DEFAULT_READ_NAME_REGEX, 100, -1, log);
+        Assert.assertEquals(countTrue(unconstrainedFinder.findOpticalDuplicates(locs, null)), 2);
+    }
+
+    @DataProvider(name = "largeSetsData")
+    public Object[][] largeSetsData() {
+        return new Object[][]{
+                // set size, pixel distance, number of tiles, extent of x/y coordinates
+                {OpticalDuplicateFinder.MIN_SET_SIZE_FOR_SPATIAL_INDEX, 100, 1, 1000},
+                {1000, 100, 2, 5000},
+                {5000, 2500, 4, 30000},
+                {2000, 0, 1, 50},
+                {2000, 100, 1, 300},
+        };
+    }
+
+    /** Tests that large sets, which are compared using a spatial index, give the same results as comparing all pairs. */
+    @Test(dataProvider = "largeSetsData")
+    public void testLargeSetsMatchExhaustiveComparison(final int size, final int distance, final int tiles, final int extent) {
+        final Log log = Log.getInstance(OpticalDuplicateFinderTest.class);
+        final OpticalDuplicateFinder finder = new OpticalDuplicateFinder(OpticalDuplicateFinder.DEFAULT_READ_NAME_REGEX, distance, log);
+        final Random random = new Random(size + distance);
+
+        final List<PhysicalLocation> locs = new ArrayList<>();
+        for (int i = 0; i < size; ++i) {
+            locs.add(loc(1 + random.nextInt(tiles), random.nextInt(extent), random.nextInt(extent)));
+        }
+
+        for (final PhysicalLocation keeper : Arrays.asList(null, locs.get(0), locs.get(size / 2))) {
+            assertEquals(finder.findOpticalDuplicates(locs, keeper), findOpticalDuplicatesExhaustively(locs, keeper, distance));
+        }
+    }
+
+    /** Reference implementation that compares every pair of reads. */
+    private boolean[] findOpticalDuplicatesExhaustively(final List<PhysicalLocation> locs, final PhysicalLocation keeper, final int distance) {
+        final boolean[] flags = new boolean[locs.size()];
+        for (int i = 0; i < locs.size(); ++i) {
+            flags[i] = keeper != null && locs.get(i) != keeper && closeEnough(keeper, locs.get(i), distance);
+        }
+        for (int i = 0; i < locs.size(); ++i) {
+            if (locs.get(i) == keeper) continue;
+            for (int j = i + 1; j < locs.size(); ++j) {
+                if (locs.get(j) == keeper || (flags[i] && flags[j])) continue;
+                if (closeEnough(locs.get(i), locs.get(j), distance)) {
+                    flags[flags[j] ? i : j] = true;
+                }
+            }
+        }
+        return flags;
+    }
+
+    private boolean closeEnough(final PhysicalLocation lhs, final PhysicalLocation rhs, final int distance) {
+        return lhs.getTile() == rhs.getTile() &&
+                Math.abs(lhs.getX() - rhs.getX()) <= distance &&
+                Math.abs(lhs.getY() - rhs.getY()) <= distance;
+    }
+
     /** Helper method to create a physical location. */
     private PhysicalLocation loc(final int tile, final int x, final int y) {
         final PhysicalLocation l = new PhysicalLocationInt() {
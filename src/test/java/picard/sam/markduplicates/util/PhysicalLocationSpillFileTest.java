@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.sam.markduplicates.util;
+
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PhysicalLocationSpillFileTest {
+    private File tempDir;
+
+    @BeforeMethod
+    public void setup() {
+        tempDir = IOUtil.createTempDir("PhysicalLocationSpillFileTest", null);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(tempDir);
+    }
+
+    @Test
+    public void testChunksAreReadBackAfterCompaction() {
+        final PhysicalLocationSpillFile spillFile = new PhysicalLocationSpillFile(tempDir);
+        spillFile.minReleasedBytesToCompact = 10;
+
+        final List<PhysicalLocationSpillFile.Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            chunks.add(spillFile.write(bytes(i)));
+        }
+        Assert.assertEquals(spillFile.length(), 10 * bytes(0).length);
+
+        // releasing the earlier chunks moves the later ones down to the start of the file
+        for (int i = 0; i < 6; ++i) {
+            spillFile.release(chunks.get(i));
+        }
+        Assert.assertEquals(spillFile.length(), 4 * bytes(0).length);
+
+        final PhysicalLocationSpillFile.Chunk appended = spillFile.write(bytes(10));
+        for (int i = 6; i < 10; ++i) {
+            Assert.assertTrue(Arrays.equals(spillFile.read(chunks.get(i)), bytes(i)));
+        }
+        Assert.assertTrue(Arrays.equals(spillFile.read(appended), bytes(10)));
+        Assert.assertEquals(spillFile.length(), 0);
+        spillFile.close();
+    }
+
+    @Test
+    public void testOneFileIsSharedAndDeletedOnClose() {
+        final PhysicalLocationSpillFile spillFile = new PhysicalLocationSpillFile(tempDir);
+        Assert.assertEquals(tempDir.listFiles().length, 0);
+
+        final PhysicalLocationSpillFile.Chunk first = spillFile.write(bytes(1));
+        final PhysicalLocationSpillFile.Chunk second = spillFile.write(bytes(2));
+        Assert.assertEquals(tempDir.listFiles().length, 1);
+
+        // emptied files are truncated, but kept for the next chunk
+        spillFile.release(first);
+        spillFile.release(second);
+        Assert.assertEquals(spillFile.length(), 0);
+        spillFile.write(bytes(3));
+        Assert.assertEquals(tempDir.listFiles().length, 1);
+
+        spillFile.close();
+        Assert.assertEquals(tempDir.listFiles().length, 0);
+    }
+
+    private static byte[] bytes(final int i) {
+        final byte[] bytes = new byte[15];
+        Arrays.fill(bytes, (byte) i);
+        bytes[0] = (byte) -i;
+        return bytes;
+    }
+}
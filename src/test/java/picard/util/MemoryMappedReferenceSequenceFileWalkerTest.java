@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.util;
+
+import htsjdk.samtools.reference.FastaSequenceIndexCreator;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import picard.PicardException;
+import picard.util.MemoryMappedReferenceSequenceFileWalker.MappedReferenceSequence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class MemoryMappedReferenceSequenceFileWalkerTest {
+    private static final int[] SEQUENCE_LENGTHS = {100, 7, 1, 64, 333};
+
+    /** Writes a FASTA file with the given line length and line separator. */
+    private File writeFasta(final int lineLength, final String separator, final boolean index) throws IOException {
+        final File fasta = File.createTempFile("mapped_reference.", ".fasta");
+        fasta.deleteOnExit();
+        final Random random = new Random(lineLength);
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < SEQUENCE_LENGTHS.length; ++i) {
+            builder.append(">chr").append(i).append(" description").append(separator);
+            for (int j = 0; j < SEQUENCE_LENGTHS[i]; ++j) {
+                builder.append("ACGTNacgtn".charAt(random.nextInt(10)));
+                if ((j + 1) % lineLength == 0 || j + 1 == SEQUENCE_LENGTHS[i]) {
+                    builder.append(separator);
+                }
+            }
+        }
+        Files.write(fasta.toPath(), builder.toString().getBytes(StandardCharsets.US_ASCII));
+        if (index) {
+            final File fai = new File(fasta.getPath() + ".fai");
+            fai.deleteOnExit();
+            FastaSequenceIndexCreator.create(fasta.toPath(), false);
+        }
+        return fasta;
+    }
+
+    @DataProvider(name = "fastaFormats")
+    public Object[][] fastaFormats() {
+        return new Object[][]{
+                {60, "\n", false},
+                {7, "\n", true},
+                {16, "\r\n", true},
+                {1, "\n", false},
+        };
+    }
+
+    @Test(dataProvider = "fastaFormats")
+    public void testMatchesReferenceSequenceFileWalker(final int lineLength, final String separator, final boolean prefetch) throws IOException {
+        final File fasta = writeFasta(lineLength, separator, true);
+        try (final ReferenceSequenceFileWalker expectedWalker = new ReferenceSequenceFileWalker(fasta);
+             final MemoryMappedReferenceSequenceFileWalker walker = new MemoryMappedReferenceSequenceFileWalker(fasta, prefetch)) {
+            for (int i = 0; i < SEQUENCE_LENGTHS.length; ++i) {
+                final ReferenceSequence expected = expectedWalker.get(i);
+                final MappedReferenceSequence actual = (MappedReferenceSequence) walker.get(i);
+                Assert.assertSame(walker.get(i), actual);
+
+                Assert.assertEquals(actual.getName(), expected.getName());
+                Assert.assertEquals(actual.getContigIndex(), i);
+                Assert.assertEquals(actual.length(), SEQUENCE_LENGTHS[i]);
+                Assert.assertEquals(actual.getBases(), expected.getBases());
+                Assert.assertEquals(actual.getBaseString(), expected.getBaseString());
+                for (int position = 1; position <= actual.length(); ++position) {
+                    Assert.assertEquals(actual.getBase(position), expected.getBases()[position - 1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSkippingAndRandomAccess() throws IOException {
+        final File fasta = writeFasta(10, "\n", true);
+        try (final ReferenceSequenceFileWalker expectedWalker = new ReferenceSequenceFileWalker(fasta);
+             final MemoryMappedReferenceSequenceFileWalker walker = new MemoryMappedReferenceSequenceFileWalker(fasta)) {
+            Assert.assertEquals(walker.get(1).getBases(), expectedWalker.get(1).getBases());
+            Assert.assertEquals(walker.get(3).getBases(), expectedWalker.get(3).getBases());
+            Assert.assertEquals(walker.getSequence(0).getBases(), new ReferenceSequenceFileWalker(fasta).get(0).getBases());
+        }
+    }
+
+    @Test(expectedExceptions = PicardException.class)
+    public void testRequestingEarlierSequence() throws IOException {
+        try (final MemoryMappedReferenceSequenceFileWalker walker = new MemoryMappedReferenceSequenceFileWalker(writeFasta(10, "\n", true))) {
+            walker.get(2);
+            walker.get(1);
+        }
+    }
+
+    @Test(expectedExceptions = PicardException.class)
+    public void testRequiresIndex() throws IOException {
+        final File fasta = writeFasta(10, "\n", false);
+        IOUtil.assertFileIsReadable(fasta);
+        new MemoryMappedReferenceSequenceFileWalker(fasta);
+    }
+}